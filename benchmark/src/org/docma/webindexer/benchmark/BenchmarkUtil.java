@@ -0,0 +1,28 @@
+/*
+ * BenchmarkUtil.java
+ */
+package org.docma.webindexer.benchmark;
+
+import java.io.File;
+
+/**
+ * Helper methods for the benchmarks.
+ *
+ * @author MP
+ */
+class BenchmarkUtil
+{
+    static void deleteRecursive(File f)
+    {
+        if (f == null) {
+            return;
+        }
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * ExtractionBenchmark.java
+ */
+package org.docma.webindexer.benchmark;
+
+import com.nexwave.nsidita.DocFileInfo;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.docma.webindexer.TextExtracter;
+import org.docma.webindexer.XHTMLReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures reading the html files (XHTMLReader.readFile) and extracting
+ * the text (TextExtracter.extract). One operation processes all files of
+ * the synthetic corpus.
+ *
+ * @author MP
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExtractionBenchmark
+{
+    @Param({"en", "de", "fr", "ja"})
+    public String language;
+
+    @Param({"50"})
+    public int fileCount;
+
+    private File corpusDir;
+    private List<File> files;
+    private String[] contents;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        corpusDir = Files.createTempDirectory("docma-bench").toFile();
+        files = SyntheticCorpus.create(corpusDir, language, fileCount, 40);
+        contents = new String[files.size()];
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = XHTMLReader.readFile(files.get(i), null);
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        BenchmarkUtil.deleteRecursive(corpusDir);
+    }
+
+    @Benchmark
+    public void readFile(Blackhole bh) throws Exception
+    {
+        for (File f : files) {
+            bh.consume(XHTMLReader.readFile(f, null));
+        }
+    }
+
+    @Benchmark
+    public void extract(Blackhole bh) throws Exception
+    {
+        for (int i = 0; i < contents.length; i++) {
+            bh.consume(TextExtracter.extract(contents[i], new DocFileInfo(files.get(i))));
+        }
+    }
+}
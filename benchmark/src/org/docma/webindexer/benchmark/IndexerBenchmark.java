@@ -0,0 +1,87 @@
+/*
+ * IndexerBenchmark.java
+ */
+package org.docma.webindexer.benchmark;
+
+import com.nexwave.nquindexer.IndexingContext;
+import com.nexwave.nquindexer.PostingsList;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.docma.webindexer.FilesIndexer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures FilesIndexer.runExtractData, i.e. reading, text extraction,
+ * clean-up, tokenizing and stemming (or CJK analysis) of all files of
+ * the synthetic corpus, with an indexer created for an IndexingContext
+ * like in DocmaWebIndexer. The stem cache is cleared before each 
+ * iteration, so that each iteration behaves like a new indexer run.
+ *
+ * @author MP
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IndexerBenchmark
+{
+    @Param({"en", "de", "fr", "ja"})
+    public String language;
+
+    @Param({"50"})
+    public int fileCount;
+
+    private File corpusDir;
+    private List<File> files;
+    private IndexingContext context;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        corpusDir = Files.createTempDirectory("docma-bench").toFile();
+        files = SyntheticCorpus.create(corpusDir, language, fileCount, 40);
+        context = new IndexingContext(IndexingContext.normalizeLanguage(language), null, null, null);
+    }
+
+    @Setup(Level.Iteration)
+    public void clearStemCache()
+    {
+        context.getStemCache().clear();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        BenchmarkUtil.deleteRecursive(corpusDir);
+    }
+
+    @Benchmark
+    public Map<String, PostingsList> runExtractData()
+    {
+        FilesIndexer indexer = new FilesIndexer(context);
+        Map<String, PostingsList> dico = new HashMap<String, PostingsList>();
+        indexer.init(dico);
+        for (File f : files) {
+            indexer.runExtractData(f);
+        }
+        return dico;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * StemmerBenchmark.java
+ */
+package org.docma.webindexer.benchmark;
+
+import com.nexwave.stemmer.snowball.SnowballStemmer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the snowball stemmers of com.nexwave.stemmer.snowball.ext.
+ * One operation stems the complete word list of the synthetic corpus.
+ *
+ * @author MP
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StemmerBenchmark
+{
+    @Param({"English", "German", "French", "danish", "dutch", "finnish", "hungarian", 
+            "italian", "norwegian", "porter", "portuguese", "romanian", "russian", 
+            "spanish", "swedish", "turkish"})
+    public String stemmerName;
+
+    private SnowballStemmer stemmer;
+    private String[] words;
+    private char[][] wordChars;
+    private char[] stemBuf = new char[256];
+
+    @Setup
+    public void setup() throws Exception
+    {
+        Class<?> cls = Class.forName("com.nexwave.stemmer.snowball.ext." + stemmerName + "Stemmer");
+        stemmer = (SnowballStemmer) cls.newInstance();
+        List<String> list = SyntheticCorpus.getStemmerInput();
+        words = list.toArray(new String[list.size()]);
+        wordChars = new char[words.length][];
+        for (int i = 0; i < words.length; i++) {
+            wordChars[i] = words[i].toCharArray();
+        }
+    }
+
+    @Benchmark
+    public void stemString(Blackhole bh)
+    {
+        for (String w : words) {
+            stemmer.setCurrent(w);
+            stemmer.stem();
+            bh.consume(stemmer.getCurrent());
+        }
+    }
+
+    @Benchmark
+    public int stemCharArray()
+    {
+        int total = 0;
+        for (char[] w : wordChars) {
+            total += stemmer.stem(w, 0, w.length, stemBuf, 0);
+        }
+        return total;
+    }
+}
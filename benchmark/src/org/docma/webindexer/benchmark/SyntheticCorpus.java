@@ -0,0 +1,304 @@
+/*
+ * SyntheticCorpus.java
+ */
+package org.docma.webindexer.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a reproducible corpus of html files for the benchmarks.
+ * <p>
+ * The files imitate the output of the DocBook and DITA transformations:
+ * navigation header and footer, a content div with nested sections,
+ * titles, paragraphs, lists, tables, program listings, character entities
+ * and meta description/keywords. The words are taken from small
+ * vocabularies per language and chosen by a random generator with a
+ * fixed seed, using a Zipf-like distribution. Therefore the same corpus
+ * is created on every machine without any external files.
+ *
+ * @author MP
+ */
+public class SyntheticCorpus
+{
+    public static final long SEED = 20100813L;
+
+    private static final String[] EN_WORDS = {
+        "the", "of", "and", "to", "a", "in", "is", "for", "configuration", "file",
+        "user", "manager", "publication", "export", "search", "index", "content", "value",
+        "attribute", "element", "option", "running", "configured", "settings", "document",
+        "chapter", "section", "table", "figure", "example", "select", "click", "button",
+        "dialog", "window", "version", "release", "translation", "language", "product",
+        "installation", "server", "client", "database", "connection", "parameter",
+        "properties", "directory", "output", "input", "format", "style", "template",
+        "generated", "creating", "deleted", "updates", "indexing", "searches", "publishing"
+    };
+
+    private static final String[] DE_WORDS = {
+        "der", "die", "das", "und", "in", "zu", "den", "mit", "Konfiguration", "Datei",
+        "Benutzer", "Verwaltung", "Veröffentlichung", "Suche", "Inhalt", "Wert",
+        "Einstellungen", "Dokument", "Kapitel", "Abschnitt", "Tabelle", "Beispiel",
+        "auswählen", "Schaltfläche", "Fenster", "Version", "Übersetzung",
+        "Sprache", "Installation", "Verbindung", "Parameter", "Verzeichnis", "Ausgabe",
+        "Größe", "Straße", "erzeugt", "gelöscht", "Aktualisierungen",
+        "Indizierung", "veröffentlichen", "Vorlagen", "Formatierung", "Benutzeroberfläche"
+    };
+
+    private static final String[] FR_WORDS = {
+        "le", "la", "les", "de", "des", "et", "un", "une", "configuration", "fichier",
+        "utilisateur", "gestionnaire", "publication", "exportation", "recherche", "contenu",
+        "valeur", "paramètres", "document", "chapitre", "section", "tableau", "exemple",
+        "sélectionner", "bouton", "fenêtre", "version", "traduction", "langue",
+        "installation", "connexion", "répertoire", "sortie", "modèle", "généré",
+        "supprimés", "mises", "indexation", "publier", "complément", "éléments",
+        "création", "données", "caractères"
+    };
+
+    private static final String[] JA_WORDS = {
+        "検索", "テキスト", "設定", "ファイル",
+        "ユーザー", "管理", "出版", "エクスポート",
+        "索引", "内容", "値", "属性", "要素", "オプション",
+        "文書", "章", "節", "表", "例", "選択", "ボタン",
+        "ウィンドウ", "翻訳", "言語", "中文",
+        "韓国語", "これは", "です", "。", "、"
+    };
+
+    private static final String[] ENTITIES = {
+        "&amp;", "&lt;", "&gt;", "&#169;", "&#x2122;", "&nbsp;", "&quot;", "&#8211;"
+    };
+
+    private final String language;
+    private final String[] words;
+    private final Random rnd;
+
+    private SyntheticCorpus(String language)
+    {
+        this.language = language;
+        this.words = getWords(language);
+        this.rnd = new Random(SEED ^ language.hashCode());
+    }
+
+    /**
+     * Returns the vocabulary of the given language ("en", "de", "fr" or "ja").
+     */
+    public static String[] getWords(String language)
+    {
+        if (language.equals("de")) return DE_WORDS;
+        if (language.equals("fr")) return FR_WORDS;
+        if (language.equals("ja") || language.equals("zh") || language.equals("ko")) return JA_WORDS;
+        return EN_WORDS;
+    }
+
+    /**
+     * Returns the words of all vocabularies in lower case plus inflected
+     * forms, as input for the stemmer benchmarks.
+     */
+    public static List<String> getStemmerInput()
+    {
+        String[] suffixes = { "", "s", "es", "ed", "ing", "ly", "ness", "ation", "en", "ung", "ement", "ions" };
+        List<String> list = new ArrayList<String>();
+        for (String[] voc : new String[][] { EN_WORDS, DE_WORDS, FR_WORDS }) {
+            for (String w : voc) {
+                for (String suffix : suffixes) {
+                    list.add(w.toLowerCase() + suffix);
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Writes the corpus into the given directory.
+     * @param dir the output directory (created if it does not exist)
+     * @param language the language of the text
+     * @param fileCount the number of html files
+     * @param paragraphs the number of paragraphs per file
+     * @return the created files
+     */
+    public static List<File> create(File dir, String language, int fileCount, int paragraphs)
+    throws IOException
+    {
+        dir.mkdirs();
+        SyntheticCorpus gen = new SyntheticCorpus(language);
+        List<File> files = new ArrayList<File>(fileCount);
+        for (int i = 0; i < fileCount; i++) {
+            // Alternate between DocBook and DITA style output in sub-directories
+            boolean dita = (i % 3 == 2);
+            File sub = new File(dir, dita ? "topics" : "chapters");
+            sub.mkdirs();
+            File f = new File(sub, (dita ? "topic" : "ch") + (i + 1) + ".html");
+            Writer out = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+            try {
+                out.write(dita ? gen.createDITAPage(paragraphs) : gen.createDocBookPage(paragraphs));
+            } finally {
+                out.close();
+            }
+            files.add(f);
+        }
+        return files;
+    }
+
+    /**
+     * Creates the content of a single html file in DocBook style.
+     */
+    public String createDocBookPage(int paragraphs)
+    {
+        StringBuilder buf = new StringBuilder(paragraphs * 600);
+        String title = sentence(4, false);
+        buf.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        buf.append("<html xmlns=\"http://www.w3.org/1999/xhtml\" lang=\"").append(language).append("\">");
+        buf.append("<head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\"/>");
+        buf.append("<title>").append(title).append("</title>");
+        buf.append("<meta name=\"description\" content=\"").append(sentence(12, false)).append("\"/>");
+        buf.append("<meta name=\"keywords\" content=\"").append(sentence(5, false)).append("\"/>");
+        buf.append("<link rel=\"stylesheet\" type=\"text/css\" href=\"../css/docbook.css\"/>");
+        buf.append("<script type=\"text/javascript\">var x = \"not indexed\";</script></head>\n");
+        buf.append("<body><div class=\"navheader\"><table width=\"100%\"><tr><td><a accesskey=\"p\" href=\"prev.html\">");
+        buf.append(sentence(3)).append("</a></td></tr></table></div>\n");
+        buf.append("<div id=\"content\"><div class=\"chapter\" title=\"").append(title).append("\">");
+        buf.append("<div class=\"titlepage\"><h1 class=\"title\"><a name=\"ch").append(rnd.nextInt(1000)).append("\"></a>");
+        buf.append(title).append("</h1></div>\n");
+        for (int p = 0; p < paragraphs; p++) {
+            if (p % 8 == 0) {
+                buf.append("<div class=\"section\"><h2 class=\"title\">").append(sentence(3)).append("</h2>\n");
+            }
+            switch (rnd.nextInt(6)) {
+                case 0:
+                    buf.append("<div class=\"itemizedlist\"><ul class=\"itemizedlist\">");
+                    for (int k = 0; k < 3; k++) {
+                        buf.append("<li class=\"listitem\"><p>").append(sentence(8)).append("</p></li>");
+                    }
+                    buf.append("</ul></div>\n");
+                    break;
+                case 1:
+                    buf.append("<div class=\"table\"><table class=\"table\" border=\"1\"><tr>");
+                    for (int k = 0; k < 3; k++) {
+                        buf.append("<td align=\"left\">").append(sentence(2)).append("</td>");
+                    }
+                    buf.append("</tr></table></div>\n");
+                    break;
+                case 2:
+                    buf.append("<pre class=\"programlisting\">&lt;config name=\"").append(word())
+                       .append("\"/&gt; -&gt; ").append(word()).append("()</pre>\n");
+                    break;
+                default:
+                    buf.append("<p class=\"para\">").append(sentence(25 + rnd.nextInt(30))).append("</p>\n");
+            }
+            if ((p % 8 == 7) || (p == paragraphs - 1)) {
+                buf.append("</div>\n");
+            }
+        }
+        buf.append("<div class=\"no_search_indexing\">").append(sentence(5)).append("</div>\n");
+        buf.append("</div></div>\n<div class=\"navfooter\"><a href=\"next.html\">").append(sentence(3));
+        buf.append("</a></div></body></html>\n");
+        return buf.toString();
+    }
+
+    /**
+     * Creates the content of a single html file in DITA style.
+     */
+    public String createDITAPage(int paragraphs)
+    {
+        StringBuilder buf = new StringBuilder(paragraphs * 600);
+        String title = sentence(4, false);
+        buf.append("<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\" \"http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd\">\n");
+        buf.append("<html xmlns=\"http://www.w3.org/1999/xhtml\" xml:lang=\"").append(language).append("\">");
+        buf.append("<head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=utf-8\" />");
+        buf.append("<meta name=\"DC.Type\" content=\"concept\" />");
+        buf.append("<meta name=\"description\" content=\"").append(sentence(10, false)).append("\" />");
+        buf.append("<title>").append(title).append("</title></head>\n");
+        buf.append("<body id=\"topic").append(rnd.nextInt(1000)).append("\">");
+        buf.append("<div id=\"content\"><h1 class=\"title topictitle1\">").append(title).append("</h1>\n");
+        buf.append("<div class=\"body conbody\"><p class=\"shortdesc\">").append(sentence(10)).append("</p>\n");
+        for (int p = 0; p < paragraphs; p++) {
+            if (p % 10 == 0) {
+                buf.append("<div class=\"section\"><h2 class=\"title sectiontitle\">").append(sentence(3)).append("</h2>\n");
+            }
+            if (rnd.nextInt(5) == 0) {
+                buf.append("<ol class=\"ol steps\"><li class=\"li step\"><span class=\"ph cmd\">")
+                   .append(sentence(6)).append("</span></li></ol>\n");
+            } else {
+                buf.append("<p class=\"p\">").append(sentence(25 + rnd.nextInt(30))).append("</p>\n");
+            }
+            if ((p % 10 == 9) || (p == paragraphs - 1)) {
+                buf.append("</div>\n");
+            }
+        }
+        buf.append("</div></div>\n<div class=\"related-links\"><div class=\"familylinks\">");
+        buf.append("<div class=\"parentlink\"><strong>Parent topic:</strong> <a class=\"link\" href=\"parent.html\">");
+        buf.append(sentence(2)).append("</a></div></div></div></body></html>\n");
+        return buf.toString();
+    }
+
+    private String sentence(int wordCount)
+    {
+        return sentence(wordCount, true);
+    }
+
+    /**
+     * Returns a sentence of random words, optionally with inline markup
+     * and character entities (not allowed in attribute values).
+     */
+    private String sentence(int wordCount, boolean markup)
+    {
+        StringBuilder buf = new StringBuilder(wordCount * 10);
+        boolean cjk = (words == JA_WORDS);
+        for (int i = 0; i < wordCount; i++) {
+            if ((i > 0) && !cjk) {
+                buf.append(' ');
+            }
+            int r = markup ? rnd.nextInt(40) : 40;
+            if (r == 0) {
+                buf.append(ENTITIES[rnd.nextInt(ENTITIES.length)]);
+            } else if (r == 1) {
+                buf.append("<b>").append(word()).append("</b>");
+            } else if (r == 2) {
+                buf.append("<code class=\"literal\">").append(word()).append(".").append(word()).append("</code>");
+            } else if (r == 3) {
+                buf.append(word()).append(",");
+            } else {
+                buf.append(word());
+            }
+        }
+        if (! cjk) {
+            buf.append('.');
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Returns a word with a Zipf-like distribution: the first words of the
+     * vocabulary are chosen much more often than the last ones. Some words
+     * are compounds of two words or identifiers with a number, which creates
+     * a long tail of rare words.
+     */
+    private String word()
+    {
+        int r = rnd.nextInt(40);
+        if (r == 0) {
+            return "id_" + rnd.nextInt(5000);
+        }
+        String w = vocabularyWord();
+        if (r < 4) {
+            w = w + vocabularyWord().toLowerCase();
+        }
+        return w;
+    }
+
+    private String vocabularyWord()
+    {
+        double d = rnd.nextDouble();
+        int idx = (int) (words.length * d * d * d);
+        String w = words[Math.min(idx, words.length - 1)];
+        if (rnd.nextInt(12) == 0) {
+            w = Character.toUpperCase(w.charAt(0)) + w.substring(1);
+        }
+        return w;
+    }
+}
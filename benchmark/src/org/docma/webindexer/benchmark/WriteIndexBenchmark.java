@@ -0,0 +1,82 @@
+/*
+ * WriteIndexBenchmark.java
+ */
+package org.docma.webindexer.benchmark;
+
+import com.nexwave.nquindexer.IndexingContext;
+import com.nexwave.nquindexer.PostingsList;
+import com.nexwave.nquindexer.WriteJSFiles;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.docma.webindexer.FilesIndexer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures writing the javascript index files (WriteJSFiles.WriteIndex)
+ * with the settings of an IndexingContext, like in DocmaWebIndexer.
+ * The dictionary is created once from the synthetic corpus.
+ *
+ * @author MP
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WriteIndexBenchmark
+{
+    @Param({"200"})
+    public int fileCount;
+
+    @Param({"3"})
+    public int shardCount;
+
+    private File corpusDir;
+    private File outputDir;
+    private IndexingContext context;
+    private Map<String, PostingsList> dico;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        corpusDir = Files.createTempDirectory("docma-bench").toFile();
+        outputDir = new File(corpusDir, "search");
+        outputDir.mkdirs();
+        List<File> files = SyntheticCorpus.create(corpusDir, "en", fileCount, 40);
+        context = new IndexingContext("en", null, null, null);
+        FilesIndexer indexer = new FilesIndexer(context);
+        dico = new HashMap<String, PostingsList>();
+        indexer.init(dico);
+        for (File f : files) {
+            indexer.runExtractData(f);
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        BenchmarkUtil.deleteRecursive(corpusDir);
+    }
+
+    @Benchmark
+    public void writeIndex()
+    {
+        WriteJSFiles.WriteIndex(new File(outputDir, ".js").getPath(), dico, context, shardCount, 0);
+    }
+}
@@ -0,0 +1,47 @@
+package com.nexwave.nquindexer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes gzip compressed copies of the generated files (extension ".gz").
+ * The files are written once and downloaded many times, therefore the
+ * best compression level is used by default.
+ *
+ * @version 1.0
+ */
+public class GzipCompressor implements OutputCompressor {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int level;
+
+    public GzipCompressor() {
+        this(Deflater.BEST_COMPRESSION);
+    }
+
+    /**
+     * @param level the compression level (0-9)
+     */
+    public GzipCompressor(int level) {
+        this.level = level;
+    }
+
+    public String getExtension() {
+        return ".gz";
+    }
+
+    public OutputStream createStream(OutputStream out) throws IOException {
+        return new GZIPOutputStream(out, BUFFER_SIZE) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    public String toString() {
+        return "gzip level " + level;
+    }
+}
@@ -0,0 +1,255 @@
+package com.nexwave.nquindexer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writer for the files generated by {@link WriteJSFiles}.
+ * <p>
+ * The characters are encoded to UTF-8 directly into a byte buffer, which
+ * is reused by all files written by the same thread, and the buffer is
+ * written to the file through a FileChannel. If compressors are given,
+ * each filled buffer is also passed to them, so that the compressed
+ * copies (e.g. index-1.js.gz) are created in the same pass, without
+ * reading the file again. Compressed copies of known formats which are
+ * not written (e.g. left over from a previous run with compression) are
+ * deleted, so that a web server cannot deliver outdated data.
+ * <p>
+ * Instances are not thread-safe.
+ *
+ * @version 1.0
+ */
+public class IndexFileWriter extends Writer {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Extensions of compressed copies which are deleted if not written
+    private static final String[] KNOWN_EXTENSIONS = { ".gz", ".br" };
+
+    // Buffer of the thread, or null while it is used by a writer
+    private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>();
+
+    private final FileChannel channel;
+    private final List<OutputStream> compressed = new ArrayList<OutputStream>();
+    private final ByteBuffer buf;
+    private final char[] digits = new char[11];
+    private char highSurrogate = 0;
+    private long byteCount = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates the file (or truncates an existing file).
+     * @param file the file
+     * @param compressors the compressors creating copies of the file (may be null)
+     */
+    public IndexFileWriter(File file, List<OutputCompressor> compressors) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                   StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        ByteBuffer b = BUFFERS.get();
+        BUFFERS.set(null);
+        buf = (b != null) ? b : ByteBuffer.allocate(BUFFER_SIZE);
+        buf.clear();
+        List<String> written = new ArrayList<String>();
+        try {
+            if (compressors != null) {
+                for (OutputCompressor c : compressors) {
+                    File copy = new File(file.getPath() + c.getExtension());
+                    OutputStream fout = new FileOutputStream(copy);
+                    try {
+                        compressed.add(c.createStream(fout));
+                    } catch (IOException | RuntimeException ex) {
+                        fout.close();
+                        throw ex;
+                    }
+                    written.add(c.getExtension());
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            // Close the channel and the created streams, and return the buffer
+            try { close(); } catch (IOException ex2) {}
+            throw ex;
+        }
+        for (String ext : KNOWN_EXTENSIONS) {
+            if (!written.contains(ext)) {
+                new File(file.getPath() + ext).delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes the file and its compressed copies of known formats.
+     * @return true if the file has been deleted
+     */
+    public static boolean delete(File file) {
+        for (String ext : KNOWN_EXTENSIONS) {
+            new File(file.getPath() + ext).delete();
+        }
+        return file.delete();
+    }
+
+    public void write(int c) throws IOException {
+        encode((char) c);
+    }
+
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            encode(cbuf[i]);
+        }
+    }
+
+    public void write(String str, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            encode(str.charAt(i));
+        }
+    }
+
+    public void write(String str) throws IOException {
+        write(str, 0, str.length());
+    }
+
+    /**
+     * Writes the decimal representation of a non-negative number.
+     */
+    public void writeNumber(int value) throws IOException {
+        int pos = digits.length;
+        do {
+            digits[--pos] = (char) ('0' + (value % 10));
+            value /= 10;
+        } while (value > 0);
+        write(digits, pos, digits.length - pos);
+    }
+
+    /**
+     * Writes bytes which are already encoded, e.g. binary data.
+     */
+    public void writeBytes(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buf.hasRemaining()) {
+                drain();
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Returns a stream writing into this writer, for binary data.
+     */
+    public OutputStream getOutputStream() {
+        return new OutputStream() {
+            public void write(int b) throws IOException {
+                if (!buf.hasRemaining()) {
+                    drain();
+                }
+                buf.put((byte) b);
+            }
+
+            public void write(byte[] b, int off, int len) throws IOException {
+                writeBytes(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * Returns the number of bytes written to the (uncompressed) file.
+     */
+    public long getByteCount() {
+        return byteCount + buf.position();
+    }
+
+    private void encode(char ch) throws IOException {
+        if (buf.remaining() < 4) {
+            drain();
+        }
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(ch)) {
+                int cp = Character.toCodePoint(high, ch);
+                buf.put((byte) (0xF0 | (cp >> 18)));
+                buf.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buf.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (cp & 0x3F)));
+                return;
+            }
+            buf.put((byte) '?');  // unpaired surrogate, as written by OutputStreamWriter
+        }
+        if (ch < 0x80) {
+            buf.put((byte) ch);
+        } else if (ch < 0x800) {
+            buf.put((byte) (0xC0 | (ch >> 6)));
+            buf.put((byte) (0x80 | (ch & 0x3F)));
+        } else if (Character.isHighSurrogate(ch)) {
+            highSurrogate = ch;
+        } else if (Character.isLowSurrogate(ch)) {
+            buf.put((byte) '?');
+        } else {
+            buf.put((byte) (0xE0 | (ch >> 12)));
+            buf.put((byte) (0x80 | ((ch >> 6) & 0x3F)));
+            buf.put((byte) (0x80 | (ch & 0x3F)));
+        }
+    }
+
+    /**
+     * Writes the content of the buffer to the file and the compressors.
+     */
+    private void drain() throws IOException {
+        buf.flip();
+        int len = buf.remaining();
+        for (OutputStream out : compressed) {
+            out.write(buf.array(), buf.arrayOffset() + buf.position(), len);
+        }
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        byteCount += len;
+        buf.clear();
+    }
+
+    public void flush() throws IOException {
+        drain();
+    }
+
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        IOException error = null;
+        try {
+            if (highSurrogate != 0) {
+                highSurrogate = 0;
+                buf.put((byte) '?');
+            }
+            drain();
+        } catch (IOException ex) {
+            error = ex;
+        }
+        for (OutputStream out : compressed) {
+            try {
+                out.close();
+            } catch (IOException ex) {
+                if (error == null) error = ex;
+            }
+        }
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            if (error == null) error = ex;
+        }
+        BUFFERS.set(buf);
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package com.nexwave.nquindexer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Single-pass tokenizer for the text extracted from the html files.
+ * <p>
+ * Produces the same words as the regular expression based clean-up of
+ * SaxHTMLIndex and FilesIndexer (lower case conversion, punctuation removal,
+ * removal of the words to ignore, splitting at white space), but
+ * classifies the characters with lookup tables and writes the cleaned
+ * text into a single char buffer instead of copying the whole text for
+ * each regular expression.
+ * <p>
+ * The clean-up lists read from the props files are regular expressions.
+ * Only lists consisting of literal words and single punctuation characters
+ * can be handled by this class (see {@link #create(List, List)}).
+ * <p>
+ * Instances are immutable and can be shared by several threads.
+ *
+ * @version 1.0
+ */
+public class IndexTokenizer {
+
+    /**
+     * Receives the words found by the tokenizer.
+     */
+    public interface TokenHandler {
+        /**
+         * Called for each word. The characters are only valid during the call.
+         */
+        void token(char[] buf, int start, int len);
+    }
+
+    // Default words to ignore (if no clean-up props file exists)
+    private static final String[] DEFAULT_STOPWORDS = {
+        "the", "a", "an", "to", "and", "or",
+        "is", "are", "in", "with", "be", "can",
+        "each", "has", "have", "of", "\u00A9", "not",
+        "for", "this", "as", "it", "he", "she",
+        "you", "by", "so", "on", "your", "at",
+        "-or-", "so", "on", "your", "at",
+        "i", "me", "my"
+    };
+
+    private static final String REGEX_META_CHARS = "\\^$.|?*+()[]{}";
+
+    private static final int MAX_CACHED = 16;
+
+    // Tokenizers created by getInstance(), least recently used first
+    private static final Map<List<List<String>>, IndexTokenizer> CACHE =
+        new LinkedHashMap<List<List<String>>, IndexTokenizer>(MAX_CACHED, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<List<List<String>>, IndexTokenizer> eldest) {
+                return size() > MAX_CACHED;
+            }
+        };
+
+    private final boolean[] punctuation = new boolean[65536];
+    private final boolean hyphenIsPunctuation;
+    private final StopwordMatcher stopwords;
+    private final boolean splittable;
+
+    private IndexTokenizer(String[] stopwords, List<Character> extraPunctuation) {
+        this.stopwords = new StopwordMatcher(stopwords);
+        boolean blank = false;
+        for (String w : stopwords) {
+            blank |= (w.indexOf(' ') >= 0);
+        }
+        this.splittable = !blank;
+        String chars = IndexerConstants.EUPUNCTUATION_CHARS + IndexerConstants.JPPUNCTUATION_CHARS;
+        for (int i = 0; i < chars.length(); i++) {
+            punctuation[chars.charAt(i)] = true;
+        }
+        boolean hyphen = false;
+        for (Character ch : extraPunctuation) {
+            if (ch.charValue() == '-') {
+                hyphen = true;
+            } else {
+                punctuation[ch.charValue()] = true;
+            }
+        }
+        hyphenIsPunctuation = hyphen;
+    }
+
+    /**
+     * Creates a tokenizer for the given clean-up lists.
+     * @param cleanUpStrings the words to ignore (null or empty for the default list)
+     * @param cleanUpChars the additional punctuation characters (may be null)
+     * @return the tokenizer, or null if the lists contain regular expressions
+     *         other than literal words and single characters
+     */
+    public static IndexTokenizer create(List<String> cleanUpStrings, List<String> cleanUpChars) {
+        String[] words;
+        if ((cleanUpStrings == null) || cleanUpStrings.isEmpty()) {
+            words = DEFAULT_STOPWORDS;
+        } else {
+            words = new String[cleanUpStrings.size() + 1];
+            words[0] = "a";
+            for (int i = 0; i < cleanUpStrings.size(); i++) {
+                String w = cleanUpStrings.get(i);
+                if (! isLiteral(w)) {
+                    return null;
+                }
+                words[i + 1] = w;
+            }
+        }
+
+        List<Character> extraChars = new ArrayList<Character>();
+        if ((cleanUpChars != null) && !cleanUpChars.isEmpty()) {
+            extraChars.add('\u3002');
+            for (String s : cleanUpChars) {
+                int ch = literalChar(s);
+                if (ch < 0) {
+                    return null;
+                }
+                extraChars.add((char) ch);
+            }
+        }
+        return new IndexTokenizer(words, extraChars);
+    }
+
+    /**
+     * Same as {@link #create(List, List)}, but returns the tokenizer of a
+     * previous call with equal lists if it is still cached. Used by
+     * long-running processes which index many directories with the same
+     * clean-up lists, so that the stopword automaton is built only once.
+     */
+    public static IndexTokenizer getInstance(List<String> cleanUpStrings, List<String> cleanUpChars) {
+        List<List<String>> key = new ArrayList<List<String>>(2);
+        key.add((cleanUpStrings == null) ? null : new ArrayList<String>(cleanUpStrings));
+        key.add((cleanUpChars == null) ? null : new ArrayList<String>(cleanUpChars));
+        synchronized (CACHE) {
+            IndexTokenizer tokenizer = CACHE.get(key);
+            if (tokenizer != null) {
+                return tokenizer;
+            }
+        }
+        IndexTokenizer tokenizer = create(cleanUpStrings, cleanUpChars);
+        if (tokenizer != null) {
+            synchronized (CACHE) {
+                CACHE.put(key, tokenizer);
+            }
+        }
+        return tokenizer;
+    }
+
+    private static boolean isLiteral(String word) {
+        if ((word == null) || (word.length() == 0)) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (REGEX_META_CHARS.indexOf(word.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the character matched by the given regular expression,
+     * or -1 if the expression does not match exactly one literal character.
+     */
+    private static int literalChar(String regex) {
+        if (regex == null) {
+            return -1;
+        }
+        if ((regex.length() == 1) && (REGEX_META_CHARS.indexOf(regex.charAt(0)) < 0)) {
+            return regex.charAt(0);
+        }
+        if ((regex.length() == 2) && (regex.charAt(0) == '\\') &&
+            !Character.isLetterOrDigit(regex.charAt(1))) {
+            return regex.charAt(1);  // escaped character, e.g. \.
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if the text can be split after any white space character
+     * and tokenized in parts, giving the same words as tokenizing the whole
+     * text. This is the case if none of the words to ignore contains a blank.
+     */
+    public boolean isSplittable() {
+        return splittable;
+    }
+
+    /**
+     * Splits the given text into the words to be indexed.
+     */
+    public List<String> tokenize(CharSequence text) {
+        final List<String> list = new ArrayList<String>();
+        tokenize(text, new TokenHandler() {
+            public void token(char[] buf, int start, int len) {
+                list.add(new String(buf, start, len));
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Joins the words separated by blanks.
+     */
+    public static String joinWords(String[] words) {
+        StringBuilder buf = new StringBuilder();
+        for (String w : words) {
+            if (buf.length() > 0) {
+                buf.append(' ');
+            }
+            buf.append(w);
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Splits the given text into the words to be indexed and passes each
+     * word to the handler.
+     */
+    public void tokenize(CharSequence text, TokenHandler handler) {
+        char[] buf;
+        int len;
+        if (isLocaleSensitiveLowerCase()) {
+            String lower = text.toString().toLowerCase();
+            buf = new char[lower.length()];
+            len = normalize(lower, false, buf);
+        } else {
+            buf = new char[text.length()];
+            len = normalize(text, true, buf);
+            if (len < 0) {
+                // Text contains characters with context-sensitive lower case mapping
+                String lower = text.toString().toLowerCase();
+                if (lower.length() > buf.length) {
+                    buf = new char[lower.length()];
+                }
+                len = normalize(lower, false, buf);
+            }
+        }
+
+        // Positions of the words to ignore: start and end offset of each match
+        int[] removed = stopwords.find(buf, len);
+
+        // Emit the words, treating removed words as white space
+        int cnt = removed[0];
+        int r = 0;  // next removed word
+        int pos = 0;
+        while (pos < len) {
+            int limit = (r < cnt) ? removed[2 * r + 1] : len;
+            while (pos < limit) {
+                if (buf[pos] == ' ') {
+                    pos++;
+                    continue;
+                }
+                int start = pos;
+                while ((pos < limit) && (buf[pos] != ' ')) {
+                    pos++;
+                }
+                handler.token(buf, start, pos - start);
+            }
+            if (r < cnt) {
+                pos = removed[2 * r + 2];
+                r++;
+            }
+        }
+    }
+
+    private static boolean isLocaleSensitiveLowerCase() {
+        String lang = Locale.getDefault().getLanguage();
+        return lang.equals("tr") || lang.equals("az") || lang.equals("lt");
+    }
+
+    /**
+     * Writes the lower case text to out, replacing white space sequences and
+     * punctuation by blanks. Returns the number of characters written, or -1 if
+     * lower case conversion was requested and the text contains characters
+     * which cannot be converted character by character.
+     */
+    private int normalize(CharSequence text, boolean toLower, char[] out) {
+        final int n = text.length();
+        int len = 0;
+        int i = 0;
+        while (i < n) {
+            char ch = text.charAt(i);
+            if (isRegexSpace(ch)) {
+                out[len++] = ' ';
+                do { i++; } while ((i < n) && isRegexSpace(text.charAt(i)));
+            } else if (ch == '-') {
+                int j = i + 1;
+                while ((j < n) && (text.charAt(j) == '-')) j++;
+                // "->" is removed first, then sequences of two or more hyphens
+                boolean arrow = (j < n) && (text.charAt(j) == '>');
+                int cnt = arrow ? (j - i - 1) : (j - i);
+                if (cnt >= 2) {
+                    out[len++] = ' ';
+                } else if (cnt == 1) {
+                    out[len++] = hyphenIsPunctuation ? ' ' : '-';
+                }
+                if (arrow) {
+                    out[len++] = ' ';
+                    j++;
+                }
+                i = j;
+            } else if (toLower && (ch >= 0x80)) {
+                if ((ch == '\u03A3') || (ch == '\u0130')) {
+                    return -1;
+                }
+                if (Character.isHighSurrogate(ch) && (i + 1 < n) &&
+                    Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int cp = Character.toLowerCase(Character.toCodePoint(ch, text.charAt(i + 1)));
+                    len += Character.toChars(cp, out, len);
+                    i += 2;
+                } else {
+                    char lower = Character.toLowerCase(ch);
+                    out[len++] = punctuation[lower] ? ' ' : lower;
+                    i++;
+                }
+            } else {
+                if (toLower && (ch >= 'A') && (ch <= 'Z')) {
+                    ch = (char) (ch + ('a' - 'A'));
+                }
+                out[len++] = punctuation[ch] ? ' ' : ch;
+                i++;
+            }
+        }
+        return len;
+    }
+
+    public static boolean isRegexSpace(char ch) {
+        // same as \s in java.util.regex
+        return (ch == ' ') || (ch == '\t') || (ch == '\n') || (ch == '\u000B') || (ch == '\f') || (ch == '\r');
+    }
+}
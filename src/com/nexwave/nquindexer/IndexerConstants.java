@@ -14,4 +14,10 @@ public abstract class IndexerConstants {
 	public static final String JPPUNCTUATION1 = "\\u3000|\\u3001|\\u3002|\\u3003|\\u3008|\\u3009|\\u300C|\\u300D";
 	public static final String JPPUNCTUATION2 = "\\u3013|\\u3014|\\u3015|\\u301C|\\u301D|\\u301E|\\u301F";
 	public static final String JPPUNCTUATION3 = "\\u3013|\\u300C|\\u300D";
+
+	// Single characters matched by the punctuation patterns above
+	// (the hyphen sequences of EUPUNCTUATION1 are not included)
+	public static final String EUPUNCTUATION_CHARS = "$|%,;.':()/*\"{}=!&+<>#?[]\\";
+	public static final String JPPUNCTUATION_CHARS = "\u3000\u3001\u3002\u3003\u3008\u3009\u300C\u300D"
+	                                               + "\u3013\u3014\u3015\u301C\u301D\u301E\u301F";
 }
@@ -46,12 +46,14 @@ public class IndexerTask extends Task {
 
 	// ANT parameters
 	private String htmldir=null;
+    /**
+     * Language of the last task whose language has been set.
+     * @deprecated Shared by all tasks running in the JVM. The indexing
+     *   classes take the language from the {@link IndexingContext} of the run.
+     */
+    @Deprecated
     public static String indexerLanguage="en";
-
-    //supported languages: add new additions to this. don't include country codes to the end such as en_US or en_UK,
-    // as stemmers doesn't find a difference between them.
-    private String[] supportedLanguages= {"en", "de", "fr", "zh", "ja", "ko"}; //currently extended support available for
-                // English, German, French and CJK (Chinese [zh], Japanese [ja], Korean [ko]) languages only.
+    private String language = "en";
 
 	// Indexing features: words to remove
 	private ArrayList<String> cleanUpStrings = null;	
@@ -90,28 +92,8 @@ public class IndexerTask extends Task {
      * @throws InterruptedException for ant
      */
     public void setIndexerLanguage(String indexerLanguage){
-        if(indexerLanguage !=null && !"".equals(indexerLanguage)) {
-            int temp = indexerLanguage.indexOf('_');
-            if( temp != -1){
-                indexerLanguage = indexerLanguage.substring(0,temp);
-            }
-            int i=0;
-            for (;i<supportedLanguages.length;i++) {
-                if(indexerLanguage.equals(supportedLanguages[i])){
-                    IndexerTask.indexerLanguage = supportedLanguages[i];
-                    break;
-                }
-            }
-            
-            //if not in supported language list,
-            if(i>=supportedLanguages.length){
-//                System.out.println("The given language, \""+indexerLanguage+"\", does not have extensive support for " +
-//                        "searching. Check documentation for details. ");
-                IndexerTask.indexerLanguage = indexerLanguage;
-            } 
-        } else {
-            IndexerTask.indexerLanguage = "@@"; //fail-safe mechanism, This vm should not reach this point.
-        } 
+        language = IndexingContext.normalizeLanguage(indexerLanguage);
+        IndexerTask.indexerLanguage = language;
     }
 	
 	/**
@@ -135,7 +117,7 @@ public class IndexerTask extends Task {
 		ArrayList<DocFileInfo> filesDescription = null; // list of information about the topic files
 		ArrayList<File> htmlFiles = null; // topic files listed in the given directory
 		ArrayList<String> htmlFilesPathRel = null;
-		Map<String, String> tempDico = new HashMap<String, String>(); 
+		Map<String, PostingsList> tempDico = new HashMap<String, PostingsList>(); 
 		Iterator it;
 		
 		//File name initialization
@@ -221,7 +203,8 @@ public class IndexerTask extends Task {
 		//create a default handler
 		//SaxHTMLIndex spe = new SaxHTMLIndex (); // do not use clean-up props files
 		//SaxHTMLIndex spe = new SaxHTMLIndex (cleanUpStrings); // use clean-up props files
-		SaxHTMLIndex spe = new SaxHTMLIndex (cleanUpStrings, cleanUpChars); // use clean-up props files
+		IndexingContext context = new IndexingContext(language, cleanUpStrings, cleanUpChars, null);
+		SaxHTMLIndex spe = new SaxHTMLIndex (context); // use clean-up props files
 
 		if ( spe.init(tempDico) == 0 ) {
 
@@ -235,7 +218,7 @@ public class IndexerTask extends Task {
 				File ftemp = (File) it.next();
 				//tempMap.put(key, value);
 				//The HTML file information are added in the list of FileInfoObject
-				DocFileInfo docFileInfoTemp = new DocFileInfo(spe.runExtractData(ftemp,indexerLanguage));
+				DocFileInfo docFileInfoTemp = new DocFileInfo(spe.runExtractData(ftemp));
 				
 				ftemp = docFileInfoTemp.getFullpath();
 				String stemp = ftemp.toString();              
@@ -262,7 +245,8 @@ public class IndexerTask extends Task {
 				return;
 			}
 			
-			WriteJSFiles.WriteIndex(outputDir.concat(File.separator).concat(indexName), tempDico);
+			WriteJSFiles.WriteIndex(outputDir.concat(File.separator).concat(indexName), tempDico, 
+			                        context, WriteJSFiles.DEFAULT_SHARD_COUNT, 0);
 			
 			// write the html list file with title and shortdesc
 			//create the list of the existing html files (index starts at 0)
@@ -0,0 +1,243 @@
+package com.nexwave.nquindexer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.lucene.analysis.cjk.CJKAnalyzer;
+
+import com.nexwave.stemmer.snowball.SnowballStemmer;
+import com.nexwave.stemmer.snowball.StemCache;
+import com.nexwave.stemmer.snowball.ext.EnglishStemmer;
+import com.nexwave.stemmer.snowball.ext.FrenchStemmer;
+import com.nexwave.stemmer.snowball.ext.GermanStemmer;
+
+/**
+ * Settings of one indexing run: the language, the clean-up lists, the
+ * encoding properties and the format of the output files.
+ * <p>
+ * The context is created by the task and passed to the parsers and to
+ * {@link WriteJSFiles}, so that several runs with different languages can
+ * be executed concurrently in the same JVM. Instances are immutable.
+ * Stemmers are not thread-safe, therefore {@link #createStemmer()}
+ * returns a new stemmer on each call, and {@link #getThreadStemmer(String)}
+ * keeps one stemmer per thread.
+ *
+ * @version 1.0
+ */
+public class IndexingContext {
+
+    // Supported languages: add new additions to this. Don't include country codes such as en_US or en_UK,
+    // as stemmers don't find a difference between them. Currently extended support is available for
+    // English, German, French and CJK (Chinese [zh], Japanese [ja], Korean [ko]) languages only.
+    private static final String[] SUPPORTED_LANGUAGES = {"en", "de", "fr", "zh", "ja", "ko"};
+
+    private static final ThreadLocal<Map<String, SnowballStemmer>> THREAD_STEMMERS =
+        new ThreadLocal<Map<String, SnowballStemmer>>() {
+            protected Map<String, SnowballStemmer> initialValue() {
+                return new HashMap<String, SnowballStemmer>();
+            }
+        };
+
+    private static final CJKAnalyzer CJK_ANALYZER = new CJKAnalyzer(org.apache.lucene.util.Version.LUCENE_30);
+
+    private final String language;
+    private final List<String> cleanUpStrings;
+    private final List<String> cleanUpChars;
+    private final Properties encodingProps;
+    private final List<OutputCompressor> compressors;
+    private final int dictionaryBlockSize;
+
+    /**
+     * @param language the language code as returned by {@link #normalizeLanguage(String)}
+     * @param cleanUpStrings the words to ignore (may be null)
+     * @param cleanUpChars the additional punctuation characters (may be null)
+     * @param encodingProps the encoding properties (may be null)
+     */
+    public IndexingContext(String language, List<String> cleanUpStrings,
+                           List<String> cleanUpChars, Properties encodingProps) {
+        this(language, cleanUpStrings, cleanUpChars, encodingProps, null);
+    }
+
+    /**
+     * @param compressors the compressors which create compressed copies of
+     *  the files written by {@link WriteJSFiles} (may be null)
+     */
+    public IndexingContext(String language, List<String> cleanUpStrings,
+                           List<String> cleanUpChars, Properties encodingProps,
+                           List<OutputCompressor> compressors) {
+        this(language, cleanUpStrings, cleanUpChars, encodingProps, compressors, 0);
+    }
+
+    /**
+     * @param dictionaryBlockSize the number of words per block of the front
+     *  coded javascript index files, or 0 to write the words uncompressed
+     */
+    public IndexingContext(String language, List<String> cleanUpStrings,
+                           List<String> cleanUpChars, Properties encodingProps,
+                           List<OutputCompressor> compressors, int dictionaryBlockSize) {
+        this.language = language;
+        this.cleanUpStrings = unmodifiable(cleanUpStrings);
+        this.cleanUpChars = unmodifiable(cleanUpChars);
+        if (encodingProps != null) {
+            this.encodingProps = new Properties();
+            this.encodingProps.putAll(encodingProps);
+        } else {
+            this.encodingProps = null;
+        }
+        this.compressors = (compressors == null || compressors.isEmpty()) ? null
+            : Collections.unmodifiableList(new ArrayList<OutputCompressor>(compressors));
+        this.dictionaryBlockSize = Math.max(0, dictionaryBlockSize);
+    }
+
+    private static List<String> unmodifiable(List<String> list) {
+        return (list == null) ? null : Collections.unmodifiableList(new ArrayList<String>(list));
+    }
+
+    /**
+     * Converts the value of the "indexerLanguage" task attribute to the
+     * language code used by the indexer: the country code is removed
+     * (e.g. en_US becomes en). Returns "@@" if no language is given.
+     */
+    public static String normalizeLanguage(String indexerLanguage) {
+        if (indexerLanguage == null || "".equals(indexerLanguage)) {
+            return "@@"; //fail-safe mechanism, This vm should not reach this point.
+        }
+        int temp = indexerLanguage.indexOf('_');
+        if (temp != -1) {
+            indexerLanguage = indexerLanguage.substring(0, temp);
+        }
+        for (String lang : SUPPORTED_LANGUAGES) {
+            if (indexerLanguage.equals(lang)) {
+                return lang;
+            }
+        }
+        // Not in the supported language list
+        return indexerLanguage;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    /**
+     * Returns the words to ignore (null if no clean-up props files exist).
+     * The list cannot be modified.
+     */
+    public List<String> getCleanUpStrings() {
+        return cleanUpStrings;
+    }
+
+    /**
+     * Returns the additional punctuation characters (null if not defined).
+     * The list cannot be modified.
+     */
+    public List<String> getCleanUpChars() {
+        return cleanUpChars;
+    }
+
+    /**
+     * Returns a copy of the encoding properties (null if not defined).
+     */
+    public Properties getEncodingProps() {
+        if (encodingProps == null) {
+            return null;
+        }
+        Properties props = new Properties();
+        props.putAll(encodingProps);
+        return props;
+    }
+
+    /**
+     * Returns the value of the given encoding property, or null.
+     */
+    public String getEncodingProperty(String name) {
+        return (encodingProps == null) ? null : encodingProps.getProperty(name);
+    }
+
+    /**
+     * Returns the compressors of the output files (null if the files are
+     * not compressed). The list cannot be modified.
+     */
+    public List<OutputCompressor> getCompressors() {
+        return compressors;
+    }
+
+    /**
+     * Returns the number of words per block of the front coded javascript
+     * index files (0 if the index files are not front coded).
+     */
+    public int getDictionaryBlockSize() {
+        return dictionaryBlockSize;
+    }
+
+    /**
+     * Returns true if the text is tokenized with the CJK analyzer.
+     */
+    public boolean isCJK() {
+        return isCJK(language);
+    }
+
+    public static boolean isCJK(String language) {
+        return language.equalsIgnoreCase("ja") || language.equalsIgnoreCase("zh")
+               || language.equalsIgnoreCase("ko");
+    }
+
+    /**
+     * Creates a new stemmer for the language of this run.
+     * @return the stemmer, or null if stemming is not supported for the language
+     */
+    public SnowballStemmer createStemmer() {
+        return createStemmer(language);
+    }
+
+    public static SnowballStemmer createStemmer(String language) {
+        if (language.equalsIgnoreCase("en")) {
+            return new EnglishStemmer();
+        } else if (language.equalsIgnoreCase("de")) {
+            return new GermanStemmer();
+        } else if (language.equalsIgnoreCase("fr")) {
+            return new FrenchStemmer();
+        } else {
+            return null; //Languages which stemming is not yet supproted.So, No stemmers will be used.
+        }
+    }
+
+    /**
+     * Returns the stemmer of the current thread for the given language.
+     * The stemmer is created on the first call and reused by the following
+     * calls of the same thread, also by following runs.
+     * @return the stemmer, or null if stemming is not supported for the language
+     */
+    public static SnowballStemmer getThreadStemmer(String language) {
+        Map<String, SnowballStemmer> stemmers = THREAD_STEMMERS.get();
+        String key = language.toLowerCase(Locale.ENGLISH);
+        if (!stemmers.containsKey(key)) {
+            stemmers.put(key, createStemmer(language));
+        }
+        return stemmers.get(key);
+    }
+
+    /**
+     * Returns the CJK analyzer shared by all runs. Lucene analyzers can be
+     * used by several threads.
+     */
+    public static CJKAnalyzer getCJKAnalyzer() {
+        return CJK_ANALYZER;
+    }
+
+    /**
+     * Returns the stem cache shared by all runs with the language of this run.
+     */
+    public StemCache getStemCache() {
+        return StemCache.getInstance(language);
+    }
+
+    public String toString() {
+        return "language " + language;
+    }
+}
@@ -0,0 +1,32 @@
+package com.nexwave.nquindexer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Creates a precompressed copy of each file written by {@link WriteJSFiles},
+ * e.g. index-1.js.gz next to index-1.js, so that web servers can deliver
+ * the compressed file directly.
+ * <p>
+ * The compressed copy is written in the same pass as the file itself
+ * (see {@link IndexFileWriter}). Implementations for other formats than
+ * gzip can be configured by their class name; they need a public
+ * constructor without arguments.
+ *
+ * @version 1.0
+ */
+public interface OutputCompressor {
+
+    /**
+     * Returns the extension appended to the file name of the compressed
+     * copy, e.g. ".gz".
+     */
+    String getExtension();
+
+    /**
+     * Returns a stream which compresses the data written to it into out.
+     * Closing the returned stream has to finish the compressed data and
+     * close out.
+     */
+    OutputStream createStream(OutputStream out) throws IOException;
+}
@@ -0,0 +1,499 @@
+package com.nexwave.nquindexer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * List of the indices of the files containing a word, in ascending order.
+ * <p>
+ * The representation depends on the density of the list, like the
+ * containers of Roaring bitmaps: words occurring in few files are stored
+ * in a primitive int array, words occurring in a large part of the files
+ * (e.g. "click") in a bitmap, which needs one bit per file instead of 32.
+ * The bitmap is split into chunks of 65536 files. A chunk is allocated
+ * when the first file of its range is added, and grows up to the highest
+ * file index added. The array is converted to a bitmap when it would have
+ * to grow and the bitmap would be smaller, and the bitmap is converted
+ * back when most of its files have been removed.
+ * The comma separated representation used in the javascript index files
+ * is only created when the index is written.
+ * <p>
+ * Optionally the list stores the number of occurrences of the word in
+ * each file (the term frequency, for relevance ranking), in a byte array
+ * in the order of the file indices. Frequencies above 255 are stored as 255.
+ *
+ * @version 1.2
+ */
+public class PostingsList {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    // Lists with fewer files are always stored in an array
+    private static final int MIN_BITMAP_SIZE = 64;
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_WORDS = (1 << CHUNK_BITS) / 64;
+
+    /** Highest stored term frequency. */
+    public static final int MAX_FREQUENCY = 255;
+
+    private int[] fileIndices;  // null if the bitmap is used
+    private long[][] chunks;    // null if the array is used
+    private byte[] freqs;       // null if no frequencies are stored
+    private int size = 0;
+
+    public PostingsList() {
+        this(false);
+    }
+
+    /**
+     * @param frequencies true to store the term frequency of each file
+     */
+    public PostingsList(boolean frequencies) {
+        fileIndices = new int[INITIAL_CAPACITY];
+        if (frequencies) {
+            freqs = new byte[INITIAL_CAPACITY];
+        }
+    }
+
+    /**
+     * Appends a file index. File indices have to be added in ascending order.
+     * Adding the same index as the last one again has no effect.
+     * @param fileIdx index of the file in the list of html files
+     */
+    public void add(int fileIdx) {
+        add(fileIdx, 1);
+    }
+
+    /**
+     * Appends a file index with the number of occurrences of the word in
+     * the file. The count is ignored if no frequencies are stored.
+     * @see #add(int)
+     */
+    public void add(int fileIdx, int count) {
+        if (chunks != null) {
+            if (setBit(fileIdx)) {
+                setFrequency(size - 1, count, false);
+            }
+            return;
+        }
+        if ((size > 0) && (fileIndices[size - 1] == fileIdx)) {
+            return;
+        }
+        if (size == fileIndices.length && convertToBitmap(fileIdx)) {
+            setBit(fileIdx);
+            setFrequency(size - 1, count, false);
+            return;
+        }
+        ensureCapacity();
+        fileIndices[size++] = fileIdx;
+        setFrequency(size - 1, count, false);
+    }
+
+    /**
+     * Inserts a file index at its sorted position. Used to update the
+     * postings of a file whose words have changed.
+     * @return false if the index was already in the list
+     */
+    public boolean insert(int fileIdx) {
+        return insert(fileIdx, 1);
+    }
+
+    /**
+     * Inserts a file index with the number of occurrences of the word in
+     * the file. The count is ignored if no frequencies are stored.
+     * @return false if the index was already in the list
+     * @see #insert(int)
+     */
+    public boolean insert(int fileIdx, int count) {
+        if (chunks != null) {
+            if (!setBit(fileIdx)) {
+                return false;
+            }
+            setFrequency(rank(fileIdx), count, true);
+            return true;
+        }
+        int pos = binarySearch(fileIdx);
+        if (pos >= 0) {
+            return false;
+        }
+        pos = -(pos + 1);
+        if (size == fileIndices.length && convertToBitmap(Math.max(fileIdx, fileIndices[size - 1]))) {
+            setBit(fileIdx);
+            setFrequency(pos, count, true);
+            return true;
+        }
+        ensureCapacity();
+        System.arraycopy(fileIndices, pos, fileIndices, pos + 1, size - pos);
+        fileIndices[pos] = fileIdx;
+        size++;
+        setFrequency(pos, count, true);
+        return true;
+    }
+
+    /**
+     * Removes a file index.
+     * @return false if the index was not in the list
+     */
+    public boolean remove(int fileIdx) {
+        if (chunks != null) {
+            if (!clearBit(fileIdx)) {
+                return false;
+            }
+            removeFrequency(rank(fileIdx));
+            // Back to the array if it needs less than a quarter of the bitmap
+            if ((size < MIN_BITMAP_SIZE / 2) || ((long) size * 4 * 4 < bitmapBytes())) {
+                int[] arr = toArray();
+                chunks = null;
+                fileIndices = Arrays.copyOf(arr, Math.max(INITIAL_CAPACITY, arr.length));
+            }
+            return true;
+        }
+        int pos = binarySearch(fileIdx);
+        if (pos < 0) {
+            return false;
+        }
+        System.arraycopy(fileIndices, pos + 1, fileIndices, pos, size - pos - 1);
+        size--;
+        removeFrequency(pos);
+        return true;
+    }
+
+    /**
+     * Stores the frequency of the element at position pos, which has
+     * already been added to the file indices (size includes it).
+     * @param shift true to move the following frequencies
+     */
+    private void setFrequency(int pos, int count, boolean shift) {
+        if (freqs == null) {
+            return;
+        }
+        if (size > freqs.length) {
+            freqs = Arrays.copyOf(freqs, Math.max(size, freqs.length + (freqs.length >> 1) + 1));
+        }
+        if (shift) {
+            System.arraycopy(freqs, pos, freqs, pos + 1, size - 1 - pos);
+        }
+        freqs[pos] = (byte) Math.max(1, Math.min(count, MAX_FREQUENCY));
+    }
+
+    /**
+     * Removes the frequency at position pos; size has already been decremented.
+     */
+    private void removeFrequency(int pos) {
+        if (freqs != null) {
+            System.arraycopy(freqs, pos + 1, freqs, pos, size - pos);
+        }
+    }
+
+    /**
+     * Returns the number of set bits below the bit of fileIdx.
+     */
+    private int rank(int fileIdx) {
+        int c = fileIdx >>> CHUNK_BITS;
+        int word = (fileIdx & ((1 << CHUNK_BITS) - 1)) >>> 6;
+        int r = 0;
+        for (int i = 0; i < c && i < chunks.length; i++) {
+            if (chunks[i] != null) {
+                for (long bits : chunks[i]) {
+                    r += Long.bitCount(bits);
+                }
+            }
+        }
+        if ((c < chunks.length) && (chunks[c] != null)) {
+            long[] chunk = chunks[c];
+            for (int w = 0; w < word && w < chunk.length; w++) {
+                r += Long.bitCount(chunk[w]);
+            }
+            if (word < chunk.length) {
+                r += Long.bitCount(chunk[word] & ((1L << fileIdx) - 1));
+            }
+        }
+        return r;
+    }
+
+    private int binarySearch(int fileIdx) {
+        return Arrays.binarySearch(fileIndices, 0, size, fileIdx);
+    }
+
+    private void ensureCapacity() {
+        if (size == fileIndices.length) {
+            int[] newArr = new int[size + (size >> 1) + 1];
+            System.arraycopy(fileIndices, 0, newArr, 0, size);
+            fileIndices = newArr;
+        }
+    }
+
+    /**
+     * Converts the full array to a bitmap, if the bitmap up to maxIdx is
+     * smaller than the grown array.
+     * @return true if the list has been converted
+     */
+    private boolean convertToBitmap(int maxIdx) {
+        long arrayBytes = 4L * (size + (size >> 1) + 1);
+        long bitmapBytes = 8L * ((maxIdx >>> 6) + 1);
+        if ((size < MIN_BITMAP_SIZE) || (bitmapBytes >= arrayBytes)) {
+            return false;
+        }
+        int[] arr = fileIndices;
+        int n = size;
+        fileIndices = null;
+        chunks = new long[(maxIdx >>> CHUNK_BITS) + 1][];
+        size = 0;
+        for (int i = 0; i < n; i++) {
+            setBit(arr[i]);
+        }
+        return true;
+    }
+
+    /**
+     * Sets the bit of a file in the bitmap.
+     * @return false if the bit was already set
+     */
+    private boolean setBit(int fileIdx) {
+        int c = fileIdx >>> CHUNK_BITS;
+        if (c >= chunks.length) {
+            chunks = Arrays.copyOf(chunks, c + 1);
+        }
+        long[] chunk = chunks[c];
+        int word = (fileIdx & ((1 << CHUNK_BITS) - 1)) >>> 6;
+        if (chunk == null) {
+            chunk = chunks[c] = new long[Math.max(INITIAL_CAPACITY, word + 1)];
+        } else if (word >= chunk.length) {
+            chunk = chunks[c] = Arrays.copyOf(chunk, Math.min(CHUNK_WORDS, Math.max(word + 1, chunk.length + (chunk.length >> 1))));
+        }
+        long bit = 1L << fileIdx;
+        if ((chunk[word] & bit) != 0) {
+            return false;
+        }
+        chunk[word] |= bit;
+        size++;
+        return true;
+    }
+
+    private boolean clearBit(int fileIdx) {
+        int c = fileIdx >>> CHUNK_BITS;
+        int word = (fileIdx & ((1 << CHUNK_BITS) - 1)) >>> 6;
+        if ((c >= chunks.length) || (chunks[c] == null) || (word >= chunks[c].length)) {
+            return false;
+        }
+        long bit = 1L << fileIdx;
+        if ((chunks[c][word] & bit) == 0) {
+            return false;
+        }
+        chunks[c][word] &= ~bit;
+        size--;
+        return true;
+    }
+
+    private long bitmapBytes() {
+        long bytes = 0;
+        for (long[] chunk : chunks) {
+            if (chunk != null) {
+                bytes += 8L * chunk.length;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns true if the files are stored in a bitmap.
+     */
+    public boolean isBitmap() {
+        return chunks != null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if the term frequencies are stored.
+     */
+    public boolean hasFrequencies() {
+        return freqs != null;
+    }
+
+    /**
+     * Returns the number of occurrences of the word in the i-th file of 
+     * the list (at most MAX_FREQUENCY), or 1 if no frequencies are stored.
+     */
+    public int getFrequency(int i) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        return (freqs == null) ? 1 : (freqs[i] & 0xFF);
+    }
+
+    /**
+     * Returns the i-th file index. For bitmaps, the bits have to be counted
+     * from the start; use {@link #toArray()} to get all file indices.
+     */
+    public int get(int i) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        if (chunks == null) {
+            return fileIndices[i];
+        }
+        int rank = i;
+        for (int c = 0; c < chunks.length; c++) {
+            long[] chunk = chunks[c];
+            if (chunk == null) {
+                continue;
+            }
+            for (int w = 0; w < chunk.length; w++) {
+                int cnt = Long.bitCount(chunk[w]);
+                if (rank < cnt) {
+                    long bits = chunk[w];
+                    for (int k = 0; k < rank; k++) {
+                        bits &= bits - 1;  // clear the lowest bit
+                    }
+                    return (c << CHUNK_BITS) + (w << 6) + Long.numberOfTrailingZeros(bits);
+                }
+                rank -= cnt;
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    /**
+     * Returns the file indices in ascending order.
+     */
+    public int[] toArray() {
+        if (chunks == null) {
+            return Arrays.copyOf(fileIndices, size);
+        }
+        int[] arr = new int[size];
+        int n = 0;
+        for (int c = 0; c < chunks.length; c++) {
+            long[] chunk = chunks[c];
+            if (chunk == null) {
+                continue;
+            }
+            for (int w = 0; w < chunk.length; w++) {
+                long bits = chunk[w];
+                while (bits != 0) {
+                    arr[n++] = (c << CHUNK_BITS) + (w << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                }
+            }
+        }
+        return arr;
+    }
+
+    /**
+     * Returns the number of characters written by writeTo().
+     */
+    public int getTextLength() {
+        int len = (size > 0) ? size - 1 : 0;  // commas
+        if (freqs != null) {
+            for (int i = 0; i < size; i++) {
+                len += 1 + digitCount(freqs[i] & 0xFF);  // colon and frequency
+            }
+        }
+        if (chunks == null) {
+            for (int i = 0; i < size; i++) {
+                len += digitCount(fileIndices[i]);
+            }
+            return len;
+        }
+        for (int c = 0; c < chunks.length; c++) {
+            long[] chunk = chunks[c];
+            if (chunk == null) {
+                continue;
+            }
+            for (int w = 0; w < chunk.length; w++) {
+                long bits = chunk[w];
+                while (bits != 0) {
+                    len += digitCount((c << CHUNK_BITS) + (w << 6) + Long.numberOfTrailingZeros(bits));
+                    bits &= bits - 1;
+                }
+            }
+        }
+        return len;
+    }
+
+    private static int digitCount(int val) {
+        int len = 0;
+        do {
+            len++;
+            val /= 10;
+        } while (val > 0);
+        return len;
+    }
+
+    /**
+     * Writes the file indices separated by commas. Example: 0,2,4
+     * If frequencies are stored, each file index is followed by a colon 
+     * and the frequency. Example: 0:3,2:1,4:12
+     */
+    public void writeTo(Writer out) throws IOException {
+        char[] digits = (out instanceof IndexFileWriter) ? null : new char[11];
+        if (chunks == null) {
+            for (int i = 0; i < size; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                writeNumber(out, fileIndices[i], digits);
+                writeFrequency(out, i, digits);
+            }
+            return;
+        }
+        int i = 0;
+        for (int c = 0; c < chunks.length; c++) {
+            long[] chunk = chunks[c];
+            if (chunk == null) {
+                continue;
+            }
+            for (int w = 0; w < chunk.length; w++) {
+                long bits = chunk[w];
+                while (bits != 0) {
+                    if (i > 0) {
+                        out.write(',');
+                    }
+                    writeNumber(out, (c << CHUNK_BITS) + (w << 6) + Long.numberOfTrailingZeros(bits), digits);
+                    writeFrequency(out, i++, digits);
+                    bits &= bits - 1;
+                }
+            }
+        }
+    }
+
+    private void writeFrequency(Writer out, int i, char[] digits) throws IOException {
+        if (freqs != null) {
+            out.write(':');
+            writeNumber(out, freqs[i] & 0xFF, digits);
+        }
+    }
+
+    private static void writeNumber(Writer out, int val, char[] digits) throws IOException {
+        if (digits == null) {
+            ((IndexFileWriter) out).writeNumber(val);
+            return;
+        }
+        // file indices are never negative
+        int pos = digits.length;
+        do {
+            digits[--pos] = (char) ('0' + (val % 10));
+            val /= 10;
+        } while (val > 0);
+        out.write(digits, pos, digits.length - pos);
+    }
+
+    public String toString() {
+        StringBuilder buf = new StringBuilder(size * 4);
+        int[] arr = toArray();
+        for (int i = 0; i < arr.length; i++) {
+            if (i > 0) {
+                buf.append(',');
+            }
+            buf.append(arr[i]);
+            if (freqs != null) {
+                buf.append(':').append(freqs[i] & 0xFF);
+            }
+        }
+        return buf.toString();
+    }
+}
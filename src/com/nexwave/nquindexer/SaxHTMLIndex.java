@@ -11,9 +11,7 @@ import com.nexwave.nsidita.DocFileInfo;
 
 //Stemmers
 import com.nexwave.stemmer.snowball.SnowballStemmer;
-import com.nexwave.stemmer.snowball.ext.EnglishStemmer;
-import com.nexwave.stemmer.snowball.ext.FrenchStemmer;
-import com.nexwave.stemmer.snowball.ext.GermanStemmer;
+import com.nexwave.stemmer.snowball.StemCache;
 
 import com.nexwave.stemmer.snowball.ext.danishStemmer;
 import com.nexwave.stemmer.snowball.ext.dutchStemmer;
@@ -51,11 +49,15 @@ import org.apache.lucene.analysis.tokenattributes.TermAttribute;
 public class SaxHTMLIndex extends SaxDocFileParser{
 
     //KasunBG: apparently tempDico stores all the keywords and a pointer to the files containing the index in a Map
-    //example: ("keyword1", "0,2,4"), ("docbook", "1,2,5") 
-	private Map<String,String> tempDico;
+    //example: ("keyword1", [0,2,4]), ("docbook", [1,2,5]) 
+	private Map<String,PostingsList> tempDico;
 	private int i = 0;
-	private ArrayList <String> cleanUpList = null;
-	private ArrayList <String> cleanUpPunctuation = null;
+	private List <String> cleanUpList = null;
+	private List <String> cleanUpPunctuation = null;
+	// settings of the indexing run (null if created without context)
+	private IndexingContext context = null;
+	// null if the clean-up lists cannot be handled by the tokenizer
+	private IndexTokenizer tokenizer = null;
 
 	//methods
 	/**
@@ -63,6 +65,7 @@ public class SaxHTMLIndex extends SaxDocFileParser{
 	 */
 	public SaxHTMLIndex () {
 		super();
+		tokenizer = IndexTokenizer.create(null, null);
 	}
 	/**
 	 * Constructor
@@ -70,6 +73,7 @@ public class SaxHTMLIndex extends SaxDocFileParser{
 	public SaxHTMLIndex (ArrayList <String> cleanUpStrings) {
 		super();
 		cleanUpList = cleanUpStrings;
+		tokenizer = IndexTokenizer.create(cleanUpStrings, null);
 	}
 	/**
 	 * Constructor
@@ -78,16 +82,35 @@ public class SaxHTMLIndex extends SaxDocFileParser{
 		super();
 		cleanUpList = cleanUpStrings;
 		cleanUpPunctuation = cleanUpChars;
+		tokenizer = IndexTokenizer.create(cleanUpStrings, cleanUpChars);
+	}
+	/**
+	 * Constructor for the settings of the given indexing run
+	 */
+	public SaxHTMLIndex (IndexingContext context) {
+		super();
+		this.context = context;
+		cleanUpList = context.getCleanUpStrings();
+		cleanUpPunctuation = context.getCleanUpChars();
+		tokenizer = IndexTokenizer.create(cleanUpList, cleanUpPunctuation);
 	}
 
 	/**
 	 * Initializer
 	 */
-	public int init(Map<String,String> tempMap){
+	public int init(Map<String,PostingsList> tempMap){
 		tempDico = tempMap;
 		return 0;
 	}
 
+	/**
+	 * Same as {@link #runExtractData(File, String)} with the language of the
+	 * indexing context.
+	 */
+	public DocFileInfo runExtractData(File file) {
+		return runExtractData(file, context.getLanguage());
+	}
+
 	/**
 	 * Parses the file to extract all the words for indexing and
 	 * some data characterizing the file.
@@ -103,10 +126,19 @@ public class SaxHTMLIndex extends SaxDocFileParser{
 		// Fill strbf by parsing the file
 		parseDocument(file);
 
-		String str = cleanBuffer(strbf);
-        str = str.replaceAll("\\s+"," ");   //there's still redundant spaces in the middle
-//		System.out.println(file.toString()+" "+ str +"\n");
-		String[] items = str.split("\\s");      //contains all the words in the array
+		String str;
+		String[] items;      //contains all the words in the array
+		if (tokenizer != null) {
+			// single pass clean-up and splitting
+			List<String> words = tokenizer.tokenize(strbf);
+			items = words.toArray(new String[words.size()]);
+			str = null;
+		} else {
+			str = cleanBuffer(strbf);
+			str = str.replaceAll("\\s+"," ");   //there's still redundant spaces in the middle
+//			System.out.println(file.toString()+" "+ str +"\n");
+			items = str.split("\\s");
+		}
 
         //get items one-by-one, tunnel through the stemmer, and get the stem.
         //Then, add them to tempSet
@@ -114,11 +146,13 @@ public class SaxHTMLIndex extends SaxDocFileParser{
         //TODO currently, stemming support is for english and german only. Add support for other languages as well.
 
         String[] tokenizedItems;
-        if(indexerLanguage.equalsIgnoreCase("ja") || indexerLanguage.equalsIgnoreCase("zh")
-                || indexerLanguage.equalsIgnoreCase("ko")){
+        if(IndexingContext.isCJK(indexerLanguage)){
                 LinkedList<String> tokens = new LinkedList<String>();
             try{
                 CJKAnalyzer analyzer = new CJKAnalyzer(org.apache.lucene.util.Version.LUCENE_30);
+                if (str == null) {
+                    str = IndexTokenizer.joinWords(items);
+                }
                 Reader reader = new StringReader(str);
                 TokenStream stream = analyzer.tokenStream("", reader);
                 TermAttribute termAtt = (TermAttribute) stream.addAttribute(TermAttribute.class);
@@ -138,18 +172,9 @@ public class SaxHTMLIndex extends SaxDocFileParser{
                 ex.printStackTrace();
             }
         } else {
-            SnowballStemmer stemmer;
-            if(indexerLanguage.equalsIgnoreCase("en")){
-                 stemmer = new EnglishStemmer();
-            } else if (indexerLanguage.equalsIgnoreCase("de")){
-                stemmer= new GermanStemmer();
-            } else if (indexerLanguage.equalsIgnoreCase("fr")){
-                stemmer= new FrenchStemmer();
-            } else {
-                stemmer = null;//Languages which stemming is not yet supproted.So, No stemmers will be used.
-            }
+            SnowballStemmer stemmer = IndexingContext.createStemmer(indexerLanguage);
             if(stemmer != null)             //If a stemmer available
-                tokenizedItems = stemmer.doStem(items);
+                tokenizedItems = StemCache.getInstance(indexerLanguage).doStem(items, stemmer);
             else                            //if no stemmer available for the particular language
                 tokenizedItems = items;
 
@@ -166,14 +191,12 @@ public class SaxHTMLIndex extends SaxDocFileParser{
 		String s;
         while (it.hasNext()) {
         	s = (String)it.next();
-        	if (tempDico.containsKey(s)) {
-        		String temp = tempDico.get(s);
-        		temp = temp.concat(",").concat(Integer.toString(i));
-        		//System.out.println("temp="+s+"="+temp);
-        		tempDico.put(s, temp);
-        	}else {
-        		tempDico.put(s, Integer.toString(i));
+        	PostingsList postings = tempDico.get(s);
+        	if (postings == null) {
+        		postings = new PostingsList();
+        		tempDico.put(s, postings);
         	}
+        	postings.add(i);
         }
 
         i++;
@@ -0,0 +1,383 @@
+package com.nexwave.nquindexer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled list of the words to ignore.
+ * <p>
+ * Finds the same matches as the alternation <code>\bw1\b|\bw2\b|...</code>
+ * of java.util.regex, but without trying every word at every position:
+ * <ul>
+ * <li>Words consisting only of word characters can only match a complete
+ * run of word characters. They are stored in a hash table and each run
+ * of the text is looked up once.</li>
+ * <li>All other words (e.g. "-or-" or words containing blanks) are
+ * searched with an Aho-Corasick automaton in a single pass.</li>
+ * </ul>
+ * The matcher is built once per indexer run. Instances are immutable and
+ * can be shared by several threads.
+ *
+ * @version 1.0
+ */
+public class StopwordMatcher {
+
+    // Behavior of the \b boundary of java.util.regex in this JVM
+    private static final boolean UNICODE_WORD_CHARS =
+        ! Pattern.compile("a\\b").matcher("a\u00E9").lookingAt();
+    private static final boolean NSM_WORD_CHARS =
+        ! Pattern.compile("a\\b").matcher("a\u0301").lookingAt();
+
+    // Open addressing hash table of the words consisting of word characters
+    private final String[] wordKeys;
+    private final int[] wordIndex;     // position of the word in the list
+    private final int wordMask;
+
+    // Aho-Corasick automaton for the other words; state 0 is the root
+    private final char[][] edgeChars;  // sorted labels of the outgoing edges
+    private final int[][] edgeTargets;
+    private final int[] failure;
+    private final int[] output;        // list position of the word ending in a state, or -1
+    private final int[] outputLink;    // next state in the failure chain with an output, or -1
+    private final int[] wordLength;    // length of the word at a list position
+    private final boolean hasComplexWords;
+
+    /**
+     * Creates the matcher.
+     * @param words the words to ignore. If several words match at the same
+     *        position, the word with the lower index is taken.
+     */
+    public StopwordMatcher(String[] words) {
+        wordLength = new int[words.length];
+        List<Integer> simple = new ArrayList<Integer>();
+        List<Integer> complex = new ArrayList<Integer>();
+        for (int i = 0; i < words.length; i++) {
+            wordLength[i] = words[i].length();
+            if (words[i].length() == 0) {
+                continue;
+            }
+            if (isWordOnly(words[i])) {
+                simple.add(i);
+            } else {
+                complex.add(i);
+            }
+        }
+
+        int cap = 16;
+        while (cap < simple.size() * 3) {
+            cap <<= 1;
+        }
+        wordKeys = new String[cap];
+        wordIndex = new int[cap];
+        wordMask = cap - 1;
+        for (Integer i : simple) {
+            String w = words[i];
+            int slot = hash(w, 0, w.length()) & wordMask;
+            while ((wordKeys[slot] != null) && !wordKeys[slot].equals(w)) {
+                slot = (slot + 1) & wordMask;
+            }
+            if (wordKeys[slot] == null) {  // keep the first occurrence
+                wordKeys[slot] = w;
+                wordIndex[slot] = i;
+            }
+        }
+
+        // Build the trie of the other words
+        List<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character, Integer>>();
+        List<Integer> out = new ArrayList<Integer>();
+        trie.add(new TreeMap<Character, Integer>());
+        out.add(-1);
+        for (Integer i : complex) {
+            String w = words[i];
+            int state = 0;
+            for (int k = 0; k < w.length(); k++) {
+                Integer next = trie.get(state).get(w.charAt(k));
+                if (next == null) {
+                    next = trie.size();
+                    trie.get(state).put(w.charAt(k), next);
+                    trie.add(new TreeMap<Character, Integer>());
+                    out.add(-1);
+                }
+                state = next;
+            }
+            if (out.get(state) < 0) {
+                out.set(state, i);
+            }
+        }
+        int cnt = trie.size();
+        edgeChars = new char[cnt][];
+        edgeTargets = new int[cnt][];
+        failure = new int[cnt];
+        output = new int[cnt];
+        outputLink = new int[cnt];
+        for (int s = 0; s < cnt; s++) {
+            TreeMap<Character, Integer> edges = trie.get(s);
+            edgeChars[s] = new char[edges.size()];
+            edgeTargets[s] = new int[edges.size()];
+            int e = 0;
+            for (java.util.Map.Entry<Character, Integer> edge : edges.entrySet()) {
+                edgeChars[s][e] = edge.getKey();
+                edgeTargets[s][e] = edge.getValue();
+                e++;
+            }
+            output[s] = out.get(s);
+        }
+
+        // Failure links in breadth-first order
+        outputLink[0] = -1;
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        for (int child : edgeTargets[0]) {
+            failure[child] = 0;
+            outputLink[child] = -1;
+            queue.add(child);
+        }
+        while (! queue.isEmpty()) {
+            int s = queue.removeFirst();
+            for (int e = 0; e < edgeChars[s].length; e++) {
+                char ch = edgeChars[s][e];
+                int child = edgeTargets[s][e];
+                int f = failure[s];
+                int target;
+                while ((target = step(f, ch)) < 0 && (f != 0)) {
+                    f = failure[f];
+                }
+                failure[child] = (target < 0) ? 0 : target;
+                int fs = failure[child];
+                outputLink[child] = (output[fs] >= 0) ? fs : outputLink[fs];
+                queue.add(child);
+            }
+        }
+        hasComplexWords = !complex.isEmpty();
+    }
+
+    /**
+     * Finds the words to ignore in the given text. The matches are searched
+     * from left to right and for each position the first matching word of
+     * the list is taken.
+     * @return array with the number of matches at index 0, followed by the
+     *         start and end offsets of the matches
+     */
+    public int[] find(char[] buf, int len) {
+        long[] complexMatches = hasComplexWords ? findComplex(buf, len) : new long[1];
+        int complexCnt = (int) complexMatches[0];
+        int ci = 1;
+
+        int[] res = new int[9];
+        int cnt = 0;
+        int pos = 0;
+        int runStart = nextRunStart(buf, len, 0);
+        while (true) {
+            while ((ci <= complexCnt) && ((int) (complexMatches[ci] >>> 32) < pos)) {
+                ci++;
+            }
+            while ((runStart >= 0) && (runStart < pos)) {
+                runStart = nextRunStart(buf, len, runEnd(buf, len, runStart));
+            }
+            int p;
+            if (ci <= complexCnt) {
+                int cStart = (int) (complexMatches[ci] >>> 32);
+                p = (runStart >= 0) ? Math.min(runStart, cStart) : cStart;
+            } else if (runStart >= 0) {
+                p = runStart;
+            } else {
+                break;
+            }
+
+            int best = Integer.MAX_VALUE;
+            int bestLen = 0;
+            if (p == runStart) {
+                int runEnd = runEnd(buf, len, p);
+                int idx = lookupWord(buf, p, runEnd);
+                if ((idx >= 0) && isBoundary(buf, len, p) && isBoundary(buf, len, runEnd)) {
+                    best = idx;
+                    bestLen = runEnd - p;
+                }
+            }
+            while ((ci <= complexCnt) && ((int) (complexMatches[ci] >>> 32) == p)) {
+                int idx = (int) complexMatches[ci];
+                int end = p + wordLength[idx];
+                if ((idx < best) && isBoundary(buf, len, p) && isBoundary(buf, len, end)) {
+                    best = idx;
+                    bestLen = wordLength[idx];
+                }
+                ci++;
+            }
+
+            if (best == Integer.MAX_VALUE) {
+                pos = p + 1;
+                continue;
+            }
+            if (res.length < cnt * 2 + 3) {
+                int[] newRes = new int[res.length * 2 + 1];
+                System.arraycopy(res, 0, newRes, 0, res.length);
+                res = newRes;
+            }
+            res[cnt * 2 + 1] = p;
+            res[cnt * 2 + 2] = p + bestLen;
+            cnt++;
+            pos = p + bestLen;
+        }
+        res[0] = cnt;
+        return res;
+    }
+
+    /**
+     * Runs the automaton over the text.
+     * @return array with the number of matches at index 0, followed by the
+     *         matches sorted by start offset and list position; each match
+     *         is encoded as (start << 32) | position
+     */
+    private long[] findComplex(char[] buf, int len) {
+        long[] res = new long[9];
+        int cnt = 0;
+        int state = 0;
+        for (int i = 0; i < len; i++) {
+            char ch = buf[i];
+            int next;
+            while ((next = step(state, ch)) < 0 && (state != 0)) {
+                state = failure[state];
+            }
+            state = (next < 0) ? 0 : next;
+            int s = (output[state] >= 0) ? state : outputLink[state];
+            while (s >= 0) {
+                int idx = output[s];
+                if (res.length == cnt + 1) {
+                    res = Arrays.copyOf(res, res.length * 2);
+                }
+                res[++cnt] = ((long) (i + 1 - wordLength[idx]) << 32) | idx;
+                s = outputLink[s];
+            }
+        }
+        Arrays.sort(res, 1, cnt + 1);
+        res[0] = cnt;
+        return res;
+    }
+
+    private int step(int state, char ch) {
+        int e = Arrays.binarySearch(edgeChars[state], ch);
+        return (e < 0) ? -1 : edgeTargets[state][e];
+    }
+
+    private int lookupWord(char[] buf, int start, int end) {
+        int slot = hash(buf, start, end) & wordMask;
+        String key;
+        while ((key = wordKeys[slot]) != null) {
+            if (key.length() == end - start) {
+                int k = 0;
+                while ((k < key.length()) && (key.charAt(k) == buf[start + k])) {
+                    k++;
+                }
+                if (k == key.length()) {
+                    return wordIndex[slot];
+                }
+            }
+            slot = (slot + 1) & wordMask;
+        }
+        return -1;
+    }
+
+    private static int hash(CharSequence str, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + str.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int hash(char[] buf, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + buf[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean isWordOnly(String word) {
+        for (int i = 0; i < word.length(); ) {
+            int ch = word.codePointAt(i);
+            if (! isWordChar(ch)) {
+                return false;
+            }
+            i += Character.charCount(ch);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the start of the first run of word characters at or after
+     * the given position, or -1 if there is no such run. The position must
+     * be 0 or the end of a run.
+     */
+    private static int nextRunStart(char[] buf, int len, int from) {
+        int i = from;
+        while (i < len) {
+            int ch = Character.codePointAt(buf, i, len);
+            if (isWordChar(ch)) {
+                return i;
+            }
+            i += Character.charCount(ch);
+        }
+        return -1;
+    }
+
+    private static int runEnd(char[] buf, int len, int i) {
+        while (i < len) {
+            int ch = Character.codePointAt(buf, i, len);
+            if (! isWordChar(ch)) {
+                break;
+            }
+            i += Character.charCount(ch);
+        }
+        return i;
+    }
+
+    /**
+     * Returns true if the word boundary \b of java.util.regex matches
+     * at the given position.
+     */
+    static boolean isBoundary(char[] buf, int len, int i) {
+        boolean left = false;
+        if (i > 0) {
+            int ch = Character.codePointBefore(buf, i);
+            left = isWordChar(ch) ||
+                   (NSM_WORD_CHARS && (Character.getType(ch) == Character.NON_SPACING_MARK) &&
+                    hasBaseCharacter(buf, len, i - 1));
+        }
+        boolean right = false;
+        if (i < len) {
+            int ch = Character.codePointAt(buf, i, len);
+            right = isWordChar(ch) ||
+                    (NSM_WORD_CHARS && (Character.getType(ch) == Character.NON_SPACING_MARK) &&
+                     hasBaseCharacter(buf, len, i));
+        }
+        return left ^ right;
+    }
+
+    private static boolean isWordChar(int ch) {
+        if (ch == '_') {
+            return true;
+        }
+        return UNICODE_WORD_CHARS ? Character.isLetterOrDigit(ch) : isAsciiLetterOrDigit(ch);
+    }
+
+    private static boolean isAsciiLetterOrDigit(int ch) {
+        return ((ch >= 'a') && (ch <= 'z')) || ((ch >= 'A') && (ch <= 'Z')) || ((ch >= '0') && (ch <= '9'));
+    }
+
+    private static boolean hasBaseCharacter(char[] buf, int len, int i) {
+        for (int x = i; x >= 0; x--) {
+            int ch = Character.codePointAt(buf, x, len);
+            if (UNICODE_WORD_CHARS ? Character.isLetterOrDigit(ch) : isAsciiLetterOrDigit(ch)) {
+                return true;
+            }
+            if (Character.getType(ch) != Character.NON_SPACING_MARK) {
+                return false;
+            }
+        }
+        return false;
+    }
+}
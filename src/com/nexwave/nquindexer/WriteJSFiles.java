@@ -1,15 +1,25 @@
 package com.nexwave.nquindexer;
 
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.UnsupportedEncodingException;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 import com.nexwave.nsidita.DocFileInfo;
@@ -25,14 +35,53 @@ import com.nexwave.nsidita.DocFileInfo;
  */
 public class WriteJSFiles {
 	
-	private static String txt_VM_encoding_not_supported = "This VM does not support the specified encoding.";
 	private static String txt_indices_location = "The created index files are located in ";
+
+	/** Name of the binary index file, see {@link #WriteBinaryIndex}. */
+	public static final String BINARY_INDEX_FILE = "index.bin";
+	/** Name of the javascript file which decodes the binary index. */
+	public static final String BINARY_DECODER_FILE = "index-decoder.js";
+
+	private static final byte[] BINARY_MAGIC = { 'D', 'W', 'I', 'X' };
+	private static final int BINARY_VERSION = 3;
+
+	// Flags of the binary index: term frequencies and token counts are stored
+	private static final int BINARY_FLAG_FREQUENCIES = 1;
+
+	/** Name of the file written by {@link #WriteTokenCounts}. */
+	public static final String TOKEN_COUNTS_FILE = "htmlFileTokenCounts.js";
+
+	/** Name of the routing table written by {@link #WritePrefixIndex}, without the suffix. */
+	public static final String ROUTING_TABLE_NAME = "index-routes";
+	/** Start of the names of the index files written by {@link #WritePrefixIndex}. */
+	public static final String PREFIX_SHARD_NAME = "index-p-";
+
+	private static final String ROUTER_RESOURCE = "index-router.js";
+
+	/** Name of the decoder of the front coded index files, without the suffix. */
+	public static final String FRONT_CODED_DECODER_NAME = "index-fcdecoder";
+
+	private static final String FRONT_CODED_DECODER_RESOURCE = "index-fcdecoder.js";
+
+	// Maximum number of shared characters of front coded words, written as one character '0'..'~'
+	private static final int MAX_SHARED_PREFIX = '~' - '0';
+
+	/** Number of index files written by default. The search pages load index-1.js .. index-3.js. */
+	public static final int DEFAULT_SHARD_COUNT = 3;
 	
 	/** Create a javascript array listing the html files with their paths relative to the project root
 	 * @param fileO path and name of the file in which to output the list of html files  
 	 * @param list of the html files, relative to the doc root directory  
 	 */
 	public static void WriteHTMLList (String fileO,ArrayList<String> list) {
+		WriteHTMLList(fileO, list, null);
+	}
+
+	/** Same as {@link #WriteHTMLList(String, ArrayList)}, but also writes the 
+	 * compressed copies of the file defined by the context.
+	 * @param context the settings of the indexing run (may be null)
+	 */
+	public static void WriteHTMLList (String fileO,ArrayList<String> list, IndexingContext context) {
 		int i = 0;
 		Iterator it;
 		
@@ -45,10 +94,9 @@ public class WriteJSFiles {
 		it = list.iterator ( ) ;
 		
 		try {
-			// open a outputstream, here a file
-			OutputStream fOut= new FileOutputStream(fileO);
-			OutputStream bout= new BufferedOutputStream(fOut);
-	        OutputStreamWriter out  = new OutputStreamWriter(bout, "UTF-8");
+			// open the file (and its compressed copies)
+			IndexFileWriter out = new IndexFileWriter(new File(fileO), compressors(context));
+			try {
 	        
 	        /*fl : file list*/
 	        out.write("//List of files which are indexed.\n");
@@ -57,30 +105,76 @@ public class WriteJSFiles {
 	        while ( it.hasNext ( ) ) {
         		temp = (String)it.next();
         		//System.out.println("temp : "+File.separatorChar+" "+temp.replace(File.separatorChar, '/'));
-			   out.write("fl[\""+i+"\"]"+"= \""+temp.replace(File.separatorChar, '/')+"\";\n");
+			   out.write("fl[\"");
+			   out.writeNumber(i);
+			   out.write("\"]= \"");
+			   out.write(temp.replace(File.separatorChar, '/'));
+			   out.write("\";\n");
 			   i++;
 			}
 	        
-	        out.flush();  // Don't forget to flush!
-	        out.close();
+			}
+			finally {
+				out.close();
+			}
 //	        System.out.println("the array of html is in " +	fileO);
 
 		}
-	    catch (UnsupportedEncodingException e) {
-	          System.out.println(txt_VM_encoding_not_supported);
-	        }
 	        catch (IOException e) {
 	          System.out.println(e.getMessage());        
 	    }
 				
 	}
 
+	/** Create a javascript array with the number of words of each html file,
+	 * in the order of the file list. Together with the term frequencies of
+	 * the index files (w["word"]="file:frequency,..."), the search page can 
+	 * rank the results, e.g. by BM25. Example: ftc=[120,4521,87];
+	 * @param fileO path and name of the file in which to output the list
+	 * @param tokenCounts the number of words of each file
+	 * @param context the settings of the indexing run (may be null)
+	 */
+	public static void WriteTokenCounts (String fileO, int[] tokenCounts, IndexingContext context) {
+		if (fileO == null || tokenCounts == null) {
+			return;
+		}
+		try {
+			IndexFileWriter out = new IndexFileWriter(new File(fileO), compressors(context));
+			try {
+				/*ftc : file token counts*/
+				out.write("//Number of words of each indexed file.\n");
+				out.write("ftc=[");
+				for (int i = 0; i < tokenCounts.length; i++) {
+					if (i > 0) {
+						out.write(',');
+					}
+					out.writeNumber(tokenCounts[i]);
+				}
+				out.write("];\n");
+			}
+			finally {
+				out.close();
+			}
+		}
+		catch (IOException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+
 	/** Create a javascript array listing the html files with 
 	 * their paths relative to project root, their titles and shortdescs
 	 * @param fileO path and name of the file in which to output the list of html files  
 	 * @param list of the html files, relative to the doc root directory  
 	 */
 	public static void WriteHTMLInfoList (String fileO,ArrayList<DocFileInfo> list) {
+		WriteHTMLInfoList(fileO, list, null);
+	}
+
+	/** Same as {@link #WriteHTMLInfoList(String, ArrayList)}, but also writes the 
+	 * compressed copies of the file defined by the context.
+	 * @param context the settings of the indexing run (may be null)
+	 */
+	public static void WriteHTMLInfoList (String fileO,ArrayList<DocFileInfo> list, IndexingContext context) {
 		int i = 0;
 		Iterator it = null;
 		
@@ -92,12 +186,9 @@ public class WriteJSFiles {
 		}
 		it = list.iterator ( ) ;
 		try {
-			// open a outputstream, here a file
-			OutputStream fOut= new FileOutputStream(fileO);
-			// open a buffer output stream
-			OutputStream bout= new BufferedOutputStream(fOut);
-	        OutputStreamWriter out 
-	         = new OutputStreamWriter(bout, "UTF-8");
+			// open the file (and its compressed copies)
+			IndexFileWriter out = new IndexFileWriter(new File(fileO), compressors(context));
+			try {
 	        
 	        /*fil : file list*/
 	        out.write("fil = new Array();\n");
@@ -122,17 +213,24 @@ public class WriteJSFiles {
         			tempShortdesc = tempShortdesc.replaceAll("['�\"]", " ");
         		}
         		//System.out.println("temp : "+File.separatorChar+" "+tempShortdesc);
-			   out.write("fil[\""+i+"\"]"+"= \""+tempPath+"@@@"+tempTitle+"@@@"+tempShortdesc+"\";\n");
+			   out.write("fil[\"");
+			   out.writeNumber(i);
+			   out.write("\"]= \"");
+			   out.write(tempPath);
+			   out.write("@@@");
+			   out.write(String.valueOf(tempTitle));
+			   out.write("@@@");
+			   out.write(String.valueOf(tempShortdesc));
+			   out.write("\";\n");
 			   i++;
 			}
 	        
-	        out.flush();  // Don't forget to flush!
-	        out.close();
+			}
+			finally {
+				out.close();
+			}
 
 		}
-	    catch (UnsupportedEncodingException e) {
-	          System.out.println(txt_VM_encoding_not_supported);
-	        }
 	        catch (IOException e) {
 	          System.out.println(e.getMessage());        
 	    }
@@ -140,72 +238,927 @@ public class WriteJSFiles {
 	}
 
 	/** Create javascript index files alphabetically.
+	 * The index is split into DEFAULT_SHARD_COUNT files (index-1.js .. index-3.js).
+	 * See {@link #WritePrefixIndex} for files partitioned by the prefix of the words.
 	 * @param fileOutStr contains the path and the suffix of the index files to create. 
-	 * The first letter of the key is added to the given suffix. For example: e.g. a.js, b.js etc...  
+	 * "index-N" is added in front of the given suffix. For example: index-1.js, index-2.js etc...  
 	 * @param indexMap its keys are the indexed words and
 	 *  its values are the list of the files which contain the word.  
 	 */
 	public static void WriteIndex (String fileOutStr, Map<String, ?> indexMap) {
-		OutputStreamWriter out;
-		OutputStream bout;
-		OutputStream fOut;
-		String tstr;		
-		
+		WriteIndex(fileOutStr, indexMap, DEFAULT_SHARD_COUNT, 0);
+	}
+
+	/** Create javascript index files alphabetically.
+	 * The sorted words are distributed over several files (index-1.js, index-2.js, ...),
+	 * so that each file has about the same size. Additionally, a manifest file 
+	 * (index-shards.js) lists the file name, the first and last word and the 
+	 * size of each file.
+	 * @param fileOutStr contains the path and the suffix of the index files to create. 
+	 * @param indexMap its keys are the indexed words and
+	 *  its values are the list of the files which contain the word.  
+	 * @param shardCount number of index files (used if shardBytes is 0)
+	 * @param shardBytes maximum size of an index file in bytes, or 0 to
+	 *  write shardCount files. A file exceeds this size only if it contains a single word.
+	 */
+	@SuppressWarnings("deprecation")
+	public static void WriteIndex (String fileOutStr, Map<String, ?> indexMap, int shardCount, long shardBytes) {
+		WriteIndex(fileOutStr, indexMap, new IndexingContext(IndexerTask.indexerLanguage, null, null, null), 
+		           shardCount, shardBytes);
+	}
+
+	/** Same as {@link #WriteIndex(String, Map, int, long)}, but takes the 
+	 * language written to the first index file from the given context 
+	 * instead of IndexerTask.indexerLanguage. If the context defines a 
+	 * dictionary block size, the index files are front coded (see 
+	 * {@link #writeFrontCoded}).
+	 * @param context the settings of the indexing run
+	 * @return the first word of each index file (null for an empty file), 
+	 *  which can be passed to {@link #UpdateIndex}
+	 */
+	public static String[] WriteIndex (String fileOutStr, Map<String, ?> indexMap, IndexingContext context, 
+	                                   int shardCount, long shardBytes) {
 		// check arguments
 		if (indexMap == null || fileOutStr ==null) {
-			return;
+			return null;
 		}
 
 		// Collect the key of the index map
-		TreeSet<String> sortedKeys = new TreeSet<String>();
-		sortedKeys.addAll(indexMap.keySet());
-		Iterator keyIt = sortedKeys.iterator();
-		tstr = (String)keyIt.next();
-		
+		String[] sortedKeys = sortKeys(indexMap);
+		int indexSize = sortedKeys.length;
+
+		// Size of each entry as written to the file: w["key"]="postings";\n
+		long[] entrySize = entrySizes(sortedKeys, indexMap, context.getDictionaryBlockSize());
+		long totalSize = 0;
+		for (int k = 0; k < indexSize; k++) {
+			totalSize += entrySize[k];
+		}
+
+		// Choose the shard boundaries: shardEnd[i] is the index of the first key after shard i
+		int[] shardEnd;
+		if (shardBytes > 0) {
+			int[] ends = new int[indexSize + 1];
+			int cnt = 0;
+			long size = 0;
+			for (int k = 0; k < indexSize; k++) {
+				if ((size > 0) && (size + entrySize[k] > shardBytes)) {
+					ends[cnt++] = k;
+					size = 0;
+				}
+				size += entrySize[k];
+			}
+			ends[cnt++] = indexSize;
+			shardEnd = new int[cnt];
+			System.arraycopy(ends, 0, shardEnd, 0, cnt);
+		} else {
+			int cnt = Math.max(1, shardCount);
+			shardEnd = new int[cnt];
+			int k = 0;
+			long size = 0;
+			for (int i = 0; i < cnt; i++) {
+				// The shard ends where the emitted size reaches (i+1)/cnt of the total size
+				long target = (i == cnt - 1) ? totalSize : totalSize * (i + 1) / cnt;
+				while ((k < indexSize) && (size + entrySize[k] / 2 < target)) {
+					size += entrySize[k];
+					k++;
+				}
+				if (i == cnt - 1) {
+					k = indexSize;
+				}
+				shardEnd[i] = k;
+			}
+		}
+
 		File fileOut= new File(fileOutStr);
+		WriteShards(fileOut, indexMap, context, sortedKeys, entrySize, shardEnd, null);
+		WriteFrontCodedDecoder(fileOut, context);
+
+		// Remove index files left over from a previous run with more shards or with prefix partitioning
+		for (int i = shardEnd.length + 1; ; i++) {
+			File old = new File(fileOut.getParentFile(), "index-" + i + fileOut.getName());
+			if (! IndexFileWriter.delete(old)) {
+				break;
+			}
+		}
+		IndexFileWriter.delete(new File(fileOut.getParentFile(), ROUTING_TABLE_NAME + fileOut.getName()));
+		deletePrefixShards(fileOut, Collections.<String>emptySet());
+		System.out.println(txt_indices_location + fileOutStr + " (" + shardEnd.length + " files)");
+
+		String[] firstKeys = new String[shardEnd.length];
+		int start = 0;
+		for (int i = 0; i < shardEnd.length; i++) {
+			firstKeys[i] = (shardEnd[i] > start) ? sortedKeys[start] : null;
+			start = shardEnd[i];
+		}
+		return firstKeys;
+	}
+
+	/** Rewrites the index files containing the given words, after the 
+	 * file lists of these words have been changed in indexMap.
+	 * The words are assigned to the index files by the first words of the 
+	 * files written by {@link #WriteIndex(String, Map, IndexingContext, int, long)}, 
+	 * i.e. the boundaries of the files are kept. The manifest file is 
+	 * rewritten as well. The other index files are not changed.
+	 * @param fileOutStr the path and suffix passed to WriteIndex
+	 * @param indexMap the complete index, preferably a SortedMap
+	 * @param shardFirstKeys the value returned by WriteIndex
+	 * @param changedKeys the words which have been added or removed, or whose 
+	 *  list of files has changed
+	 * @return the number of index files written
+	 */
+	public static int UpdateIndex (String fileOutStr, Map<String, ?> indexMap, IndexingContext context, 
+	                               String[] shardFirstKeys, Collection<String> changedKeys) {
+		if (indexMap == null || fileOutStr == null || shardFirstKeys == null) {
+			return 0;
+		}
+		String[] sortedKeys = sortKeys(indexMap);
+		long[] entrySize = entrySizes(sortedKeys, indexMap, context.getDictionaryBlockSize());
+
+		// Assign the keys to the existing shards
+		int[] shardEnd = new int[shardFirstKeys.length];
+		int k = 0;
+		for (int i = 0; i < shardFirstKeys.length; i++) {
+			String next = null;
+			for (int j = i + 1; (j < shardFirstKeys.length) && (next == null); j++) {
+				next = shardFirstKeys[j];
+			}
+			while ((k < sortedKeys.length) && ((next == null) || (sortedKeys[k].compareTo(next) < 0))) {
+				k++;
+			}
+			shardEnd[i] = k;
+		}
+
+		boolean[] rewrite = new boolean[shardFirstKeys.length];
+		int count = 0;
+		for (String key : changedKeys) {
+			int shard = 0;
+			for (int i = shardFirstKeys.length - 1; i > 0; i--) {
+				if ((shardFirstKeys[i] != null) && (shardFirstKeys[i].compareTo(key) <= 0)) {
+					shard = i;
+					break;
+				}
+			}
+			if (! rewrite[shard]) {
+				rewrite[shard] = true;
+				count++;
+			}
+		}
+		if (count > 0) {
+			WriteShards(new File(fileOutStr), indexMap, context, sortedKeys, entrySize, shardEnd, rewrite);
+		}
+		return count;
+	}
+
+	/** Create javascript index files partitioned by the prefix of the words.
+	 * The words are grouped by their first prefixLength characters after 
+	 * case folding, the words starting with a CJK character by the block of
+	 * 256 code points containing this character (see {@link #prefixKey}).
+	 * Each group is written to its own file, e.g. index-p-ab.js. The routing 
+	 * table (index-routes.js) maps the groups to the files and defines 
+	 * indexRouter, which loads only the files containing the words of a query:
+	 * indexRouter.load(["word1", "word2"], function () { ... w["word1"] ... }).
+	 * The files of the alphabetical partitioning (index-N.js) and the files
+	 * of groups which no longer exist are deleted.
+	 * @param fileOutStr contains the path and the suffix of the index files to create. 
+	 * @param indexMap its keys are the indexed words and
+	 *  its values are the list of the files which contain the word.  
+	 * @param context the settings of the indexing run
+	 * @param prefixLength the number of characters of the prefix (at least 1)
+	 * @return the number of index files written
+	 */
+	public static int WritePrefixIndex (String fileOutStr, Map<String, ?> indexMap, IndexingContext context, 
+	                                    int prefixLength) {
+		if (indexMap == null || fileOutStr == null) {
+			return 0;
+		}
+		File fileOut = new File(fileOutStr).getAbsoluteFile();
+		SortedMap<String, List<String>> groups = prefixGroups(sortKeys(indexMap), prefixLength, null);
+		WritePrefixShards(fileOut, indexMap, context, groups, groups.keySet());
+		WriteRoutingTable(fileOut, context, prefixLength, groups.keySet());
+		WriteFrontCodedDecoder(fileOut, context);
+
+		// Remove the files of the alphabetical partitioning and of groups of a previous run
+		IndexFileWriter.delete(new File(fileOut.getParentFile(), "index-shards" + fileOut.getName()));
+		for (int i = 1; IndexFileWriter.delete(new File(fileOut.getParentFile(), "index-" + i + fileOut.getName())); i++) {
+		}
+		Set<String> names = new HashSet<String>();
+		for (String group : groups.keySet()) {
+			names.add(prefixShardName(fileOut, group));
+		}
+		deletePrefixShards(fileOut, names);
+		System.out.println(txt_indices_location + fileOutStr + " (" + groups.size() + " files, routing table " + 
+		                   ROUTING_TABLE_NAME + fileOut.getName() + ")");
+		return groups.size();
+	}
+
+	/** Rewrites the index files written by {@link #WritePrefixIndex} which
+	 * contain the given words, after the file lists of these words have been 
+	 * changed in indexMap. The files of groups which become empty are deleted. 
+	 * The routing table is rewritten if groups have been added or removed.
+	 * @param fileOutStr the path and suffix passed to WritePrefixIndex
+	 * @param indexMap the complete index, preferably a SortedMap
+	 * @param prefixLength the value passed to WritePrefixIndex
+	 * @param changedKeys the words which have been added or removed, or whose 
+	 *  list of files has changed
+	 * @return the number of index files written or deleted
+	 */
+	public static int UpdatePrefixIndex (String fileOutStr, Map<String, ?> indexMap, IndexingContext context, 
+	                                     int prefixLength, Collection<String> changedKeys) {
+		if (indexMap == null || fileOutStr == null) {
+			return 0;
+		}
+		File fileOut = new File(fileOutStr).getAbsoluteFile();
+		Set<String> changed = new TreeSet<String>();
+		for (String key : changedKeys) {
+			changed.add(prefixKey(key, prefixLength));
+		}
+		if (changed.isEmpty()) {
+			return 0;
+		}
+		SortedMap<String, List<String>> groups = prefixGroups(sortKeys(indexMap), prefixLength, changed);
+		boolean routesChanged = false;
+		for (String group : changed) {
+			File shard = new File(fileOut.getParentFile(), prefixShardName(fileOut, group));
+			if (! groups.containsKey(group)) {
+				IndexFileWriter.delete(shard);
+				routesChanged = true;
+			} else if (! shard.exists()) {
+				routesChanged = true;
+			}
+		}
+		WritePrefixShards(fileOut, indexMap, context, groups, groups.keySet());
+		if (routesChanged) {
+			WriteRoutingTable(fileOut, context, prefixLength, 
+			                  prefixGroups(sortKeys(indexMap), prefixLength, null).keySet());
+		}
+		return changed.size();
+	}
+
+	/** Returns the group of a word in the prefix partitioning: the first 
+	 * prefixLength code points of the lower case word, or, if the word starts
+	 * with a CJK character, "#" followed by the hexadecimal number of the block 
+	 * of 256 code points containing the character. The routing table computes
+	 * the same value in javascript (see index-router.js).
+	 */
+	public static String prefixKey (String term, int prefixLength) {
+		if (term.length() == 0) {
+			return term;
+		}
+		int cp = term.codePointAt(0);
+		if (isCJKCodePoint(cp)) {
+			return "#" + Integer.toHexString(cp >>> 8);
+		}
+		String folded = term.toLowerCase(Locale.ROOT);
+		int end = 0;
+		for (int n = 0; (n < prefixLength) && (end < folded.length()); n++) {
+			end += Character.charCount(folded.codePointAt(end));
+		}
+		return folded.substring(0, end);
+	}
+
+	// Ideographs, kana, hangul and the CJK symbols. Same ranges as in index-router.js.
+	private static boolean isCJKCodePoint (int cp) {
+		return (cp >= 0x2E80 && cp <= 0x9FFF) || (cp >= 0xAC00 && cp <= 0xD7AF) || 
+		       (cp >= 0x1100 && cp <= 0x11FF) || (cp >= 0xF900 && cp <= 0xFAFF) || 
+		       (cp >= 0xFF66 && cp <= 0xFF9F) || (cp >= 0x20000 && cp <= 0x3FFFF);
+	}
+
+	/** Groups the sorted words by their prefix key.
+	 * @param only the groups to collect, or null to collect all groups
+	 */
+	private static SortedMap<String, List<String>> prefixGroups (String[] sortedKeys, int prefixLength, 
+	                                                             Set<String> only) {
+		SortedMap<String, List<String>> groups = new TreeMap<String, List<String>>();
+		for (String key : sortedKeys) {
+			String group = prefixKey(key, prefixLength);
+			if ((only != null) && ! only.contains(group)) {
+				continue;
+			}
+			List<String> keys = groups.get(group);
+			if (keys == null) {
+				keys = new ArrayList<String>();
+				groups.put(group, keys);
+			}
+			keys.add(key);
+		}
+		return groups;
+	}
+
+	/** Returns the file name of a group. Letters a-z and digits are kept, 
+	 * the other characters are written as "_" and 4 hexadecimal digits, 
+	 * so that the name is valid on all file systems.
+	 */
+	private static String prefixShardName (File fileOut, String group) {
+		StringBuilder name = new StringBuilder(PREFIX_SHARD_NAME);
+		for (int i = 0; i < group.length(); i++) {
+			char ch = group.charAt(i);
+			if ((ch >= 'a' && ch <= 'z') || (ch >= '0' && ch <= '9')) {
+				name.append(ch);
+			} else {
+				String hex = Integer.toHexString(ch);
+				name.append('_');
+				for (int k = hex.length(); k < 4; k++) {
+					name.append('0');
+				}
+				name.append(hex);
+			}
+		}
+		return name.append(fileOut.getName()).toString();
+	}
+
+	/** Deletes the index files of the prefix partitioning except the given files. */
+	private static void deletePrefixShards (File fileOut, Set<String> keep) {
+		File[] files = fileOut.getAbsoluteFile().getParentFile().listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File f : files) {
+			String name = f.getName();
+			if (name.startsWith(PREFIX_SHARD_NAME) && name.endsWith(fileOut.getName()) && ! keep.contains(name)) {
+				IndexFileWriter.delete(f);
+			}
+		}
+	}
+
+	private static void WritePrefixShards (File fileOut, Map<String, ?> indexMap, IndexingContext context, 
+	                                       SortedMap<String, List<String>> groups, Collection<String> write) {
+		for (String group : write) {
+			List<String> keys = groups.get(group);
+			if (keys == null) {
+				continue;
+			}
+			try {
+				IndexFileWriter out = new IndexFileWriter(new File(fileOut.getParentFile(), prefixShardName(fileOut, group)), 
+				                                          context.getCompressors());
+				try {
+					writeEntries(out, keys, indexMap, context.getDictionaryBlockSize());
+				}
+				finally {
+					out.close();
+				}
+			}
+			catch (IOException e) {
+				System.out.println(e.getMessage());
+			}
+		}
+	}
+
+	/** Create the routing table of the prefix partitioning (index-routes.js).
+	 * Example: irt["ab"]="index-p-ab.js";
+	 */
+	private static void WriteRoutingTable (File fileOut, IndexingContext context, int prefixLength, 
+	                                       Collection<String> groups) {
+		String router = readResource(ROUTER_RESOURCE);
+		if (router == null) {
+			return;
+		}
+		try {
+			IndexFileWriter out = new IndexFileWriter(new File(fileOut.getParentFile(), ROUTING_TABLE_NAME + fileOut.getName()), 
+			                                          context.getCompressors());
+			try {
+				out.write("var indexerLanguage=\"");
+				out.write(context.getLanguage());
+				out.write("\";\n");
+				/*irt : index routing table*/
+				out.write("//Index files of the word prefixes.\n");
+				out.write("var indexPrefixLength=");
+				out.writeNumber(prefixLength);
+				out.write(";\n");
+				out.write("irt = new Object();\n");
+				for (String group : groups) {
+					out.write("irt[\"");
+					out.write(escapeJS(group));
+					out.write("\"]=\"");
+					out.write(prefixShardName(fileOut, group));
+					out.write("\";\n");
+				}
+				out.write(router);
+			}
+			finally {
+				out.close();
+			}
+		}
+		catch (IOException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+
+	private static String[] sortKeys (Map<String, ?> indexMap) {
+		if (indexMap instanceof SortedMap && ((SortedMap<String, ?>) indexMap).comparator() == null) {
+			return indexMap.keySet().toArray(new String[indexMap.size()]);
+		}
+		return new TreeSet<String>(indexMap.keySet()).toArray(new String[0]);
+	}
+
+	/** Returns the size of each entry in the index files. For front coded 
+	 * files, the size is estimated, because the blocks restart at the first 
+	 * word of each file.
+	 */
+	private static long[] entrySizes (String[] sortedKeys, Map<String, ?> indexMap, int blockSize) {
+		long[] entrySize = new long[sortedKeys.length];
+		for (int k = 0; k < sortedKeys.length; k++) {
+			long postings = postingsLength(indexMap.get(sortedKeys[k]));
+			if (blockSize <= 0) {
+				entrySize[k] = 10 + utf8Length(sortedKeys[k]) + postings;
+			} else if (k % blockSize == 0) {
+				// restart word, and quotes and comma of the three arrays
+				entrySize[k] = 9 + utf8Length(sortedKeys[k]) + postings;
+			} else {
+				int shared = sharedPrefixLength(sortedKeys[k - 1], sortedKeys[k]);
+				entrySize[k] = 3 + utf8Length(sortedKeys[k].substring(shared)) + postings;
+			}
+		}
+		return entrySize;
+	}
+
+	/** Writes the index files and the manifest.
+	 * @param rewrite the index files to write, or null to write all files
+	 */
+	private static void WriteShards (File fileOut, Map<String, ?> indexMap, IndexingContext context, 
+	                                 String[] sortedKeys, long[] entrySize, int[] shardEnd, boolean[] rewrite) {
+		List<OutputCompressor> compressors = context.getCompressors();
+		String[] shardNames = new String[shardEnd.length];
+		long[] shardSizes = new long[shardEnd.length];
+		int start = 0;
+		for (int i = 0; i < shardEnd.length; i++) {
+			shardNames[i] = "index-" + (i + 1) + fileOut.getName();
+			for (int k = start; k < shardEnd[i]; k++) {
+				shardSizes[i] += entrySize[k];
+			}
+			if ((rewrite != null) && ! rewrite[i]) {
+				start = shardEnd[i];
+				continue;
+			}
+			try {
+				// open the file (and its compressed copies)
+				IndexFileWriter out = new IndexFileWriter(new File(fileOut.getParentFile(), shardNames[i]), compressors);
+
+				try {
+					if(i==0) {
+						out.write("var indexerLanguage=\"");
+						out.write(String.valueOf(context.getLanguage()));
+						out.write("\";\n");
+					}
+					writeEntries(out, Arrays.asList(sortedKeys).subList(start, shardEnd[i]), indexMap, 
+					             context.getDictionaryBlockSize());
+				}
+				finally {
+					out.close();
+				}
+			}
+			catch (IOException e) {
+				System.out.println(e.getMessage());
+			}
+			start = shardEnd[i];
+		}
+
+		WriteShardManifest(new File(fileOut.getParentFile(), "index-shards" + fileOut.getName()), 
+		                   compressors, sortedKeys, shardEnd, shardNames, shardSizes);
+	}
+
+	/** Create a binary index file (index.bin) and the javascript file which 
+	 * decodes it in the browser (index-decoder.js). The binary file is much 
+	 * smaller than the index-N.js files, and only the words have to be decoded
+	 * before the first query. The file contains:
+	 * - the characters "DWIX" and the format version (one byte)
+	 * - the language: length and UTF-8 bytes
+	 * - flags: 1 if term frequencies are stored
+	 * - if term frequencies are stored: the number of files, followed by
+	 *   the number of words of each file
+	 * - the number of words
+	 * - for each word in ascending order: length and UTF-8 bytes of the word,
+	 *   number of files * 2 + type of the postings block, and length of the 
+	 *   postings block in bytes
+	 * - the postings blocks in the same order. The type of each block is 
+	 *   chosen by its size: 0 for the first file number followed by the 
+	 *   differences to the previous file number (words in few files), 1 for
+	 *   the first file number followed by a bitmap of the following file 
+	 *   numbers, 8 files per byte, lowest bit first (words in many files).
+	 *   If term frequencies are stored, the block is followed by one byte 
+	 *   per file: the number of occurrences of the word (at most 255)
+	 * All numbers except the version are written as varints (7 bits per 
+	 * byte, least significant group first, high bit set if more bytes follow).
+	 * @param dirOut the directory in which the files are created
+	 * @param indexMap its keys are the indexed words and
+	 *  its values are the list of the files which contain the word.  
+	 * @param context the settings of the indexing run
+	 */
+	public static void WriteBinaryIndex (File dirOut, Map<String, ?> indexMap, IndexingContext context) {
+		WriteBinaryIndex(dirOut, indexMap, context, null);
+	}
+
+	/** Same as {@link #WriteBinaryIndex(File, Map, IndexingContext)}, but 
+	 * also stores the term frequencies and the number of words of each file.
+	 * @param tokenCounts the number of words of each file, or null to
+	 *  write the index without term frequencies
+	 */
+	public static void WriteBinaryIndex (File dirOut, Map<String, ?> indexMap, IndexingContext context, 
+	                                     int[] tokenCounts) {
+		if (indexMap == null || dirOut == null) {
+			return;
+		}
+		String[] sortedKeys = sortKeys(indexMap);
+		File fileOut = new File(dirOut, BINARY_INDEX_FILE);
+		try {
+			ByteArrayOutputStream dict = new ByteArrayOutputStream(sortedKeys.length * 12);
+			ByteArrayOutputStream postings = new ByteArrayOutputStream(sortedKeys.length * 8);
+			for (String key : sortedKeys) {
+				writeBinaryString(dict, key);
+				int[] files = postingsArray(indexMap.get(key));
+				int blockStart = postings.size();
+				int deltaBytes = 0;
+				int last = 0;
+				for (int fileIdx : files) {
+					deltaBytes += varintLength(fileIdx - last);
+					last = fileIdx;
+				}
+				int bitmapBytes = (files.length > 0) ? varintLength(files[0]) + ((last - files[0]) >>> 3) + 1 : 0;
+				if ((files.length > 0) && (bitmapBytes < deltaBytes)) {
+					writeVarint(postings, files[0]);
+					byte[] bitmap = new byte[bitmapBytes - varintLength(files[0])];
+					for (int fileIdx : files) {
+						int bit = fileIdx - files[0];
+						bitmap[bit >>> 3] |= 1 << (bit & 7);
+					}
+					postings.write(bitmap);
+					writeVarint(dict, (files.length << 1) | 1);
+				} else {
+					last = 0;
+					for (int fileIdx : files) {
+						writeVarint(postings, fileIdx - last);
+						last = fileIdx;
+					}
+					writeVarint(dict, files.length << 1);
+				}
+				if (tokenCounts != null) {
+					postings.write(postingsFrequencies(indexMap.get(key), files.length));
+				}
+				writeVarint(dict, postings.size() - blockStart);
+			}
+
+			IndexFileWriter writer = new IndexFileWriter(fileOut, context.getCompressors());
+			try {
+				OutputStream out = writer.getOutputStream();
+				out.write(BINARY_MAGIC);
+				out.write(BINARY_VERSION);
+				writeBinaryString(out, context.getLanguage());
+				writeVarint(out, (tokenCounts != null) ? BINARY_FLAG_FREQUENCIES : 0);
+				if (tokenCounts != null) {
+					writeVarint(out, tokenCounts.length);
+					for (int count : tokenCounts) {
+						writeVarint(out, count);
+					}
+				}
+				writeVarint(out, sortedKeys.length);
+				dict.writeTo(out);
+				postings.writeTo(out);
+			} finally {
+				writer.close();
+			}
+		}
+		catch (IOException e) {
+			System.out.println(e.getMessage());
+			return;
+		}
+		WriteBinaryDecoder(new File(dirOut, BINARY_DECODER_FILE), BINARY_INDEX_FILE, context.getCompressors());
+		System.out.println(txt_indices_location + fileOut + " (" + fileOut.length() + " bytes)");
+	}
+
+	/** Writes the javascript decoder of the binary index, see index-decoder.js. */
+	private static void WriteBinaryDecoder (File fileO, String indexFile, List<OutputCompressor> compressors) {
+		String js = readResource(BINARY_DECODER_FILE);
+		if (js == null) {
+			return;
+		}
+		try {
+			Writer out = new IndexFileWriter(fileO, compressors);
+			try {
+				out.write(js.replace("@INDEX_FILE@", indexFile));
+			}
+			finally {
+				out.close();
+			}
+		}
+		catch (IOException e) {
+			System.out.println(e.getMessage());
+		}
+	}
 
-        /* Writes the index to Three JS files, namely: index-1.js, index-2.js, index-3.js
-		 * Index will be distributed evenly in these three files. 
-		 * tstr is the current key
-		 * keyIt is the iterator of the key set
-		 * */
-        int indexSize = sortedKeys.size(); 
-        for (int i = 1; i <= 3; i++) {
-            try {
-                // open a outputstream, here a file
-                fOut = new FileOutputStream(fileOut.getParent() + File.separator + "index-" + i + fileOut.getName());
-                bout = new BufferedOutputStream(fOut);
-                out = new OutputStreamWriter(bout, "UTF-8");
-
-                try {
-                    /* Populate a javascript hashmap:
-                      The key is a word to look for in the index,
-                      The value is the numbers of the files in which the word exists.
-                      Example: w["key"]="file1,file2,file3";*/
-                    int count = 0;
-                    if(i==1)
-                        out.write("var indexerLanguage=\""+IndexerTask.indexerLanguage+"\";\n");
-                    out.write("//Auto generated index for searching.\n");
-                    while (keyIt.hasNext()) {        //&& (tempLetter == tstr.charAt(0)) 
-                        out.write("w[\"" + tstr + "\"]" + "=\"" + indexMap.get(tstr) + "\";\n");
-                        tstr = (String) keyIt.next();
-                        count++;
-                        if (indexSize / count < 3){
-                            break;
-                        }
-                    } 
-                    out.write("\n");
-                    out.flush();  // Don't forget to flush!
-                    out.close();
-                }
-                catch (UnsupportedEncodingException e) {
-                    System.out.println(txt_VM_encoding_not_supported);
-                }
-            }
-            catch (IOException e) {
-                System.out.println(e.getMessage());
-            }
-        } 
-	    System.out.println(txt_indices_location + fileOutStr);
+	/** Returns the content of a javascript file stored with this class, or null. */
+	private static String readResource (String name) {
+		InputStream in = WriteJSFiles.class.getResourceAsStream(name);
+		if (in == null) {
+			System.out.println("Missing resource " + name);
+			return null;
+		}
+		StringBuilder js = new StringBuilder();
+		try {
+			Reader reader = new InputStreamReader(in, "UTF-8");
+			try {
+				char[] buf = new char[4096];
+				int len;
+				while ((len = reader.read(buf)) > 0) {
+					js.append(buf, 0, len);
+				}
+			}
+			finally {
+				reader.close();
+			}
+		}
+		catch (IOException e) {
+			System.out.println(e.getMessage());
+			return null;
+		}
+		return js.toString();
+	}
+
+	private static void writeBinaryString (OutputStream out, String str) throws IOException {
+		byte[] bytes = str.getBytes("UTF-8");
+		writeVarint(out, bytes.length);
+		out.write(bytes);
+	}
+
+	private static void writeVarint (OutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int varintLength (int value) {
+		int len = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			len++;
+		}
+		return len;
+	}
+
+	/** Returns the file indices of a PostingsList or of a comma separated string. */
+	private static int[] postingsArray (Object postings) {
+		if (postings instanceof PostingsList) {
+			return ((PostingsList) postings).toArray();
+		}
+		String str = String.valueOf(postings);
+		if (str.length() == 0) {
+			return new int[0];
+		}
+		String[] parts = str.split(",");
+		int[] arr = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			int colon = parts[i].indexOf(':');
+			arr[i] = Integer.parseInt(((colon < 0) ? parts[i] : parts[i].substring(0, colon)).trim());
+		}
+		return arr;
+	}
+
+	/** Returns the term frequencies of a PostingsList or of a string of 
+	 * "file:frequency" pairs, one byte per file (1 if not stored).
+	 */
+	private static byte[] postingsFrequencies (Object postings, int size) {
+		byte[] freqs = new byte[size];
+		if (postings instanceof PostingsList) {
+			PostingsList list = (PostingsList) postings;
+			for (int i = 0; i < size; i++) {
+				freqs[i] = (byte) list.getFrequency(i);
+			}
+			return freqs;
+		}
+		String[] parts = (size == 0) ? new String[0] : String.valueOf(postings).split(",");
+		for (int i = 0; i < size; i++) {
+			int colon = parts[i].indexOf(':');
+			int freq = (colon < 0) ? 1 : Integer.parseInt(parts[i].substring(colon + 1).trim());
+			freqs[i] = (byte) Math.min(freq, PostingsList.MAX_FREQUENCY);
+		}
+		return freqs;
+	}
+
+	/** Create a javascript array describing the index files.
+	 * Example: {file:"index-1.js",first:"a",last:"docbook",size:123456}
+	 */
+	private static void WriteShardManifest (File fileO, List<OutputCompressor> compressors, String[] sortedKeys, 
+	                                        int[] shardEnd, String[] shardNames, long[] shardSizes) {
+		try {
+			IndexFileWriter out = new IndexFileWriter(fileO, compressors);
+			try {
+				/*isl : index shard list*/
+				out.write("//List of the index files and their key ranges.\n");
+				out.write("isl = new Array();\n");
+				int start = 0;
+				for (int i = 0; i < shardEnd.length; i++) {
+					out.write("isl[");
+					out.writeNumber(i);
+					out.write("]={file:\"");
+					out.write(shardNames[i]);
+					out.write("\"");
+					if (shardEnd[i] > start) {
+						out.write(",first:\"");
+						out.write(escapeJS(sortedKeys[start]));
+						out.write("\",last:\"");
+						out.write(escapeJS(sortedKeys[shardEnd[i] - 1]));
+						out.write("\"");
+					}
+					out.write(",size:");
+					out.write(Long.toString(shardSizes[i]));
+					out.write("};\n");
+					start = shardEnd[i];
+				}
+			}
+			finally {
+				out.close();
+			}
+		}
+		catch (IOException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+
+	private static List<OutputCompressor> compressors (IndexingContext context) {
+		return (context == null) ? null : context.getCompressors();
+	}
+
+	private static String escapeJS (String str) {
+		return str.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	private static int utf8Length (String str) {
+		int len = 0;
+		for (int i = 0; i < str.length(); i++) {
+			char ch = str.charAt(i);
+			if (ch < 0x80) {
+				len++;
+			} else if (ch < 0x800) {
+				len += 2;
+			} else if (Character.isHighSurrogate(ch) && (i + 1 < str.length()) && 
+			           Character.isLowSurrogate(str.charAt(i + 1))) {
+				len += 4;
+				i++;
+			} else {
+				len += 3;
+			}
+		}
+		return len;
+	}
+
+	private static int postingsLength (Object postings) {
+		if (postings instanceof PostingsList) {
+			return ((PostingsList) postings).getTextLength();
+		}
+		return utf8Length(String.valueOf(postings));
+	}
+
+	/** Writes the words of an index file and their file lists.
+	 * @param blockSize the number of words per block, if the words are 
+	 *  front coded, or 0
+	 */
+	private static void writeEntries (IndexFileWriter out, List<String> keys, Map<String, ?> indexMap, 
+	                                  int blockSize) throws IOException {
+		if (blockSize > 0) {
+			writeFrontCoded(out, keys, indexMap, blockSize);
+			return;
+		}
+		/* Populate a javascript hashmap:
+		  The key is a word to look for in the index,
+		  The value is the numbers of the files in which the word exists.
+		  Example: w["key"]="file1,file2,file3";*/
+		out.write("//Auto generated index for searching.\n");
+		for (String key : keys) {
+			writeEntry(out, key, indexMap.get(key));
+		}
+		out.write("\n");
+	}
+
+	/** Writes the words of an index file front coded, in blocks of blockSize 
+	 * words. The first word of each block (restart point) is written 
+	 * completely. The following words of the block are written as one
+	 * character giving the number of leading characters shared with the 
+	 * previous word ('0' + number, at most MAX_SHARED_PREFIX), followed by 
+	 * the remaining characters, separated by spaces. The file lists of the
+	 * words of a block are separated by spaces as well. Example:
+	 * <pre>
+	 * fci.add(["config","index"],
+	 * ["6ur 9ation","5er"],
+	 * ["0,1 1 1,2","0 3"]);
+	 * </pre>
+	 * The restart points can be searched by binary search, so that only one
+	 * block has to be decoded to look up a word. The javascript function 
+	 * fci.add is defined in index-fcdecoder.js.
+	 */
+	private static void writeFrontCoded (IndexFileWriter out, List<String> keys, Map<String, ?> indexMap, 
+	                                     int blockSize) throws IOException {
+		out.write("//Auto generated front coded index for searching.\n");
+		out.write("fci.add([");
+		for (int k = 0; k < keys.size(); k += blockSize) {
+			if (k > 0) {
+				out.write(',');
+			}
+			out.write('"');
+			out.write(escapeJS(keys.get(k)));
+			out.write('"');
+		}
+		out.write("],\n[");
+		for (int k = 0; k < keys.size(); k += blockSize) {
+			if (k > 0) {
+				out.write(',');
+			}
+			out.write('"');
+			int end = Math.min(k + blockSize, keys.size());
+			for (int j = k + 1; j < end; j++) {
+				String key = keys.get(j);
+				int shared = sharedPrefixLength(keys.get(j - 1), key);
+				if (j > k + 1) {
+					out.write(' ');
+				}
+				char prefix = (char) ('0' + shared);
+				if (prefix == '\\') {
+					out.write('\\');
+				}
+				out.write(prefix);
+				out.write(escapeJS(key.substring(shared)));
+			}
+			out.write('"');
+		}
+		out.write("],\n[");
+		for (int k = 0; k < keys.size(); k += blockSize) {
+			if (k > 0) {
+				out.write(',');
+			}
+			out.write('"');
+			int end = Math.min(k + blockSize, keys.size());
+			for (int j = k; j < end; j++) {
+				if (j > k) {
+					out.write(' ');
+				}
+				writePostings(out, indexMap.get(keys.get(j)));
+			}
+			out.write('"');
+		}
+		out.write("]);\n");
+	}
+
+	/** Returns the number of characters of the previous word which are 
+	 * shared by the front coded word, at most MAX_SHARED_PREFIX. The prefix
+	 * does not end within a surrogate pair, because the suffix would start 
+	 * with a lone low surrogate, which cannot be encoded in UTF-8.
+	 */
+	private static int sharedPrefixLength (String prev, String key) {
+		int len = Math.min(Math.min(prev.length(), key.length()), MAX_SHARED_PREFIX);
+		int i = 0;
+		while ((i < len) && (prev.charAt(i) == key.charAt(i))) {
+			i++;
+		}
+		if ((i > 0) && (i < key.length()) && Character.isLowSurrogate(key.charAt(i))) {
+			i--;
+		}
+		return i;
+	}
+
+	/** Writes the decoder of the front coded index files (index-fcdecoder.js), 
+	 * or deletes it if the index files are not front coded. 
+	 */
+	private static void WriteFrontCodedDecoder (File fileOut, IndexingContext context) {
+		File fileO = new File(fileOut.getParentFile(), FRONT_CODED_DECODER_NAME + fileOut.getName());
+		if (context.getDictionaryBlockSize() <= 0) {
+			IndexFileWriter.delete(fileO);
+			return;
+		}
+		String js = readResource(FRONT_CODED_DECODER_RESOURCE);
+		if (js == null) {
+			return;
+		}
+		try {
+			Writer out = new IndexFileWriter(fileO, context.getCompressors());
+			try {
+				out.write(js);
+			}
+			finally {
+				out.close();
+			}
+		}
+		catch (IOException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+
+	/** Writes the entry of a word: w["key"]="file1,file2,file3"; */
+	private static void writeEntry (IndexFileWriter out, String key, Object postings) throws IOException {
+		out.write("w[\"");
+		out.write(key);
+		out.write("\"]=\"");
+		writePostings(out, postings);
+		out.write("\";\n");
+	}
+
+	/** Writes the list of files containing a word, separated by commas.
+	 * @param out the writer of the index file
+	 * @param postings a PostingsList or the comma separated string of file indices
+	 */
+	private static void writePostings (IndexFileWriter out, Object postings) throws IOException {
+		if (postings instanceof PostingsList) {
+			((PostingsList) postings).writeTo(out);
+		} else {
+			out.write(String.valueOf(postings));
+		}
 	}
 }
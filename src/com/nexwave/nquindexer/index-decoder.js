@@ -0,0 +1,177 @@
+//Auto generated decoder of the binary search index (@INDEX_FILE@).
+//Usage: binaryIndex.load(function (ok) { ... binaryIndex.get("word") ... });
+//get() returns the comma separated file numbers, like w["word"] of the index-N.js files.
+//If the index contains term frequencies, each file number is followed by ":frequency",
+//and the number of words of each file is assigned to ftc, like htmlFileTokenCounts.js.
+var binaryIndex = (function () {
+    var indexFile = "@INDEX_FILE@";
+    var bytes = null;
+    var terms = null;
+    var counts = null;
+    var types = null;
+    var offsets = null;
+    var frequencies = false;
+    var postingsStart = 0;
+
+    // The index file is located in the directory of this script
+    var scripts = document.getElementsByTagName("script");
+    var scriptSrc = scripts.length > 0 ? scripts[scripts.length - 1].src : "";
+    var indexUrl = scriptSrc.substring(0, scriptSrc.lastIndexOf("/") + 1) + indexFile;
+
+    function readVarint(r) {
+        var value = 0, factor = 1, b;
+        do {
+            b = bytes[r.pos++];
+            value += (b & 0x7F) * factor;
+            factor *= 128;
+        } while (b & 0x80);
+        return value;
+    }
+
+    function readString(r, len) {
+        var end = r.pos + len, s = "", c, cp;
+        while (r.pos < end) {
+            c = bytes[r.pos++];
+            if (c < 0x80) {
+                cp = c;
+            } else if (c < 0xE0) {
+                cp = ((c & 0x1F) << 6) | (bytes[r.pos++] & 0x3F);
+            } else if (c < 0xF0) {
+                cp = ((c & 0x0F) << 12) | ((bytes[r.pos++] & 0x3F) << 6) | (bytes[r.pos++] & 0x3F);
+            } else {
+                cp = ((c & 0x07) << 18) | ((bytes[r.pos++] & 0x3F) << 12) |
+                     ((bytes[r.pos++] & 0x3F) << 6) | (bytes[r.pos++] & 0x3F);
+            }
+            if (cp > 0xFFFF) {
+                cp -= 0x10000;
+                s += String.fromCharCode(0xD800 + (cp >> 10), 0xDC00 + (cp & 0x3FF));
+            } else {
+                s += String.fromCharCode(cp);
+            }
+        }
+        return s;
+    }
+
+    // Reads the header and the term dictionary. The postings are decoded by get().
+    function decode(buffer) {
+        bytes = new Uint8Array(buffer);
+        if (bytes[0] != 0x44 || bytes[1] != 0x57 || bytes[2] != 0x49 || bytes[3] != 0x58 || bytes[4] != 3) {
+            throw new Error("Invalid search index " + indexFile);
+        }
+        var r = {pos: 5};
+        indexerLanguage = readString(r, readVarint(r));
+        frequencies = (readVarint(r) & 1) != 0;
+        if (frequencies) {
+            ftc = new Array(readVarint(r));
+            for (var f = 0; f < ftc.length; f++) {
+                ftc[f] = readVarint(r);
+            }
+        }
+        var n = readVarint(r);
+        terms = new Array(n);
+        counts = new Array(n);
+        types = new Array(n);
+        offsets = new Array(n + 1);
+        var offset = 0, countAndType;
+        for (var i = 0; i < n; i++) {
+            terms[i] = readString(r, readVarint(r));
+            countAndType = readVarint(r);
+            counts[i] = Math.floor(countAndType / 2);
+            types[i] = countAndType % 2;
+            offsets[i] = offset;
+            offset += readVarint(r);
+        }
+        offsets[n] = offset;
+        postingsStart = r.pos;
+        if (postingsStart + offset > bytes.length) {
+            throw new Error("Truncated search index " + indexFile);
+        }
+    }
+
+    function find(term) {
+        var lo = 0, hi = terms.length - 1, mid;
+        while (lo <= hi) {
+            mid = (lo + hi) >> 1;
+            if (terms[mid] < term) {
+                lo = mid + 1;
+            } else if (terms[mid] > term) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    // Block type 0: differences of the file numbers, type 1: first file number and bitmap,
+    // followed by one frequency byte per file if frequencies are stored
+    function postings(i) {
+        var r = {pos: postingsStart + offsets[i]};
+        var files = new Array(counts[i]), fileIdx = 0, k = 0;
+        var end = postingsStart + offsets[i + 1] - (frequencies ? counts[i] : 0);
+        if (types[i] == 0) {
+            for (; k < files.length; k++) {
+                fileIdx += readVarint(r);
+                files[k] = fileIdx;
+            }
+        } else {
+            var first = readVarint(r);
+            for (var p = r.pos; p < end; p++) {
+                for (var bit = 0; bit < 8; bit++) {
+                    if (bytes[p] & (1 << bit)) {
+                        files[k++] = first + (p - r.pos) * 8 + bit;
+                    }
+                }
+            }
+        }
+        if (frequencies) {
+            for (k = 0; k < files.length; k++) {
+                files[k] += ":" + bytes[end + k];
+            }
+        }
+        return files.join(",");
+    }
+
+    return {
+        // Loads the index file and calls callback(true) when the index can be used.
+        load: function (callback) {
+            var xhr = new XMLHttpRequest();
+            xhr.open("GET", indexUrl, true);
+            xhr.responseType = "arraybuffer";
+            xhr.onload = function () {
+                var ok = (xhr.status == 200 || xhr.status == 0) && xhr.response;
+                if (ok) {
+                    try {
+                        decode(xhr.response);
+                    } catch (e) {
+                        // Damaged or outdated index file, e.g. of an older format version
+                        bytes = terms = null;
+                        ok = false;
+                    }
+                }
+                callback(!!ok);
+            };
+            xhr.onerror = function () {
+                callback(false);
+            };
+            xhr.send();
+        },
+        isLoaded: function () {
+            return terms != null;
+        },
+        get: function (term) {
+            var i = find(term);
+            return (i < 0) ? undefined : postings(i);
+        },
+        // Returns the sorted words of the index.
+        terms: function () {
+            return terms;
+        },
+        // Adds all words to the given object, e.g. w, in the format of the index-N.js files.
+        fill: function (w) {
+            for (var i = 0; i < terms.length; i++) {
+                w[terms[i]] = postings(i);
+            }
+        }
+    };
+})();
@@ -0,0 +1,73 @@
+//Auto generated decoder of the front coded index files.
+//Load this file before the index files, which call fci.add().
+//fci.get("word") returns the comma separated file numbers, like w["word"] of uncompressed index files.
+var fci = (function () {
+    // One part per loaded index file: the restart words, the blocks and the file lists
+    var parts = [];
+
+    // Returns the words of a block: the restart word followed by the front coded words
+    function decodeBlock(part, b) {
+        var words = [part.restarts[b]];
+        var block = part.blocks[b];
+        if (block.length == 0) {
+            return words;
+        }
+        var entries = block.split(" "), prev = words[0];
+        for (var i = 0; i < entries.length; i++) {
+            prev = prev.substring(0, entries[i].charCodeAt(0) - 48) + entries[i].substring(1);
+            words.push(prev);
+        }
+        return words;
+    }
+
+    function find(part, term) {
+        var restarts = part.restarts;
+        if (restarts.length == 0 || term < restarts[0]) {
+            return undefined;
+        }
+        // Last restart word <= term
+        var lo = 0, hi = restarts.length - 1, mid;
+        while (lo < hi) {
+            mid = (lo + hi + 1) >> 1;
+            if (restarts[mid] <= term) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        var words = decodeBlock(part, lo);
+        for (var i = 0; i < words.length; i++) {
+            if (words[i] == term) {
+                return part.postings[lo].split(" ")[i];
+            }
+        }
+        return undefined;
+    }
+
+    return {
+        add: function (restarts, blocks, postings) {
+            parts.push({restarts: restarts, blocks: blocks, postings: postings});
+        },
+        get: function (term) {
+            for (var i = 0; i < parts.length; i++) {
+                var files = find(parts[i], term);
+                if (files !== undefined) {
+                    return files;
+                }
+            }
+            return undefined;
+        },
+        // Adds all words of the loaded index files to the given object, e.g. w.
+        fill: function (w) {
+            for (var i = 0; i < parts.length; i++) {
+                for (var b = 0; b < parts[i].blocks.length; b++) {
+                    var words = decodeBlock(parts[i], b);
+                    var files = parts[i].postings[b].split(" ");
+                    for (var k = 0; k < words.length; k++) {
+                        w[words[k]] = files[k];
+                    }
+                }
+            }
+        }
+    };
+})();
@@ -0,0 +1,93 @@
+//Loads the index files containing the words of a query, using the routing table irt.
+//Usage: indexRouter.load(["word1", "word2"], function () { ... w["word1"] ... });
+var indexRouter = (function () {
+    // Loaded files are true, files being loaded have the list of waiting callbacks
+    var state = {};
+
+    // The index files are located in the directory of this script
+    var scripts = document.getElementsByTagName("script");
+    var scriptSrc = scripts.length > 0 ? scripts[scripts.length - 1].src : "";
+    var baseUrl = scriptSrc.substring(0, scriptSrc.lastIndexOf("/") + 1);
+
+    // Same ranges as WriteJSFiles.isCJKCodePoint
+    function isCJK(cp) {
+        return (cp >= 0x2E80 && cp <= 0x9FFF) || (cp >= 0xAC00 && cp <= 0xD7AF) ||
+               (cp >= 0x1100 && cp <= 0x11FF) || (cp >= 0xF900 && cp <= 0xFAFF) ||
+               (cp >= 0xFF66 && cp <= 0xFF9F) || (cp >= 0x20000 && cp <= 0x3FFFF);
+    }
+
+    function codePointAt(s, i) {
+        var c = s.charCodeAt(i), d;
+        if (c >= 0xD800 && c <= 0xDBFF && i + 1 < s.length) {
+            d = s.charCodeAt(i + 1);
+            if (d >= 0xDC00 && d <= 0xDFFF) {
+                return (c - 0xD800) * 0x400 + (d - 0xDC00) + 0x10000;
+            }
+        }
+        return c;
+    }
+
+    // Returns the group of a word, like WriteJSFiles.prefixKey
+    function key(term) {
+        if (term.length == 0) {
+            return term;
+        }
+        var cp = codePointAt(term, 0);
+        if (isCJK(cp)) {
+            return "#" + (cp >>> 8).toString(16);
+        }
+        var folded = term.toLowerCase(), end = 0;
+        for (var n = 0; n < indexPrefixLength && end < folded.length; n++) {
+            end += (codePointAt(folded, end) > 0xFFFF) ? 2 : 1;
+        }
+        return folded.substring(0, end);
+    }
+
+    function loadScript(file) {
+        var script = document.createElement("script");
+        script.src = baseUrl + file;
+        script.onload = script.onerror = function (event) {
+            var waiting = state[file];
+            if (event && event.type == "error") {
+                delete state[file];  // load again on the next query
+            } else {
+                state[file] = true;
+            }
+            for (var i = 0; i < waiting.length; i++) {
+                waiting[i]();
+            }
+        };
+        document.getElementsByTagName("head")[0].appendChild(script);
+    }
+
+    return {
+        key: key,
+        // Returns the index file containing the word, or undefined if no word has its prefix.
+        file: function (term) {
+            return irt[key(term)];
+        },
+        // Loads the index files of the words and calls callback() when they are loaded.
+        load: function (terms, callback) {
+            var pending = 1;
+            function finished() {
+                if (--pending == 0) {
+                    callback();
+                }
+            }
+            for (var i = 0; i < terms.length; i++) {
+                var file = irt[key(terms[i])];
+                if (file === undefined || state[file] === true) {
+                    continue;
+                }
+                pending++;
+                if (state[file]) {
+                    state[file].push(finished);
+                } else {
+                    state[file] = [finished];
+                    loadScript(file);
+                }
+            }
+            finished();
+        }
+    };
+})();
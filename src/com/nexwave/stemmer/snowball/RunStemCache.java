@@ -0,0 +1,134 @@
+package com.nexwave.stemmer.snowball;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The stem cache of one indexing run.
+ * <p>
+ * The words are stemmed through the {@link StemCache} shared by all runs
+ * with the same language. Optionally, the run attaches its own
+ * {@link StemDictionary}, which is consulted in front of the shared cache.
+ * Each word of the run which is not contained in the dictionary file is
+ * added to the dictionary, also if its stem was found in the shared cache,
+ * so that the saved dictionary is complete even if the shared cache has
+ * been filled by previous runs in the same JVM. Concurrent runs with the
+ * same language share the cache, but never see the dictionary of another
+ * run.
+ * <p>
+ * The hit and miss counts refer to this run only.
+ *
+ * @version 1.0
+ */
+public class RunStemCache {
+
+    private final StemCache sharedCache;
+    private volatile StemDictionary dictionary = null;
+
+    // Stems of the words of this run, while a dictionary is attached
+    private final Map<String, String> runWords = new ConcurrentHashMap<String, String>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder dictionaryHits = new LongAdder();
+
+    /**
+     * @param sharedCache the cache shared by the runs with the same language
+     */
+    public RunStemCache(StemCache sharedCache) {
+        this.sharedCache = sharedCache;
+    }
+
+    /**
+     * Attaches the persistent dictionary of this run (null to detach the
+     * dictionary). Has to be called before the first word is stemmed, or
+     * after the last one.
+     */
+    public void setDictionary(StemDictionary dictionary) {
+        this.dictionary = dictionary;
+        runWords.clear();
+    }
+
+    public StemDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Returns the stem of the given word. The word is looked up in the
+     * dictionary of this run and in the shared cache, and is stemmed with
+     * the given stemmer if it is found in neither of them.
+     * The word has to be trimmed and in lower case already.
+     */
+    public String stem(String word, SnowballStemmer stemmer) {
+        StemDictionary dict = dictionary;
+        String result;
+        if (dict != null) {
+            result = runWords.get(word);
+            if (result != null) {
+                hits.increment();
+                return result;
+            }
+            result = dict.lookup(word);
+            if (result != null) {
+                misses.increment();
+                dictionaryHits.increment();
+                runWords.put(word, result);
+                sharedCache.put(word, result);
+                return result;
+            }
+        }
+        result = sharedCache.get(word);
+        if (result != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            result = StemCache.stem(stemmer, word);
+            sharedCache.put(word, result);
+        }
+        if ((dict != null) && (runWords.putIfAbsent(word, result) == null)) {
+            dict.add(word, result);
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link SnowballStemmer#doStem(String[])}, but takes the stems
+     * from the caches where possible.
+     */
+    public String[] doStem(String[] words, SnowballStemmer stemmer) {
+        String[] stemmedWords = new String[words.length];
+        for (int i = 0; i < words.length; i++) {
+            stemmedWords[i] = stem(words[i].trim().toLowerCase(), stemmer);
+        }
+        return stemmedWords;
+    }
+
+    /**
+     * Returns the number of words of this run found in the dictionary of
+     * the run (after their first occurrence) or in the shared cache.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of cache misses of this run which have been
+     * resolved by the dictionary.
+     */
+    public long getDictionaryHitCount() {
+        return dictionaryHits.sum();
+    }
+
+    public String toString() {
+        long h = getHitCount();
+        long total = h + getMissCount();
+        return "hits " + h + ", misses " + (total - h) +
+               ((total > 0) ? ", hit rate " + (h * 100 / total) + "%" : "") +
+               ((dictionary != null) ? ", dictionary hits " + getDictionaryHitCount() : "");
+    }
+}
@@ -2,11 +2,21 @@
 package com.nexwave.stemmer.snowball;
 import java.lang.reflect.InvocationTargetException;
 
+/**
+ * Runtime of the snowball stemmers.
+ * <p>
+ * The word being stemmed is kept in a char array that is reused for all
+ * words stemmed by the same instance. The word can be passed as String
+ * or as range of a caller-provided char array, and the result can be 
+ * retrieved as String or copied into a caller-provided char array.
+ */
 public class SnowballProgram {
+    private static final char[] EMPTY = new char[0];
+
     protected SnowballProgram()
     {
-	current = new StringBuffer();
-	setCurrent("");
+	current = new char[8];
+	setCurrent(EMPTY, 0, 0);
     }
 
     /**
@@ -14,32 +24,79 @@ public class SnowballProgram {
      */
     public void setCurrent(String value)
     {
-	current.replace(0, current.length(), value);
+	int len = value.length();
+	ensureCapacity(len);
+	value.getChars(0, len, current, 0);
+	initCurrent(len);
+    }
+
+    /**
+     * Set the current string to the given characters. The characters
+     * are copied, so the array may be reused by the caller.
+     */
+    public void setCurrent(char[] text, int offset, int length)
+    {
+	ensureCapacity(length);
+	System.arraycopy(text, offset, current, 0, length);
+	initCurrent(length);
+    }
+
+    private void initCurrent(int len)
+    {
+	length = len;
 	cursor = 0;
-	limit = current.length();
+	limit = len;
 	limit_backward = 0;
 	bra = cursor;
 	ket = limit;
     }
 
+    private void ensureCapacity(int len)
+    {
+	if (len > current.length) {
+	    char[] newBuf = new char[Math.max(len, current.length * 2)];
+	    System.arraycopy(current, 0, newBuf, 0, length);
+	    current = newBuf;
+	}
+    }
+
     /**
      * Get the current string.
      */
     public String getCurrent()
     {
-        String result = current.toString();
-        // Make a new StringBuffer.  If we reuse the old one, and a user of
-        // the library keeps a reference to the buffer returned (for example,
-        // by converting it to a String in a way which doesn't force a copy),
-        // the buffer size will not decrease, and we will risk wasting a large
-        // amount of memory.
-        // Thanks to Wolfram Esser for spotting this problem.
-        current = new StringBuffer();
-        return result;
+        return new String(current, 0, length);
+    }
+
+    /**
+     * Copies the current string into the given array.
+     * @return the number of characters copied
+     * @throws IndexOutOfBoundsException if the array is too small
+     */
+    public int getCurrent(char[] dest, int offset)
+    {
+	System.arraycopy(current, 0, dest, offset, length);
+	return length;
+    }
+
+    /**
+     * Returns the buffer holding the current string. The buffer is only
+     * valid until the next word is stemmed. The valid characters are
+     * given by {@link #getCurrentBufferLength()}.
+     */
+    public char[] getCurrentBuffer()
+    {
+	return current;
+    }
+
+    public int getCurrentBufferLength()
+    {
+	return length;
     }
 
     // current string
-    protected StringBuffer current;
+    private char[] current;
+    private int length;
 
     protected int cursor;
     protected int limit;
@@ -50,6 +107,7 @@ public class SnowballProgram {
     protected void copy_from(SnowballProgram other)
     {
 	current          = other.current;
+	length           = other.length;
 	cursor           = other.cursor;
 	limit            = other.limit;
 	limit_backward   = other.limit_backward;
@@ -60,7 +118,7 @@ public class SnowballProgram {
     protected boolean in_grouping(char [] s, int min, int max)
     {
 	if (cursor >= limit) return false;
-	char ch = current.charAt(cursor);
+	char ch = current[cursor];
 	if (ch > max || ch < min) return false;
 	ch -= min;
 	if ((s[ch >> 3] & (0X1 << (ch & 0X7))) == 0) return false;
@@ -71,7 +129,7 @@ public class SnowballProgram {
     protected boolean in_grouping_b(char [] s, int min, int max)
     {
 	if (cursor <= limit_backward) return false;
-	char ch = current.charAt(cursor - 1);
+	char ch = current[cursor - 1];
 	if (ch > max || ch < min) return false;
 	ch -= min;
 	if ((s[ch >> 3] & (0X1 << (ch & 0X7))) == 0) return false;
@@ -82,7 +140,7 @@ public class SnowballProgram {
     protected boolean out_grouping(char [] s, int min, int max)
     {
 	if (cursor >= limit) return false;
-	char ch = current.charAt(cursor);
+	char ch = current[cursor];
 	if (ch > max || ch < min) {
 	    cursor++;
 	    return true;
@@ -98,7 +156,7 @@ public class SnowballProgram {
     protected boolean out_grouping_b(char [] s, int min, int max)
     {
 	if (cursor <= limit_backward) return false;
-	char ch = current.charAt(cursor - 1);
+	char ch = current[cursor - 1];
 	if (ch > max || ch < min) {
 	    cursor--;
 	    return true;
@@ -114,7 +172,7 @@ public class SnowballProgram {
     protected boolean in_range(int min, int max)
     {
 	if (cursor >= limit) return false;
-	char ch = current.charAt(cursor);
+	char ch = current[cursor];
 	if (ch > max || ch < min) return false;
 	cursor++;
 	return true;
@@ -123,7 +181,7 @@ public class SnowballProgram {
     protected boolean in_range_b(int min, int max)
     {
 	if (cursor <= limit_backward) return false;
-	char ch = current.charAt(cursor - 1);
+	char ch = current[cursor - 1];
 	if (ch > max || ch < min) return false;
 	cursor--;
 	return true;
@@ -132,7 +190,7 @@ public class SnowballProgram {
     protected boolean out_range(int min, int max)
     {
 	if (cursor >= limit) return false;
-	char ch = current.charAt(cursor);
+	char ch = current[cursor];
 	if (!(ch > max || ch < min)) return false;
 	cursor++;
 	return true;
@@ -141,7 +199,7 @@ public class SnowballProgram {
     protected boolean out_range_b(int min, int max)
     {
 	if (cursor <= limit_backward) return false;
-	char ch = current.charAt(cursor - 1);
+	char ch = current[cursor - 1];
 	if(!(ch > max || ch < min)) return false;
 	cursor--;
 	return true;
@@ -152,7 +210,7 @@ public class SnowballProgram {
 	if (limit - cursor < s_size) return false;
 	int i;
 	for (i = 0; i != s_size; i++) {
-	    if (current.charAt(cursor + i) != s.charAt(i)) return false;
+	    if (current[cursor + i] != s.charAt(i)) return false;
 	}
 	cursor += s_size;
 	return true;
@@ -163,7 +221,7 @@ public class SnowballProgram {
 	if (cursor - limit_backward < s_size) return false;
 	int i;
 	for (i = 0; i != s_size; i++) {
-	    if (current.charAt(cursor - s_size + i) != s.charAt(i)) return false;
+	    if (current[cursor - s_size + i] != s.charAt(i)) return false;
 	}
 	cursor -= s_size;
 	return true;
@@ -171,11 +229,24 @@ public class SnowballProgram {
 
     protected boolean eq_v(CharSequence s)
     {
-	return eq_s(s.length(), s.toString());
+	int s_size = s.length();
+	if (limit - cursor < s_size) return false;
+	for (int i = 0; i != s_size; i++) {
+	    if (current[cursor + i] != s.charAt(i)) return false;
+	}
+	cursor += s_size;
+	return true;
     }
 
     protected boolean eq_v_b(CharSequence s)
-    {   return eq_s_b(s.length(), s.toString());
+    {
+	int s_size = s.length();
+	if (cursor - limit_backward < s_size) return false;
+	for (int i = 0; i != s_size; i++) {
+	    if (current[cursor - s_size + i] != s.charAt(i)) return false;
+	}
+	cursor -= s_size;
+	return true;
     }
 
     protected int find_among(Among v[], int v_size)
@@ -202,7 +273,7 @@ public class SnowballProgram {
 		    diff = -1;
 		    break;
 		}
-		diff = current.charAt(c + common) - w.s[i2];
+		diff = current[c + common] - w.s[i2];
 		if (diff != 0) break;
 		common++;
 	    }
@@ -275,7 +346,7 @@ public class SnowballProgram {
 		    diff = -1;
 		    break;
 		}
-		diff = current.charAt(c - 1 - common) - w.s[i2];
+		diff = current[c - 1 - common] - w.s[i2];
 		if (diff != 0) break;
 		common++;
 	    }
@@ -322,10 +393,18 @@ public class SnowballProgram {
     /* to replace chars between c_bra and c_ket in current by the
      * chars in s.
      */
-    protected int replace_s(int c_bra, int c_ket, String s)
+    protected int replace_s(int c_bra, int c_ket, CharSequence s)
     {
-	int adjustment = s.length() - (c_ket - c_bra);
-	current.replace(c_bra, c_ket, s);
+	int s_len = s.length();
+	int adjustment = s_len - (c_ket - c_bra);
+	if (adjustment != 0) {
+	    ensureCapacity(length + adjustment);
+	    System.arraycopy(current, c_ket, current, c_bra + s_len, length - c_ket);
+	    length += adjustment;
+	}
+	for (int i = 0; i < s_len; i++) {
+	    current[c_bra + i] = s.charAt(i);
+	}
 	limit += adjustment;
 	if (cursor >= c_ket) cursor += adjustment;
 	else if (cursor > c_bra) cursor = c_bra;
@@ -337,7 +416,7 @@ public class SnowballProgram {
 	if (bra < 0 ||
 	    bra > ket ||
 	    ket > limit ||
-	    limit > current.length())   // this line could be removed
+	    limit > length)   // this line could be removed
 	{
 	    System.err.println("faulty slice operation");
 	// FIXME: report error somehow.
@@ -357,7 +436,8 @@ public class SnowballProgram {
 
     protected void slice_from(CharSequence s)
     {
-        slice_from(s.toString());
+	slice_check();
+	replace_s(bra, ket, s);
     }
 
     protected void slice_del()
@@ -374,15 +454,17 @@ public class SnowballProgram {
 
     protected void insert(int c_bra, int c_ket, CharSequence s)
     {
-	insert(c_bra, c_ket, s.toString());
+	int adjustment = replace_s(c_bra, c_ket, s);
+	if (c_bra <= bra) bra += adjustment;
+	if (c_bra <= ket) ket += adjustment;
     }
 
     /* Copy the slice into the supplied StringBuffer */
     protected StringBuffer slice_to(StringBuffer s)
     {
 	slice_check();
-	int len = ket - bra;
-	s.replace(0, s.length(), current.substring(bra, ket));
+	s.setLength(0);
+	s.append(current, bra, ket - bra);
 	return s;
     }
 
@@ -390,20 +472,22 @@ public class SnowballProgram {
     protected StringBuilder slice_to(StringBuilder s)
     {
 	slice_check();
-	int len = ket - bra;
-	s.replace(0, s.length(), current.substring(bra, ket));
+	s.setLength(0);
+	s.append(current, bra, ket - bra);
 	return s;
     }
 
     protected StringBuffer assign_to(StringBuffer s)
     {
-	s.replace(0, s.length(), current.substring(0, limit));
+	s.setLength(0);
+	s.append(current, 0, limit);
 	return s;
     }
 
     protected StringBuilder assign_to(StringBuilder s)
     {
-	s.replace(0, s.length(), current.substring(0, limit));
+	s.setLength(0);
+	s.append(current, 0, limit);
 	return s;
     }
 
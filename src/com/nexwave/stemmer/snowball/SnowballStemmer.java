@@ -4,6 +4,22 @@ import java.lang.reflect.InvocationTargetException;
 
 public abstract class SnowballStemmer extends SnowballProgram {
     public abstract boolean stem();
+
+    /**
+     * Stems the given characters and copies the stem into dest.
+     * No objects are allocated, unless the internal buffer has to grow.
+     * @param word array containing the word to be stemmed
+     * @param offset start of the word
+     * @param length length of the word
+     * @param dest receives the stem (must be large enough for the stem)
+     * @param destOffset position of the stem in dest
+     * @return length of the stem
+     */
+    public int stem(char[] word, int offset, int length, char[] dest, int destOffset) {
+        setCurrent(word, offset, length);
+        stem();
+        return getCurrent(dest, destOffset);
+    }
     
     /**
      * Do stemming of a given String array and returns the stemmed set of words as an array.
@@ -0,0 +1,181 @@
+package com.nexwave.stemmer.snowball;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of the stems computed by the snowball stemmers.
+ * <p>
+ * There is one shared cache per language (see {@link #getInstance(String)}).
+ * The entries are distributed over several segments, each of which is an
+ * access ordered map with least-recently-used eviction, so that threads
+ * stemming different words rarely block each other.
+ * <p>
+ * The cache is shared by concurrent runs. Therefore the persistent
+ * {@link StemDictionary} of a run is not attached to this cache, but to
+ * the {@link RunStemCache} of the run.
+ *
+ * @version 1.0
+ */
+public class StemCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 200000;
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private static final Map<String, StemCache> CACHES = new ConcurrentHashMap<String, StemCache>();
+
+    private final Segment[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates a cache.
+     * @param maxEntries maximum number of words kept in the cache
+     */
+    public StemCache(int maxEntries) {
+        int segmentSize = Math.max(1, maxEntries / SEGMENT_COUNT);
+        segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+    }
+
+    /**
+     * Returns the shared cache for the given language.
+     */
+    public static StemCache getInstance(String language) {
+        String key = language.toLowerCase(Locale.ENGLISH);
+        StemCache cache = CACHES.get(key);
+        if (cache == null) {
+            synchronized (CACHES) {
+                cache = CACHES.get(key);
+                if (cache == null) {
+                    cache = new StemCache(DEFAULT_MAX_ENTRIES);
+                    CACHES.put(key, cache);
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the stem of the given word. If the word is not in the cache,
+     * it is stemmed with the given stemmer and added to the cache.
+     * The word has to be trimmed and in lower case already.
+     */
+    public String stem(String word, SnowballStemmer stemmer) {
+        String result = get(word);
+        if (result == null) {
+            result = stem(stemmer, word);
+            put(word, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the cached stem of the given word, or null if the word is not
+     * in the cache. The lookup is counted as a hit or a miss.
+     */
+    public String get(String word) {
+        Segment seg = segment(word);
+        String result;
+        synchronized (seg) {
+            result = seg.get(word);
+        }
+        if (result != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Adds the stem of the given word to the cache.
+     */
+    public void put(String word, String stem) {
+        Segment seg = segment(word);
+        synchronized (seg) {
+            seg.put(word, stem);
+        }
+    }
+
+    /**
+     * Stems the given word with the stemmer, without using a cache.
+     */
+    static String stem(SnowballStemmer stemmer, String word) {
+        stemmer.setCurrent(word);
+        stemmer.stem();
+        return stemmer.getCurrent();
+    }
+
+    private Segment segment(String word) {
+        return segments[(word.hashCode() & 0x7FFFFFFF) % SEGMENT_COUNT];
+    }
+
+    /**
+     * Same as {@link SnowballStemmer#doStem(String[])}, but takes the stems
+     * from the cache where possible.
+     */
+    public String[] doStem(String[] words, SnowballStemmer stemmer) {
+        String[] stemmedWords = new String[words.length];
+        for (int i = 0; i < words.length; i++) {
+            stemmedWords[i] = stem(words[i].trim().toLowerCase(), stemmer);
+        }
+        return stemmedWords;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public int size() {
+        int cnt = 0;
+        for (Segment seg : segments) {
+            synchronized (seg) {
+                cnt += seg.size();
+            }
+        }
+        return cnt;
+    }
+
+    public void clear() {
+        for (Segment seg : segments) {
+            synchronized (seg) {
+                seg.clear();
+            }
+        }
+        hits.reset();
+        misses.reset();
+    }
+
+    public String toString() {
+        long h = getHitCount();
+        long total = h + getMissCount();
+        return "hits " + h + ", misses " + (total - h) +
+               ((total > 0) ? ", hit rate " + (h * 100 / total) + "%" : "");
+    }
+
+    private static class Segment extends LinkedHashMap<String, String> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        Segment(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package com.nexwave.stemmer.snowball;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent dictionary of the stems computed in previous runs.
+ * <p>
+ * The dictionary file contains the (word, stem) pairs sorted by the UTF-8
+ * bytes of the word. The pairs are stored in blocks of {@link #BLOCK_SIZE}
+ * entries. Within a block, each word is front-coded against the previous
+ * word and each stem against its word. An offset table allows a binary
+ * search over the first words of the blocks. The file is read into memory
+ * when the dictionary is opened. It is not memory-mapped, because a mapped
+ * file cannot be replaced on Windows until the mapping is garbage collected.
+ * <p>
+ * Words stemmed during a run are collected with {@link #add(String, String)}
+ * and merged into the file by {@link #save()}. The new file is written to
+ * a temporary file with a unique name, which then replaces the dictionary
+ * by an atomic move, so that processes sharing the cache directory never
+ * see a missing or partly written dictionary.
+ * <p>
+ * The file name contains the language; the file header contains an
+ * identifier of the stemmer class. A dictionary written by a different
+ * version of the stemmer is ignored and replaced on the next save.
+ *
+ * @version 1.0
+ */
+public class StemDictionary {
+
+    public static final int BLOCK_SIZE = 16;
+
+    private static final int MAGIC = 0x44575344;  // "DWSD"
+    private static final int VERSION = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Comparator<byte[][]> ENTRY_ORDER = new Comparator<byte[][]>() {
+        public int compare(byte[][] e1, byte[][] e2) {
+            return compareBytes(e1[0], 0, e1[0].length, e2[0]);
+        }
+    };
+
+    private final File file;
+    private final String stemmerId;
+    private final Map<String, String> newEntries = new ConcurrentHashMap<String, String>();
+
+    // Content of the file (null if no valid file exists)
+    private ByteBuffer data = null;
+    private int entryCount = 0;
+    private int blockCount = 0;
+    private int offsetTable = 0;   // position of the block offsets
+    private int blockStart = 0;    // position of the first block
+
+    private StemDictionary(File file, String stemmerId) {
+        this.file = file;
+        this.stemmerId = stemmerId;
+    }
+
+    /**
+     * Opens the dictionary of the given language in the cache directory.
+     * If no dictionary exists or it was created by a different version
+     * of the stemmer, an empty dictionary is returned.
+     */
+    public static StemDictionary open(File cacheDir, String language, SnowballStemmer stemmer) {
+        String lang = language.toLowerCase(Locale.ENGLISH);
+        File f = new File(cacheDir, "stems_" + lang + ".dict");
+        StemDictionary dict = new StemDictionary(f, getStemmerId(stemmer.getClass()));
+        if (f.exists()) {
+            try {
+                dict.load(ByteBuffer.wrap(Files.readAllBytes(f.toPath())));
+            } catch (Exception ex) {
+                System.out.println("Failed to read stem dictionary " + f + ": " + ex.getMessage());
+                dict.data = null;
+                dict.entryCount = 0;
+            }
+        }
+        return dict;
+    }
+
+    /**
+     * Returns an identifier of the stemmer class, consisting of the class
+     * name and a checksum of the class file.
+     */
+    static String getStemmerId(Class<?> cls) {
+        String name = cls.getName();
+        CRC32 crc = new CRC32();
+        InputStream in = cls.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class");
+        if (in != null) {
+            try {
+                byte[] buf = new byte[8192];
+                int cnt;
+                while ((cnt = in.read(buf)) >= 0) {
+                    crc.update(buf, 0, cnt);
+                }
+            } catch (IOException ex) {
+                // use the name only
+            } finally {
+                try { in.close(); } catch (IOException ex) {}
+            }
+        }
+        return name + "/" + Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Uses the given content of a dictionary file, if it has been written
+     * by the same version of the stemmer.
+     */
+    private void load(ByteBuffer buf) {
+        data = null;
+        entryCount = 0;
+        if ((buf.getInt() != MAGIC) || (buf.getInt() != VERSION)) {
+            return;
+        }
+        byte[] id = new byte[buf.getShort() & 0xFFFF];
+        buf.get(id);
+        if (! stemmerId.equals(new String(id, UTF8))) {
+            return;
+        }
+        entryCount = buf.getInt();
+        blockCount = buf.getInt();
+        offsetTable = buf.position();
+        blockStart = offsetTable + blockCount * 4;
+        data = buf;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the number of words stored in the dictionary file.
+     */
+    public int size() {
+        return entryCount;
+    }
+
+    /**
+     * Returns the number of words added since the dictionary was opened.
+     */
+    public int getNewCount() {
+        return newEntries.size();
+    }
+
+    /**
+     * Returns the stem of the given word, or null if the word is not
+     * contained in the dictionary file.
+     */
+    public String lookup(String word) {
+        if (data == null) {
+            return null;
+        }
+        byte[] key = word.getBytes(UTF8);
+
+        // Find the last block whose first word is less or equal to key
+        int lo = 0;
+        int hi = blockCount - 1;
+        int block = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int pos = blockStart + data.getInt(offsetTable + mid * 4);
+            pos = skipVarInt(pos);                 // shared prefix (always 0)
+            int len = readVarInt(pos);
+            pos = skipVarInt(pos);
+            int cmp = compareBytes(key, pos, len);
+            if (cmp == 0) {
+                return readStem(pos + len, key);
+            } else if (cmp > 0) {
+                block = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (block < 0) {
+            return null;
+        }
+
+        // Scan the block
+        int pos = blockStart + data.getInt(offsetTable + block * 4);
+        int blockEnd = (block + 1 < blockCount) ? blockStart + data.getInt(offsetTable + (block + 1) * 4)
+                                                : data.limit();
+        byte[] cur = new byte[Math.max(32, key.length)];
+        while (pos < blockEnd) {
+            int shared = readVarInt(pos);
+            pos = skipVarInt(pos);
+            int suffix = readVarInt(pos);
+            pos = skipVarInt(pos);
+            if (shared + suffix > cur.length) {
+                cur = Arrays.copyOf(cur, shared + suffix);
+            }
+            for (int i = 0; i < suffix; i++) {
+                cur[shared + i] = data.get(pos + i);
+            }
+            pos += suffix;
+            int cmp = compareBytes(cur, 0, shared + suffix, key);
+            if (cmp == 0) {
+                return readStem(pos, key);
+            }
+            if (cmp > 0) {
+                return null;
+            }
+            pos = skipStem(pos);
+        }
+        return null;
+    }
+
+    /**
+     * Records a word stemmed during this run. The word is written to the
+     * dictionary file by the next call of save().
+     */
+    public void add(String word, String stem) {
+        newEntries.put(word, stem);
+    }
+
+    /**
+     * Merges the words added during this run into the dictionary file.
+     * Does nothing if no words have been added.
+     */
+    public void save() throws IOException {
+        if (newEntries.isEmpty()) {
+            return;
+        }
+        List<byte[][]> added = new ArrayList<byte[][]>(newEntries.size());
+        for (Map.Entry<String, String> e : newEntries.entrySet()) {
+            added.add(new byte[][] { e.getKey().getBytes(UTF8), e.getValue().getBytes(UTF8) });
+        }
+        added.sort(ENTRY_ORDER);
+        List<byte[][]> existing = readAll();
+
+        // Merge both sorted lists
+        List<byte[][]> merged = new ArrayList<byte[][]>(existing.size() + added.size());
+        int i = 0;
+        int k = 0;
+        while ((i < existing.size()) || (k < added.size())) {
+            int cmp;
+            if (i >= existing.size()) {
+                cmp = 1;
+            } else if (k >= added.size()) {
+                cmp = -1;
+            } else {
+                cmp = ENTRY_ORDER.compare(existing.get(i), added.get(k));
+            }
+            if (cmp < 0) {
+                merged.add(existing.get(i++));
+            } else {
+                merged.add(added.get(k++));
+                if (cmp == 0) i++;
+            }
+        }
+        write(merged);
+        newEntries.clear();
+    }
+
+    private List<byte[][]> readAll() {
+        List<byte[][]> list = new ArrayList<byte[][]>(entryCount);
+        if (data == null) {
+            return list;
+        }
+        int pos = blockStart;
+        int end = data.limit();
+        byte[] prev = new byte[0];
+        while (pos < end) {
+            int shared = readVarInt(pos);
+            pos = skipVarInt(pos);
+            int suffix = readVarInt(pos);
+            pos = skipVarInt(pos);
+            byte[] word = Arrays.copyOf(prev, shared + suffix);
+            for (int i = 0; i < suffix; i++) {
+                word[shared + i] = data.get(pos + i);
+            }
+            pos += suffix;
+            int stemShared = readVarInt(pos);
+            pos = skipVarInt(pos);
+            int stemSuffix = readVarInt(pos);
+            pos = skipVarInt(pos);
+            byte[] stem = Arrays.copyOf(word, stemShared + stemSuffix);
+            for (int i = 0; i < stemSuffix; i++) {
+                stem[stemShared + i] = data.get(pos + i);
+            }
+            pos += stemSuffix;
+            list.add(new byte[][] { word, stem });
+            prev = word;
+        }
+        return list;
+    }
+
+    private void write(List<byte[][]> entries) throws IOException {
+        int blocks = (entries.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int[] offsets = new int[blocks];
+        ByteArrayOutputStream blockData = new ByteArrayOutputStream(entries.size() * 12);
+        byte[] prev = null;
+        for (int i = 0; i < entries.size(); i++) {
+            byte[] word = entries.get(i)[0];
+            byte[] stem = entries.get(i)[1];
+            int shared = 0;
+            if (i % BLOCK_SIZE == 0) {
+                offsets[i / BLOCK_SIZE] = blockData.size();
+            } else {
+                shared = commonPrefix(prev, word);
+            }
+            writeVarInt(blockData, shared);
+            writeVarInt(blockData, word.length - shared);
+            blockData.write(word, shared, word.length - shared);
+            int stemShared = commonPrefix(word, stem);
+            writeVarInt(blockData, stemShared);
+            writeVarInt(blockData, stem.length - stemShared);
+            blockData.write(stem, stemShared, stem.length - stemShared);
+            prev = word;
+        }
+
+        File dir = file.getParentFile();
+        if ((dir != null) && !dir.exists()) {
+            dir.mkdirs();
+        }
+        byte[] id = stemmerId.getBytes(UTF8);
+        ByteArrayOutputStream content = new ByteArrayOutputStream(22 + id.length + blocks * 4 + blockData.size());
+        DataOutputStream out = new DataOutputStream(content);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeShort(id.length);
+        out.write(id);
+        out.writeInt(entries.size());
+        out.writeInt(blocks);
+        for (int off : offsets) {
+            out.writeInt(off);
+        }
+        blockData.writeTo(out);
+        byte[] bytes = content.toByteArray();
+
+        // Unique name: other processes may save the same dictionary concurrently
+        File tmpFile = File.createTempFile(file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            FileOutputStream fout = new FileOutputStream(tmpFile);
+            try {
+                fout.write(bytes);
+            } finally {
+                fout.close();
+            }
+            try {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            tmpFile.delete();
+            throw new IOException("Cannot replace stem dictionary " + file + ": " + ex.getMessage(), ex);
+        }
+        load(ByteBuffer.wrap(bytes));
+    }
+
+    private String readStem(int pos, byte[] key) {
+        int shared = readVarInt(pos);
+        pos = skipVarInt(pos);
+        int suffix = readVarInt(pos);
+        pos = skipVarInt(pos);
+        byte[] stem = Arrays.copyOf(key, shared + suffix);
+        for (int i = 0; i < suffix; i++) {
+            stem[shared + i] = data.get(pos + i);
+        }
+        return new String(stem, UTF8);
+    }
+
+    private int skipStem(int pos) {
+        pos = skipVarInt(pos);
+        int suffix = readVarInt(pos);
+        pos = skipVarInt(pos);
+        return pos + suffix;
+    }
+
+    private int readVarInt(int pos) {
+        int val = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data.get(pos++);
+            val |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return val;
+    }
+
+    private int skipVarInt(int pos) {
+        while (data.get(pos++) < 0) {
+            // continuation byte
+        }
+        return pos;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int val) {
+        while ((val & ~0x7F) != 0) {
+            out.write((val & 0x7F) | 0x80);
+            val >>>= 7;
+        }
+        out.write(val);
+    }
+
+    /**
+     * Compares key with the word of the given length stored at pos.
+     */
+    private int compareBytes(byte[] key, int pos, int len) {
+        int n = Math.min(key.length, len);
+        for (int i = 0; i < n; i++) {
+            int cmp = (key[i] & 0xFF) - (data.get(pos + i) & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return key.length - len;
+    }
+
+    private static int compareBytes(byte[] b1, int off1, int len1, byte[] b2) {
+        int n = Math.min(len1, b2.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (b1[off1 + i] & 0xFF) - (b2[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return len1 - b2.length;
+    }
+
+    private static int commonPrefix(byte[] b1, byte[] b2) {
+        int n = Math.min(b1.length, b2.length);
+        int i = 0;
+        while ((i < n) && (b1[i] == b2[i])) {
+            i++;
+        }
+        return i;
+    }
+}
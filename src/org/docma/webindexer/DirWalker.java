@@ -0,0 +1,173 @@
+/*
+ * DirWalker.java
+ */
+package org.docma.webindexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lists the files of a directory tree whose names match a regular
+ * expression. Replaces {@link com.nexwave.nsidita.DirList}.
+ * <p>
+ * The files are passed to a {@link FileHandler} while the tree is walked,
+ * together with their path relative to the root directory. The order is
+ * the same as for DirList: the files of a directory are listed before
+ * the files of its subdirectories. Like DirList, the walker skips the
+ * files index.html and ix01.html, and the subdirectories whose names
+ * contain a dot (e.g. hidden directories). There is no depth limit.
+ * Directories which are reached a second time through symbolic links
+ * are skipped.
+ *
+ * @author MP
+ */
+public class DirWalker
+{
+    /**
+     * Receives the files found by the walker.
+     */
+    public interface FileHandler
+    {
+        /**
+         * @param file the file
+         * @param relPath the path of the file relative to the root directory
+         */
+        void handleFile(File file, String relPath) throws IOException;
+    }
+
+    private final Path rootDir;
+    private final PathMatcher matcher;
+
+    /**
+     * @param rootDir the directory to walk
+     * @param regex the regular expression which the file names have to match
+     */
+    public DirWalker(File rootDir, String regex)
+    {
+        this.rootDir = rootDir.toPath();
+        this.matcher = FileSystems.getDefault().getPathMatcher("regex:" + regex);
+    }
+
+    public Path getRootDir()
+    {
+        return rootDir;
+    }
+
+    /**
+     * Walks the directory tree and passes each matching file to the handler.
+     */
+    public void walk(FileHandler handler) throws IOException
+    {
+        Set<Object> visited = new HashSet<Object>();
+        addVisited(visited, rootDir);
+        walk(rootDir, "", handler, visited);
+    }
+
+    /**
+     * Returns the matching files of the directory tree.
+     */
+    public ArrayList<File> listFiles() throws IOException
+    {
+        final ArrayList<File> files = new ArrayList<File>();
+        walk(new FileHandler() {
+            public void handleFile(File file, String relPath)
+            {
+                files.add(file);
+            }
+        });
+        return files;
+    }
+
+    /**
+     * Returns true if the given file is below the root directory and
+     * would be passed to the handler by {@link #walk(FileHandler)}, if it 
+     * exists. The file system is not accessed.
+     */
+    public boolean accepts(Path file)
+    {
+        if (!file.startsWith(rootDir) || file.equals(rootDir)) {
+            return false;
+        }
+        Path rel = rootDir.relativize(file);
+        for (int i = 0; i < rel.getNameCount() - 1; i++) {
+            if (rel.getName(i).toString().indexOf('.') >= 0) {
+                return false;
+            }
+        }
+        String name = file.getFileName().toString();
+        return !name.equals("index.html") && !name.equals("ix01.html") &&
+               matcher.matches(file.getFileName());
+    }
+
+    /**
+     * Returns the path of the given file relative to the root directory,
+     * as passed to the handler.
+     */
+    public String getRelativePath(Path file)
+    {
+        return rootDir.relativize(file).toString();
+    }
+
+    private void walk(Path dir, String relDir, FileHandler handler, Set<Object> visited) throws IOException
+    {
+        // Read the directory entries first, so that the handler is not 
+        // called while the directory is open
+        List<Path> files = new ArrayList<Path>();
+        List<Path> subDirs = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path p : stream) {
+                String name = p.getFileName().toString();
+                if (Files.isDirectory(p)) {
+                    if ((name.indexOf('.') < 0) && addVisited(visited, p)) {
+                        subDirs.add(p);
+                    }
+                } else if (!name.equals("index.html") && !name.equals("ix01.html") &&
+                           matcher.matches(p.getFileName())) {
+                    files.add(p);
+                }
+            }
+        } catch (IOException ex) {
+            if (relDir.length() == 0) {
+                throw ex;
+            }
+            System.out.println("Cannot read directory " + dir + ": " + ex.getMessage());
+            return;
+        } catch (DirectoryIteratorException ex) {
+            if (relDir.length() == 0) {
+                throw ex.getCause();
+            }
+            System.out.println("Cannot read directory " + dir + ": " + ex.getCause().getMessage());
+            return;
+        }
+
+        for (Path p : files) {
+            handler.handleFile(p.toFile(), relDir + p.getFileName().toString());
+        }
+        for (Path sub : subDirs) {
+            walk(sub, relDir + sub.getFileName().toString() + File.separator, handler, visited);
+        }
+    }
+
+    /**
+     * Returns false if the directory has already been visited.
+     */
+    private static boolean addVisited(Set<Object> visited, Path dir) throws IOException
+    {
+        Object key = Files.readAttributes(dir, BasicFileAttributes.class).fileKey();
+        if (key == null) {
+            key = dir.toRealPath();
+        }
+        return visited.add(key);
+    }
+}
@@ -10,20 +10,33 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Task;
 
 
-import com.nexwave.nsidita.DirList;
 import com.nexwave.nsidita.DocFileInfo;
 
-import com.nexwave.nquindexer.IndexerTask;
+import com.nexwave.nquindexer.GzipCompressor;
+import com.nexwave.nquindexer.IndexFileWriter;
+import com.nexwave.nquindexer.IndexingContext;
+import com.nexwave.nquindexer.OutputCompressor;
+import com.nexwave.nquindexer.PostingsList;
 import com.nexwave.nquindexer.SaxHTMLIndex;
 import com.nexwave.nquindexer.WriteJSFiles;
+import com.nexwave.stemmer.snowball.RunStemCache;
+import com.nexwave.stemmer.snowball.SnowballStemmer;
+import com.nexwave.stemmer.snowball.StemDictionary;
 
 /**
  *
@@ -31,12 +44,18 @@ import com.nexwave.nquindexer.WriteJSFiles;
  */
 public class DocmaWebIndexer extends Task
 {
+    /** Index format: javascript index files index-N.js (default). */
+    public static final String FORMAT_JS = "js";
+    /** Index format: binary index file index.bin with javascript decoder. */
+    public static final String FORMAT_BINARY = "binary";
+    /** Index format: javascript and binary index files. */
+    public static final String FORMAT_BOTH = "both";
+
     // messages
     private String txt_no_inputdir = "Input directory not found:";
     private String txt_cannot_create_outputdir = "Cannot create output search directory.";
     private String txt_no_files_found = "No html files found.";
     private String txt_wrong_dita_basedir = "ERROR: Parser initialization failed. Wrong dita base dir";
-    private String txt_no_relative_files_found= "No relative html files calculated.";
     private String txt_no_words_gathered= "No words have been indexed in";
     private String txt_no_html_files="No HTML Files found in";
     private String txt_no_args="No argument given: you must provide an htmldir to the IndexerTask";
@@ -49,14 +68,10 @@ public class DocmaWebIndexer extends Task
     // ANT parameters
     private String htmldir = null;
 
-    // See IndexerTask.indexerLanguage
-    // public static String indexerLanguage="en";
-
-    // supported languages: add new additions to this. don't include country codes to the end such as en_US or en_UK,
-    // as stemmers doesn't find a difference between them.
-    private String[] supportedLanguages= {"en", "de", "fr", "zh", "ja", "ko"}; 
-        // Currently extended support available for
-        // English, German, French and CJK (Chinese [zh], Japanese [ja], Korean [ko]) languages only.
+    // Language of the indexed files (see IndexingContext.normalizeLanguage). 
+    // Extended support is available for English, German, French and 
+    // CJK (Chinese [zh], Japanese [ja], Korean [ko]) languages only.
+    private String indexerLanguage = "en";
 
     // Indexing features: words to remove
     private ArrayList<String> cleanUpStrings = null;	
@@ -67,6 +82,47 @@ public class DocmaWebIndexer extends Task
 
     //Html extension
     private String htmlExtension = "html";
+
+    // Number of threads used to parse the html files (1 = sequential)
+    private int threads = 1;
+
+    // Reprocess only the files that changed since the last run
+    private boolean incremental = false;
+
+    // Directory of the persistent stem dictionaries (null = not used)
+    private String stemCacheDir = null;
+
+    // Number of index files, or maximum size of an index file (0 = use shardCount)
+    private int shardCount = WriteJSFiles.DEFAULT_SHARD_COUNT;
+    private long shardSize = 0;
+    private int shardPrefixLength = 0;
+    private int dictionaryBlockSize = 0;
+
+    // Number of bytes examined to determine the encoding of a file,
+    // and whether the encoding is determined only once per directory
+    private int encodingPrefixSize = EncodingSniffer.DEFAULT_PREFIX_SIZE;
+    private boolean encodingPerDirectory = false;
+
+    private String indexFormat = FORMAT_JS;
+
+    // Store the term frequencies and the number of words of each file
+    private boolean termFrequencies = false;
+
+    // Compressors creating compressed copies of the output files, or null
+    private ArrayList<OutputCompressor> compressors = null;
+
+    // Keep the index up to date after the run (see IndexWatcher)
+    private boolean watch = false;
+    private int watchDelay = IndexWatcher.DEFAULT_DELAY;
+    private ArrayList<Set<String>> watchTerms = null;
+    private ArrayList<Long> watchModTimes = null;
+
+    // Pool shared with other runs (see IndexerDaemon), or null
+    private ExecutorService workerPool = null;
+
+    // Result of the last run
+    private int fileCount = 0;
+    private int wordCount = 0;
     
     public DocmaWebIndexer()
     {
@@ -95,6 +151,179 @@ public class DocmaWebIndexer extends Task
         }
     }
 
+    /**
+     * Set the number of threads used to read, extract and stem the html files.
+     * A value of 1 (default) parses the files sequentially. A value less than
+     * 1 uses one thread per available processor.
+     * @param threads the number of worker threads
+     */
+    public void setThreads(int threads)
+    {
+        this.threads = (threads < 1) ? Runtime.getRuntime().availableProcessors() : threads;
+    }
+
+    /**
+     * Enable or disable incremental indexing. If enabled, a manifest of the
+     * indexed files is stored in the search directory. Following runs
+     * read and parse only the files that have been added or changed
+     * since the manifest has been written.
+     * @param incremental true to enable incremental indexing
+     */
+    public void setIncremental(boolean incremental)
+    {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Set the directory in which the stems computed during a run are
+     * stored. Following runs look up the words in this dictionary before
+     * invoking the stemmer. The dictionaries are kept per language.
+     * @param stemCacheDir the cache directory
+     */
+    public void setStemCacheDir(String stemCacheDir)
+    {
+        this.stemCacheDir = stemCacheDir;
+    }
+
+    /**
+     * Set the number of javascript index files (index-1.js, index-2.js, ...).
+     * The default is 3, which is the number of files loaded by the search 
+     * pages. The words are distributed so that the files have about the 
+     * same size.
+     * @param shardCount the number of index files
+     */
+    public void setShardCount(int shardCount)
+    {
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * Set the maximum size of a javascript index file in bytes. If set, 
+     * as many index files are created as required and the shard count
+     * is ignored. The file index-shards.js lists the created files.
+     * @param shardSize the maximum file size in bytes (0 to use the shard count)
+     */
+    public void setShardSize(long shardSize)
+    {
+        this.shardSize = shardSize;
+    }
+
+    /**
+     * Set the length of the word prefixes by which the javascript index files
+     * are partitioned. If 0 (default), the words are distributed 
+     * alphabetically over shardCount files (index-N.js). Otherwise each group
+     * of words with the same prefix is written to its own file, and the 
+     * routing table index-routes.js allows the search page to load only the
+     * files of the words of a query (see WriteJSFiles.WritePrefixIndex).
+     * @param shardPrefixLength the number of characters of the prefix, e.g. 2
+     */
+    public void setShardPrefixLength(int shardPrefixLength)
+    {
+        this.shardPrefixLength = shardPrefixLength;
+    }
+
+    /**
+     * Set the number of words per block of front coded javascript index 
+     * files. If 0 (default), each word is written as w["word"]="files";. 
+     * Otherwise the words are written front coded (only the characters which
+     * differ from the previous word), and the search page has to load 
+     * index-fcdecoder.js and look up the words with fci.get(word) 
+     * (see WriteJSFiles.writeFrontCoded).
+     * @param dictionaryBlockSize the number of words per block, e.g. 16
+     */
+    public void setDictionaryBlockSize(int dictionaryBlockSize)
+    {
+        this.dictionaryBlockSize = dictionaryBlockSize;
+    }
+
+    /**
+     * Enable or disable term frequencies for relevance ranking. If enabled,
+     * the index stores the number of occurrences of each word in each file
+     * (w["word"]="file:frequency,...", at most 255), and the number of words
+     * of each file is written to htmlFileTokenCounts.js, so that the search
+     * page can rank the results, e.g. by BM25. The binary index stores both
+     * as well. Default is false.
+     * @param termFrequencies
+     */
+    public void setTermFrequencies(boolean termFrequencies)
+    {
+        this.termFrequencies = termFrequencies;
+    }
+
+    /**
+     * Set the format of the index files: "js" (default) for the javascript
+     * index files index-N.js, "binary" for the compact binary index file
+     * index.bin and its javascript decoder index-decoder.js (see 
+     * WriteJSFiles.WriteBinaryIndex), or "both".
+     * @param indexFormat the index format
+     */
+    public void setIndexFormat(String indexFormat)
+    {
+        String format = indexFormat.trim().toLowerCase();
+        if (!format.equals(FORMAT_JS) && !format.equals(FORMAT_BINARY) && !format.equals(FORMAT_BOTH)) {
+            throw new BuildException("Invalid index format: " + indexFormat);
+        }
+        this.indexFormat = format;
+    }
+
+    /**
+     * Set the compressed copies of the output files which are written in
+     * addition to the files, e.g. index-1.js.gz, so that a web server can 
+     * deliver them without compressing the files on each request.
+     * The value is a comma separated list of "gzip" and names of classes
+     * implementing com.nexwave.nquindexer.OutputCompressor, or "none" 
+     * (default). Compressed copies left over from a previous run are deleted.
+     * @param compress the compressed formats
+     */
+    public void setCompress(String compress)
+    {
+        ArrayList<OutputCompressor> list = new ArrayList<OutputCompressor>();
+        for (String name : compress.split(",")) {
+            name = name.trim();
+            if (name.equals("") || name.equalsIgnoreCase("none")) {
+                continue;
+            }
+            if (name.equalsIgnoreCase("gzip")) {
+                list.add(new GzipCompressor());
+                continue;
+            }
+            try {
+                // Not initialized before it is known to be a compressor
+                Class<?> cls = Class.forName(name, false, getClass().getClassLoader());
+                if (!OutputCompressor.class.isAssignableFrom(cls)) {
+                    throw new BuildException("Class " + name + " does not implement OutputCompressor");
+                }
+                list.add((OutputCompressor) cls.getDeclaredConstructor().newInstance());
+            } catch (ReflectiveOperationException ex) {
+                throw new BuildException("Invalid compressor: " + name, ex);
+            }
+        }
+        this.compressors = list.isEmpty() ? null : list;
+    }
+
+    /**
+     * Set the number of bytes at the start of a file which are searched for
+     * the encoding declaration (byte order mark, XML declaration or meta tag).
+     * Only used if the encoding properties do not define the file encoding.
+     * @param encodingPrefixSize the number of bytes (default is 8 KB)
+     */
+    public void setEncodingPrefixSize(int encodingPrefixSize)
+    {
+        this.encodingPrefixSize = encodingPrefixSize;
+    }
+
+    /**
+     * Enable or disable the reuse of the encoding found in the first file 
+     * of a directory for the other files of the same directory. 
+     * The files exported by Docma into one directory have the same encoding.
+     * Disabled by default, because other html files may not.
+     * @param encodingPerDirectory true to determine the encoding once per directory
+     */
+    public void setEncodingPerDirectory(boolean encodingPerDirectory)
+    {
+        this.encodingPerDirectory = encodingPerDirectory;
+    }
+
     /**
      * setter for "indexerLanguage" attribute from ANT
      * @param indexerLanguage language for the search indexer. Used to differerentiate which stemmer to be used.
@@ -102,28 +331,57 @@ public class DocmaWebIndexer extends Task
      */
     public void setIndexerLanguage(String indexerLanguage)
     {
-        if (indexerLanguage != null && !"".equals(indexerLanguage)) {
-            int temp = indexerLanguage.indexOf('_');
-            if( temp != -1){
-                indexerLanguage = indexerLanguage.substring(0,temp);
-            }
-            int i=0;
-            for (;i<supportedLanguages.length;i++) {
-                if (indexerLanguage.equals(supportedLanguages[i])) {
-                    IndexerTask.indexerLanguage = supportedLanguages[i];
-                    break;
-                }
-            }
-            
-            //if not in supported language list,
-            if (i >= supportedLanguages.length) {
-                // System.out.println("The given language, \""+indexerLanguage+"\", does not have extensive support for " +
-                //                    "searching. Check documentation for details. ");
-                IndexerTask.indexerLanguage = indexerLanguage;
-            }
-        } else {
-            IndexerTask.indexerLanguage = "@@"; //fail-safe mechanism, This vm should not reach this point.
-        } 
+        this.indexerLanguage = IndexingContext.normalizeLanguage(indexerLanguage);
+    }
+
+    /**
+     * Enable or disable the watch mode. If enabled, the task does not
+     * return after the index has been written, but watches the html 
+     * directory and updates the index files whenever html files are 
+     * created, changed or deleted, until the process is terminated.
+     * @param watch true to enable the watch mode
+     */
+    public void setWatch(boolean watch)
+    {
+        this.watch = watch;
+    }
+
+    /**
+     * Set the time in milliseconds without file changes after which the
+     * index is updated in watch mode (default is 250).
+     * @param watchDelay the delay in milliseconds
+     */
+    public void setWatchDelay(int watchDelay)
+    {
+        this.watchDelay = watchDelay;
+    }
+
+    /**
+     * Set the pool on which the html files are parsed, instead of creating 
+     * a pool for each run. The pool is not shut down by this task.
+     * @param workerPool the pool shared with other runs
+     * @param poolThreads the number of threads of the pool
+     */
+    void setWorkerPool(ExecutorService workerPool, int poolThreads)
+    {
+        this.workerPool = workerPool;
+        this.threads = Math.max(1, poolThreads);
+    }
+
+    /**
+     * Returns the number of html files indexed by the last run.
+     */
+    public int getFileCount()
+    {
+        return fileCount;
+    }
+
+    /**
+     * Returns the number of words written by the last run.
+     */
+    public int getWordCount()
+    {
+        return wordCount;
     }
 
     /**
@@ -149,8 +407,7 @@ public class DocmaWebIndexer extends Task
         ArrayList<DocFileInfo> filesDescription = null; // list of information about the topic files
         ArrayList<File> htmlFiles = null; // topic files listed in the given directory
         ArrayList<String> htmlFilesPathRel = null;
-        Map<String, String> tempDico = new HashMap<String, String>(); 
-        Iterator it;
+        Map<String, PostingsList> tempDico = new HashMap<String, PostingsList>(); 
 
         //File name initialization
         String htmlList = "htmlFileList.js";
@@ -159,6 +416,8 @@ public class DocmaWebIndexer extends Task
 
         //timing
         Date dateStart = new Date();
+        fileCount = 0;
+        wordCount = 0;
 		
         if (htmldir == null) {
             System.out.println(txt_no_args + ".");
@@ -191,29 +450,14 @@ public class DocmaWebIndexer extends Task
             }
         }
 		
-        String inputPath = inputDir.getPath();
-        
         //end of init
 
 
-        // Get the list of all html files but the tocs, covers and indexes
-        DirList nsiDoc = new DirList(inputDir, "^.*\\." + htmlExtension + "?$", 1);
-        htmlFiles = nsiDoc.getListFiles();
-        // Check if found html files
-        if ((htmlFiles == null) || htmlFiles.isEmpty()) {
-            System.out.println(txt_no_html_files + " "+ inputDir + ".");
-            return;
-        }
-        // Get the list of all html files with relative paths 
-        htmlFilesPathRel = nsiDoc.getListFilesRelTo(inputPath);
-        if (htmlFilesPathRel == null) {
-            System.out.println(txt_no_relative_files_found);
-            return;			
-        }
-		
-        // Create the list of the existing html files (index starts at 0)
-        String htmlListPath = outputDir.concat(File.separator).concat(htmlList);
-        WriteJSFiles.WriteHTMLList(htmlListPath, htmlFilesPathRel);
+        // Walk the html files but the tocs, covers and indexes. The files
+        // are parsed while the directory tree is walked.
+        DirWalker htmlWalker = new DirWalker(inputDir, "^.*\\." + htmlExtension + "?$");
+        htmlFiles = new ArrayList<File>();
+        htmlFilesPathRel = new ArrayList<String>();
 
         // Parse each html file to retrieve the words:
         // ------------------------------------------
@@ -226,36 +470,67 @@ public class DocmaWebIndexer extends Task
         //create a default handler
         //SaxHTMLIndex spe = new SaxHTMLIndex (); // do not use clean-up props files
         //SaxHTMLIndex spe = new SaxHTMLIndex (cleanUpStrings); // use clean-up props files
-        FilesIndexer spe = new FilesIndexer(cleanUpStrings, cleanUpChars, encodingProps); // use clean-up props files
+        IndexingContext context = new IndexingContext(indexerLanguage, cleanUpStrings, cleanUpChars, 
+                                                      encodingProps, compressors, dictionaryBlockSize);
+        FilesIndexer spe = new FilesIndexer(context); // use clean-up props files
+        EncodingSniffer encodingSniffer = new EncodingSniffer(encodingPrefixSize, encodingPerDirectory);
+        spe.setEncodingSniffer(encodingSniffer);
+        spe.setTermFrequencies(termFrequencies);
 
         if ( spe.init(tempDico) == 0 ) {
 
             //create a html file description list
             filesDescription = new ArrayList <DocFileInfo> ();
 
-            it = htmlFiles.iterator ( ) ;
+            // Load the manifest of the previous run
+            File manifestFile = new File(outputDir, IndexManifest.MANIFEST_FILENAME);
+            IndexManifest oldManifest = null;
+            IndexManifest newManifest = null;
+            if (incremental) {
+                String sig = IndexManifest.createSignature(context.getLanguage(), htmlExtension, 
+                                                           cleanUpStrings, cleanUpChars, 
+                                                           (encodingProps == null) ? null : new TreeMap<Object, Object>(encodingProps),
+                                                           encodingPrefixSize, encodingPerDirectory);
+                oldManifest = IndexManifest.load(manifestFile, sig);
+                newManifest = new IndexManifest(sig);
+            }
+
+            // Attach the stem dictionary of previous runs to the stem cache
+            // of this run (not to the cache shared with concurrent runs)
+            RunStemCache stemCache = spe.getStemCache();
+            SnowballStemmer stemmer = context.createStemmer();
+            if ((stemCacheDir != null) && (stemmer != null)) {
+                stemCache.setDictionary(StemDictionary.open(new File(stemCacheDir), 
+                                                            context.getLanguage(), stemmer));
+            }
+
+            if (watch) {
+                watchTerms = new ArrayList<Set<String>>();
+                watchModTimes = new ArrayList<Long>();
+            }
 
             // parse each html files
-            while ( it.hasNext ( ) ) {
-                File ftemp = (File) it.next();
-                //tempMap.put(key, value);
-                //The HTML file information are added in the list of FileInfoObject
-                DocFileInfo docFileInfoTemp = new DocFileInfo(spe.runExtractData(ftemp, IndexerTask.indexerLanguage));
-
-                // Set path relative to inputPath
-                ftemp = docFileInfoTemp.getFullpath();
-                String stemp = ftemp.toString();              
-                int i = stemp.indexOf(inputPath);
-                if ( i != 0 ) {
-                    System.out.println("The file path does not match with the input path: " + stemp);
-                    continue;
-                }
-                int ad = stemp.equals(inputPath) ? 0 : 1;
-                stemp = stemp.substring(inputPath.length() + ad);
-                ftemp = new File (stemp);
-                docFileInfoTemp.setFullpath(ftemp);
+            int reusedCount;
+            try {
+                reusedCount = processFiles(spe, htmlWalker, htmlFiles, htmlFilesPathRel,
+                                           filesDescription, oldManifest, newManifest);
+            } finally {
+                saveStemDictionary(stemCache);
+            }
+            // Check if found html files
+            if (htmlFiles.isEmpty()) {
+                System.out.println(txt_no_html_files + " "+ inputDir + ".");
+                return;
+            }
+
+            // Create the list of the existing html files (index starts at 0)
+            String htmlListPath = outputDir.concat(File.separator).concat(htmlList);
+            WriteJSFiles.WriteHTMLList(htmlListPath, htmlFilesPathRel, context);
 
-                filesDescription.add(docFileInfoTemp);
+            if (oldManifest != null) {
+                System.out.println("Incremental indexing: " + (htmlFiles.size() - reusedCount) + 
+                                   " of " + htmlFiles.size() + " files parsed, " + 
+                                   oldManifest.countRemoved(htmlFilesPathRel) + " files removed.");
             }
             
             /*remove empty strings from the map*/
@@ -269,11 +544,46 @@ public class DocmaWebIndexer extends Task
                 return;
             }
 
-            WriteJSFiles.WriteIndex(outputDir.concat(File.separator).concat(indexName), tempDico);
+            String[] shardFirstKeys = null;
+            if (!indexFormat.equals(FORMAT_BINARY) && (shardPrefixLength > 0)) {
+                WriteJSFiles.WritePrefixIndex(outputDir.concat(File.separator).concat(indexName), 
+                                              tempDico, context, shardPrefixLength);
+            } else if (!indexFormat.equals(FORMAT_BINARY)) {
+                shardFirstKeys = WriteJSFiles.WriteIndex(outputDir.concat(File.separator).concat(indexName), 
+                                                         tempDico, context, shardCount, shardSize);
+            }
+            int[] tokenCounts = termFrequencies ? spe.getTokenCounts() : null;
+            String tokenCountsPath = outputDir.concat(File.separator).concat(WriteJSFiles.TOKEN_COUNTS_FILE);
+            if (tokenCounts != null) {
+                WriteJSFiles.WriteTokenCounts(tokenCountsPath, tokenCounts, context);
+            } else {
+                IndexFileWriter.delete(new File(tokenCountsPath));
+            }
+            if (!indexFormat.equals(FORMAT_JS)) {
+                WriteJSFiles.WriteBinaryIndex(new File(outputDir), tempDico, context, tokenCounts);
+            }
+            fileCount = htmlFiles.size();
+            wordCount = tempDico.size();
 
             // write the html list file with title and shortdesc
             // create the list of the existing html files (index starts at 0)
-            WriteJSFiles.WriteHTMLInfoList(outputDir.concat(File.separator).concat(htmlInfoList), filesDescription);
+            WriteJSFiles.WriteHTMLInfoList(outputDir.concat(File.separator).concat(htmlInfoList), 
+                                           filesDescription, context);
+
+            if (newManifest != null) {
+                try {
+                    newManifest.save(manifestFile);
+                } catch (IOException ex) {
+                    System.out.println("Failed to write index manifest: " + ex.getMessage());
+                }
+            }
+
+            if (stemCache.getHitCount() + stemCache.getMissCount() > 0) {
+                System.out.println("Stem cache: " + stemCache);
+            }
+            if (encodingSniffer.getCacheHitCount() > 0) {
+                System.out.println("Encoding detection: " + encodingSniffer);
+            }
 
             // perf measurement
             Date dateEnd = new Date();
@@ -283,12 +593,242 @@ public class DocmaWebIndexer extends Task
             } else {
                 System.out.println("Delay = " + diff/1000 + " seconds");
             }
+
+            if (watch) {
+                IndexWatcher watcher = new IndexWatcher(spe, context, htmlWalker, new File(outputDir), indexName, 
+                                                        tempDico, shardFirstKeys, htmlFilesPathRel, 
+                                                        filesDescription, watchTerms, watchModTimes);
+                watcher.setDelay(watchDelay);
+                watcher.setIndexFormat(!indexFormat.equals(FORMAT_BINARY), !indexFormat.equals(FORMAT_JS));
+                watcher.setShardPrefixLength(shardPrefixLength);
+                watcher.setTermFrequencies(termFrequencies);
+                try {
+                    watcher.run();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException ex) {
+                    throw new BuildException("Cannot watch directory: " + ex.getMessage(), ex);
+                }
+            }
         } else {
             System.out.println(txt_wrong_dita_basedir);
         }
     }
 
 
+    /**
+     * Detaches the stem dictionary from the cache and writes the words
+     * stemmed during this run to the dictionary file.
+     */
+    private void saveStemDictionary(RunStemCache stemCache)
+    {
+        StemDictionary stemDict = stemCache.getDictionary();
+        if (stemDict == null) {
+            return;
+        }
+        stemCache.setDictionary(null);
+        try {
+            int loadedCount = stemDict.size();
+            int newCount = stemDict.getNewCount();
+            stemDict.save();
+            System.out.println("Stem dictionary: " + loadedCount + " words loaded, " + 
+                               stemCache.getDictionaryHitCount() + " words found, " + 
+                               newCount + " words added.");
+        } catch (IOException ex) {
+            System.out.println("Failed to write stem dictionary: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Parses the html files found by the walker and adds their words to 
+     * the dictionary. The files and their relative paths are added to 
+     * htmlFiles and htmlFilesPathRel in the order in which they are found.
+     * If threads is greater than 1, reading, text extraction, cleaning
+     * and stemming run on a pool of worker threads, while the directory
+     * tree is still walked. The resulting word sets are merged into the 
+     * dictionary in the order of htmlFiles, so that the file indices are 
+     * the same as for a sequential run.
+     * If oldManifest is not null, the words of unchanged files are taken 
+     * from the manifest instead of parsing the files.
+     * @return the number of files taken from oldManifest
+     */
+    private int processFiles(final FilesIndexer spe, 
+                             DirWalker walker,
+                             final ArrayList<File> htmlFiles, 
+                             final ArrayList<String> htmlFilesPathRel,
+                             final ArrayList<DocFileInfo> filesDescription,
+                             final IndexManifest oldManifest,
+                             final IndexManifest newManifest) throws BuildException
+    {
+        final boolean createEntries = (newManifest != null);
+        final int[] reusedCount = { 0 };
+        if ((threads <= 1) && (workerPool == null)) {
+            walkFiles(walker, new DirWalker.FileHandler() {
+                public void handleFile(File file, String relPath) 
+                {
+                    htmlFiles.add(file);
+                    htmlFilesPathRel.add(relPath);
+                    ExtractResult res = processFile(spe, file, relPath, oldManifest, createEntries);
+                    if (res.reused) reusedCount[0]++;
+                    mergeResult(spe, res, filesDescription, newManifest);
+                }
+            });
+            return reusedCount[0];
+        }
+
+        // Limit the number of parsed files waiting to be merged
+        final int maxPending = threads * 4;
+        final ExecutorService pool = (workerPool != null) ? workerPool : Executors.newFixedThreadPool(threads);
+        final LinkedList<Future<ExtractResult>> pending = new LinkedList<Future<ExtractResult>>();
+        try {
+            walkFiles(walker, new DirWalker.FileHandler() {
+                public void handleFile(final File file, final String relPath) 
+                {
+                    htmlFiles.add(file);
+                    htmlFilesPathRel.add(relPath);
+                    pending.add(pool.submit(new Callable<ExtractResult>() {
+                        public ExtractResult call() 
+                        {
+                            return processFile(spe, file, relPath, oldManifest, createEntries);
+                        }
+                    }));
+                    if (pending.size() >= maxPending) {
+                        mergeNext(spe, pending, reusedCount, filesDescription, newManifest);
+                    }
+                }
+            });
+            while (!pending.isEmpty()) {
+                mergeNext(spe, pending, reusedCount, filesDescription, newManifest);
+            }
+        } finally {
+            if (pool != workerPool) {
+                pool.shutdownNow();
+            } else {
+                // Do not leave the tasks of a failed run in the shared pool
+                for (Future<ExtractResult> f : pending) {
+                    f.cancel(true);
+                }
+            }
+        }
+        return reusedCount[0];
+    }
+
+    private static void walkFiles(DirWalker walker, DirWalker.FileHandler handler) throws BuildException
+    {
+        try {
+            walker.walk(handler);
+        } catch (IOException ex) {
+            throw new BuildException("Cannot read directory: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Waits for the first pending result and merges it into the dictionary.
+     */
+    private void mergeNext(FilesIndexer spe, 
+                           LinkedList<Future<ExtractResult>> pending,
+                           int[] reusedCount,
+                           ArrayList<DocFileInfo> filesDescription,
+                           IndexManifest newManifest) throws BuildException
+    {
+        try {
+            ExtractResult res = pending.removeFirst().get();
+            if (res.reused) reusedCount[0]++;
+            mergeResult(spe, res, filesDescription, newManifest);
+        } catch (ExecutionException ex) {
+            throw new BuildException(ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new BuildException(ex);
+        }
+    }
+
+    /**
+     * Retrieves the words of a single file, either from the manifest of 
+     * the previous run (if the file is unchanged) or by parsing the file.
+     * This method may be called concurrently.
+     */
+    private static ExtractResult processFile(FilesIndexer spe, 
+                                             File file, 
+                                             String relPath, 
+                                             IndexManifest oldManifest,
+                                             boolean createEntry)
+    {
+        DocFileInfo info = new DocFileInfo(file);
+        long modTime = file.lastModified();
+        IndexManifest.Entry entry = (oldManifest == null) ? null : oldManifest.getEntry(relPath);
+        byte[] hash = null;
+        try {
+            if (entry != null && entry.isUnmodified(file)) {
+                return reuseEntry(info, relPath, entry, modTime);
+            }
+            // The file is hashed once, for the comparison and the new entry
+            if (createEntry || (entry != null)) {
+                hash = IndexManifest.hashFile(file);
+            }
+            if (entry != null && entry.hasSameContent(file, hash)) {
+                return reuseEntry(info, relPath, entry, modTime);
+            }
+        } catch (IOException ex) {
+            System.out.println("Cannot read file " + file + ": " + ex.getMessage());
+        }
+
+        // Get size and modification time before the file is parsed
+        entry = (hash == null) ? null : new IndexManifest.Entry(relPath, file, hash);
+        Set<String> terms = spe.extractTerms(file, info);
+        if (entry != null) {
+            entry.setContent(info.getTitle(), info.getShortdesc(), terms);
+        }
+        return new ExtractResult(info, relPath, terms, entry, false, modTime);
+    }
+
+    private static ExtractResult reuseEntry(DocFileInfo info, String relPath, 
+                                            IndexManifest.Entry entry, long modTime)
+    {
+        info.setTitle(entry.getTitle());
+        info.setShortdesc(entry.getShortdesc());
+        return new ExtractResult(info, relPath, entry.getTerms(), entry, true, modTime);
+    }
+
+    private void mergeResult(FilesIndexer spe, 
+                             ExtractResult res, 
+                             ArrayList<DocFileInfo> filesDescription,
+                             IndexManifest newManifest)
+    {
+        spe.addTerms(res.terms);
+        // Set path relative to the input directory
+        res.fileInfo.setFullpath(new File(res.relPath));
+        filesDescription.add(res.fileInfo);
+        if ((newManifest != null) && (res.manifestEntry != null)) {
+            newManifest.putEntry(res.manifestEntry);
+        }
+        if (watchTerms != null) {
+            watchTerms.add(res.terms);
+            watchModTimes.add(res.lastModified);
+        }
+    }
+
+    private static class ExtractResult
+    {
+        final DocFileInfo fileInfo;
+        final String relPath;
+        final Set<String> terms;
+        final IndexManifest.Entry manifestEntry;
+        final boolean reused;
+        final long lastModified;
+
+        ExtractResult(DocFileInfo fileInfo, String relPath, Set<String> terms, 
+                      IndexManifest.Entry manifestEntry, boolean reused, long lastModified)
+        {
+            this.fileInfo = fileInfo;
+            this.relPath = relPath;
+            this.terms = terms;
+            this.manifestEntry = manifestEntry;
+            this.reused = reused;
+            this.lastModified = lastModified;
+        }
+    }
+
     private int RetrieveCleanUpProps()
     {
     	// Files for punctuation (only one for now)
@@ -299,8 +839,13 @@ public class DocmaWebIndexer extends Task
         Collection c = new ArrayList<String>();
 
         // Get the list of the props file containing the words to remove (not the punctuation)
-        DirList props = new DirList(inputDir, "^(?!(punctuation)).*\\.props$", 1);
-		ArrayList<File> wordsList = props.getListFiles();
+        ArrayList<File> wordsList;
+        try {
+            wordsList = new DirWalker(inputDir, "^(?!(punctuation)).*\\.props$").listFiles();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 1;
+        }
 //		System.out.println("props files:"+wordsList);
         //TODO all properties are taken to a single arraylist. does it ok?.
 		Properties enProps =new Properties ();
@@ -0,0 +1,330 @@
+/*
+ * EncodingSniffer.java
+ */
+package org.docma.webindexer;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Determines the character encoding of html files.
+ * <p>
+ * The encoding is taken from the byte order mark, the XML declaration,
+ * or a meta tag (charset attribute or http-equiv content-type) in the head
+ * of the file. Only the first bytes of the file are examined (see
+ * {@link #EncodingSniffer(int, boolean)}), and the bytes are compared
+ * directly, i.e. the file content is not converted to a String.
+ * <p>
+ * If the directory cache is enabled, the encoding found for the first file
+ * of a directory is used for all other files of the same directory
+ * without examining them. This requires that the files of a directory
+ * have the same encoding, as is the case for files exported by Docma.
+ * <p>
+ * Instances can be shared by several threads.
+ *
+ * @author MP
+ */
+public class EncodingSniffer
+{
+    public static final int DEFAULT_PREFIX_SIZE = 8*1024;
+    public static final String DEFAULT_ENCODING = "UTF-8";
+
+    private final int prefixSize;
+    private final Map<File, String> dirCache;
+    private final LongAdder cacheHits = new LongAdder();
+
+    /**
+     * Creates a sniffer which examines the first 8 KB of each file
+     * and has no directory cache.
+     */
+    public EncodingSniffer()
+    {
+        this(DEFAULT_PREFIX_SIZE, false);
+    }
+
+    /**
+     * @param prefixSize the number of bytes examined at the start of each file
+     * @param cacheByDirectory true to use the encoding of the first file of a
+     *                         directory for all files of the directory
+     */
+    public EncodingSniffer(int prefixSize, boolean cacheByDirectory)
+    {
+        this.prefixSize = (prefixSize > 0) ? prefixSize : DEFAULT_PREFIX_SIZE;
+        this.dirCache = cacheByDirectory ? new ConcurrentHashMap<File, String>() : null;
+    }
+
+    public int getPrefixSize()
+    {
+        return prefixSize;
+    }
+
+    /**
+     * Returns the encoding of the given file content (UTF-8 if the content
+     * does not declare an encoding). The position of the buffer is not changed.
+     * @param file the file the content was read from
+     * @param content the file content
+     */
+    public String getEncoding(File file, ByteBuffer content)
+    {
+        File dir = (dirCache == null) ? null : file.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            String enc = dirCache.get(dir);
+            if (enc != null) {
+                cacheHits.increment();
+                return enc;
+            }
+        }
+        String enc = sniff(content, prefixSize);
+        if (enc == null) {
+            return DEFAULT_ENCODING;
+        }
+        if (dir != null) {
+            dirCache.putIfAbsent(dir, enc);
+        }
+        return enc;
+    }
+
+    public long getCacheHitCount()
+    {
+        return cacheHits.sum();
+    }
+
+    public int getCachedDirectoryCount()
+    {
+        return (dirCache == null) ? 0 : dirCache.size();
+    }
+
+    public void clearCache()
+    {
+        if (dirCache != null) {
+            dirCache.clear();
+        }
+        cacheHits.reset();
+    }
+
+    /**
+     * Returns the encoding declared in the first prefixSize bytes of the
+     * content, or null if no encoding is declared. The search stops at the
+     * body tag.
+     */
+    public static String sniff(ByteBuffer content, int prefixSize)
+    {
+        int start = content.position();
+        int end = start + Math.min(content.remaining(), prefixSize);
+
+        // Byte order mark
+        if (end - start >= 3 && (content.get(start) & 0xFF) == 0xEF &&
+            (content.get(start + 1) & 0xFF) == 0xBB && (content.get(start + 2) & 0xFF) == 0xBF) {
+            return "UTF-8";
+        }
+        if (end - start >= 2) {
+            int b0 = content.get(start) & 0xFF;
+            int b1 = content.get(start + 1) & 0xFF;
+            if (b0 == 0xFE && b1 == 0xFF) {
+                return "UTF-16BE";
+            }
+            if (b0 == 0xFF && b1 == 0xFE) {
+                return "UTF-16LE";
+            }
+        }
+
+        int pos = start;
+        while (pos < end) {
+            if (content.get(pos) != '<') {
+                pos++;
+                continue;
+            }
+            if (matches(content, pos, end, "<!--")) {
+                int p = indexOf(content, pos + 4, end, "-->");
+                if (p < 0) {
+                    break;
+                }
+                pos = p + 3;
+            } else if (matches(content, pos, end, "<?xml")) {
+                int p = indexOf(content, pos, end, "?>");
+                if (p < 0) {
+                    break;
+                }
+                String enc = getAttributeValue(content, pos + 5, p, "encoding");
+                if (enc != null && enc.length() > 0) {
+                    return enc;
+                }
+                pos = p + 2;
+            } else if (matchesTag(content, pos, end, "meta")) {
+                int p = indexOf(content, pos, end, ">");
+                if (p < 0) {
+                    break;
+                }
+                String enc = getMetaCharset(content, pos + 5, p);
+                if (enc != null && enc.length() > 0) {
+                    return enc;
+                }
+                pos = p + 1;
+            } else if (matchesTag(content, pos, end, "body")) {
+                break;
+            } else {
+                pos++;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the encoding of a meta tag. Examples:
+     * <pre>
+     * &lt;meta charset="utf-8"/&gt;
+     * &lt;meta http-equiv="Content-Type" content="text/html; charset=utf-8"/&gt;
+     * </pre>
+     */
+    private static String getMetaCharset(ByteBuffer content, int start, int end)
+    {
+        String charset = getAttributeValue(content, start, end, "charset");
+        if (charset != null) {
+            return charset.toUpperCase();
+        }
+        String equiv = getAttributeValue(content, start, end, "http-equiv");
+        if ((equiv == null) || !equiv.equalsIgnoreCase("content-type")) {
+            return null;
+        }
+        String type = getAttributeValue(content, start, end, "content");
+        if (type == null) {
+            return null;
+        }
+        final String CHARSET_PATTERN = "charset=";
+        type = type.toLowerCase();
+        int p1 = type.lastIndexOf(CHARSET_PATTERN);
+        if (p1 < 0) {
+            return null;
+        }
+        p1 += CHARSET_PATTERN.length();
+        int p2 = type.indexOf(';', p1);
+        return type.substring(p1, (p2 < 0) ? type.length() : p2).trim().toUpperCase();
+    }
+
+    /**
+     * Returns the value of the attribute with the given (lower case) name
+     * in the range start to end, or null if the attribute does not exist.
+     */
+    private static String getAttributeValue(ByteBuffer content, int start, int end, String name)
+    {
+        int pos = start;
+        while (pos < end) {
+            // Skip to the start of the next attribute name
+            while ((pos < end) && !isNameByte(content.get(pos))) {
+                pos++;
+            }
+            int nameStart = pos;
+            while ((pos < end) && isNameByte(content.get(pos))) {
+                pos++;
+            }
+            int nameEnd = pos;
+            while ((pos < end) && isSpace(content.get(pos))) {
+                pos++;
+            }
+            if ((pos >= end) || (content.get(pos) != '=')) {
+                continue;  // attribute without value
+            }
+            pos++;
+            while ((pos < end) && isSpace(content.get(pos))) {
+                pos++;
+            }
+            int valStart;
+            int valEnd;
+            if ((pos < end) && ((content.get(pos) == '"') || (content.get(pos) == '\''))) {
+                byte quote = content.get(pos);
+                valStart = pos + 1;
+                valEnd = valStart;
+                while ((valEnd < end) && (content.get(valEnd) != quote)) {
+                    valEnd++;
+                }
+                pos = valEnd + 1;
+            } else {
+                valStart = pos;
+                valEnd = pos;
+                while ((valEnd < end) && !isSpace(content.get(valEnd)) &&
+                       (content.get(valEnd) != '/') && (content.get(valEnd) != '?')) {
+                    valEnd++;
+                }
+                pos = valEnd;
+            }
+            if ((nameEnd - nameStart == name.length()) && matches(content, nameStart, nameEnd, name)) {
+                return toAscii(content, valStart, valEnd).trim();
+            }
+        }
+        return null;
+    }
+
+    private static boolean isNameByte(byte b)
+    {
+        return ((b >= 'a') && (b <= 'z')) || ((b >= 'A') && (b <= 'Z')) ||
+               ((b >= '0') && (b <= '9')) || (b == '-') || (b == '_') || (b == ':');
+    }
+
+    private static boolean isSpace(byte b)
+    {
+        return (b == ' ') || (b == '\t') || (b == '\n') || (b == '\r') || (b == '\f');
+    }
+
+    /**
+     * Returns true if the bytes at pos are "&lt;" followed by the given tag
+     * name and a white space, slash or the end of the tag.
+     */
+    private static boolean matchesTag(ByteBuffer content, int pos, int end, String tagName)
+    {
+        int after = pos + 1 + tagName.length();
+        if ((after >= end) || !matches(content, pos + 1, end, tagName)) {
+            return false;
+        }
+        byte b = content.get(after);
+        return isSpace(b) || (b == '>') || (b == '/');
+    }
+
+    /**
+     * Returns true if the bytes at pos are the given ASCII string,
+     * ignoring case.
+     */
+    private static boolean matches(ByteBuffer content, int pos, int end, String str)
+    {
+        if (pos + str.length() > end) {
+            return false;
+        }
+        for (int i = 0; i < str.length(); i++) {
+            int b = content.get(pos + i);
+            if ((b >= 'A') && (b <= 'Z')) {
+                b += 'a' - 'A';
+            }
+            if (b != str.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(ByteBuffer content, int from, int end, String str)
+    {
+        for (int i = from; i + str.length() <= end; i++) {
+            if (matches(content, i, end, str)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String toAscii(ByteBuffer content, int start, int end)
+    {
+        char[] chars = new char[end - start];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (content.get(start + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    public String toString()
+    {
+        return "prefix " + prefixSize + " bytes" + ((dirCache == null) ? "" :
+               ", " + getCachedDirectoryCount() + " directories cached, " + getCacheHitCount() + " cache hits");
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * EntityDecoder.java
+ */
+package org.docma.webindexer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Replaces the character entities in the text extracted from html files.
+ * <p>
+ * Numeric entities (decimal and hexadecimal) are replaced by the
+ * corresponding code point. Symbolic entities are looked up in a table
+ * which contains the named character references of HTML5 and the
+ * entities defined in docma_encoding.props (properties "symbol.name"),
+ * which take precedence. Entities which cannot be resolved are copied
+ * unchanged. Entities of space characters (e.g. &amp;nbsp;, &amp;#160; 
+ * or &amp;emsp;) are replaced by a blank, because the decoded text is 
+ * split into words at blanks only.
+ * <p>
+ * The table is built once, when the decoder is created, as an open
+ * addressing hash table. The text is decoded in a single pass into a
+ * separate buffer. Instances are immutable and can be shared by several
+ * threads.
+ *
+ * @author MP
+ */
+public class EntityDecoder
+{
+    private static final String HTML5_ENTITIES = "html5_entities.properties";
+    private static final String SYMBOL_PREFIX = "symbol.";
+
+    private static Properties html5Entities = null;
+
+    private final String[] keys;
+    private final int[] values;     // code point, or -(index + 1) in multiValues
+    private final int[][] multiValues;
+    private final int mask;
+    private final int maxKeyLength;
+
+    /**
+     * Creates a decoder for the HTML5 entities and the entities defined
+     * in the given encoding properties.
+     * @param encodingProps the content of docma_encoding.props (may be null)
+     */
+    public EntityDecoder(Properties encodingProps)
+    {
+        Map<String, int[]> entities = new HashMap<String, int[]>();
+        for (Map.Entry<Object, Object> e : getHTML5Entities().entrySet()) {
+            entities.put(e.getKey().toString(), parseCodePoints(e.getValue().toString()));
+        }
+        if (encodingProps != null) {
+            for (String prop : encodingProps.stringPropertyNames()) {
+                if (prop.startsWith(SYMBOL_PREFIX)) {
+                    try {
+                        int code = Integer.parseInt(encodingProps.getProperty(prop).trim());
+                        if ((code > 0) && Character.isValidCodePoint(code)) {
+                            entities.put(prop.substring(SYMBOL_PREFIX.length()), new int[] { code });
+                        }
+                    } catch (NumberFormatException ex) {  // invalid entity; ignore
+                    }
+                }
+            }
+        }
+
+        int size = Integer.highestOneBit(Math.max(entities.size(), 1) * 2) * 2;
+        keys = new String[size];
+        values = new int[size];
+        mask = size - 1;
+        List<int[]> multi = new ArrayList<int[]>();
+        int maxLen = 0;
+        for (Map.Entry<String, int[]> e : entities.entrySet()) {
+            String name = e.getKey();
+            int[] cps = e.getValue();
+            int slot = hash(name, 0, name.length()) & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = name;
+            if (cps.length == 1) {
+                values[slot] = cps[0];
+            } else {
+                multi.add(cps);
+                values[slot] = -multi.size();
+            }
+            maxLen = Math.max(maxLen, name.length());
+        }
+        multiValues = multi.toArray(new int[multi.size()][]);
+        maxKeyLength = maxLen;
+    }
+
+    private static synchronized Properties getHTML5Entities()
+    {
+        if (html5Entities == null) {
+            Properties props = new Properties();
+            try (InputStream in = EntityDecoder.class.getResourceAsStream(HTML5_ENTITIES)) {
+                if (in != null) {
+                    props.load(in);
+                } else {
+                    System.out.println("Missing resource " + HTML5_ENTITIES);
+                }
+            } catch (IOException ex) {
+                System.out.println("Failed to read " + HTML5_ENTITIES + ": " + ex.getMessage());
+            }
+            html5Entities = props;
+        }
+        return html5Entities;
+    }
+
+    private static int[] parseCodePoints(String value)
+    {
+        String[] parts = value.split(",");
+        int[] cps = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            cps[i] = Integer.parseInt(parts[i].trim());
+        }
+        return cps;
+    }
+
+    private static int hash(CharSequence s, int start, int end)
+    {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns a new buffer containing the decoded text.
+     */
+    public StringBuilder decode(CharSequence text)
+    {
+        StringBuilder out = new StringBuilder(text.length());
+        decode(text, 0, text.length(), out);
+        return out;
+    }
+
+    /**
+     * Appends the decoded characters start to end of text to out.
+     */
+    public void decode(CharSequence text, int start, int end, StringBuilder out)
+    {
+        int copyStart = start;
+        int pos = start;
+        while (pos < end) {
+            if (text.charAt(pos) != '&') {
+                pos++;
+                continue;
+            }
+            int entEnd = decodeEntity(text, pos + 1, end, out, copyStart, pos);
+            if (entEnd < 0) {
+                pos++;  // no valid entity; search next entity
+            } else {
+                pos = entEnd;
+                copyStart = entEnd;
+            }
+        }
+        out.append(text, copyStart, end);
+    }
+
+    /**
+     * Decodes the entity starting after the ampersand at nameStart. If the
+     * entity is valid, the text from copyStart to the ampersand and the
+     * decoded entity are appended to out, and the position after the
+     * semicolon is returned. Otherwise -1 is returned.
+     */
+    private int decodeEntity(CharSequence text, int nameStart, int end,
+                             StringBuilder out, int copyStart, int ampPos)
+    {
+        if (nameStart >= end) {
+            return -1;
+        }
+        int code;
+        int pos;
+        if (text.charAt(nameStart) == '#') {  // numeric entity
+            int radix = 10;
+            pos = nameStart + 1;
+            if ((pos < end) && ((text.charAt(pos) == 'x') || (text.charAt(pos) == 'X'))) {  // hexadecimal
+                radix = 16;
+                pos++;
+            }
+            int digitStart = pos;
+            long value = 0;
+            while (pos < end) {
+                int d = Character.digit(text.charAt(pos), radix);
+                if (d < 0) {
+                    break;
+                }
+                value = Math.min(value * radix + d, Integer.MAX_VALUE);
+                pos++;
+            }
+            if ((pos == digitStart) || (pos >= end) || (text.charAt(pos) != ';')) {
+                return -1;
+            }
+            code = (int) value;
+            if ((code <= 0) || !Character.isValidCodePoint(code)) {
+                return -1;
+            }
+            out.append(text, copyStart, ampPos);
+            appendCodePoint(out, code);
+            return pos + 1;
+        }
+
+        // symbolic entity
+        int limit = Math.min(end, nameStart + maxKeyLength + 1);
+        pos = nameStart;
+        while ((pos < limit) && (text.charAt(pos) != ';') && (text.charAt(pos) != ' ')) {
+            pos++;
+        }
+        if ((pos >= limit) || (text.charAt(pos) != ';')) {
+            return -1;
+        }
+        int slot = lookup(text, nameStart, pos);
+        if (slot < 0) {
+            return -1;
+        }
+        out.append(text, copyStart, ampPos);
+        int val = values[slot];
+        if (val >= 0) {
+            appendCodePoint(out, val);
+        } else {
+            for (int cp : multiValues[-val - 1]) {
+                appendCodePoint(out, cp);
+            }
+        }
+        return pos + 1;
+    }
+
+    private static void appendCodePoint(StringBuilder out, int cp)
+    {
+        if (Character.isSpaceChar(cp)) {
+            out.append(' ');  // e.g. no-break space; separates words
+        } else {
+            out.appendCodePoint(cp);
+        }
+    }
+
+    private int lookup(CharSequence text, int start, int end)
+    {
+        int len = end - start;
+        int slot = hash(text, start, end) & mask;
+        String key;
+        while ((key = keys[slot]) != null) {
+            if (key.length() == len) {
+                int i = 0;
+                while ((i < len) && (key.charAt(i) == text.charAt(start + i))) {
+                    i++;
+                }
+                if (i == len) {
+                    return slot;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+}
@@ -3,23 +3,29 @@
  */
 package org.docma.webindexer;
 
+import com.nexwave.nquindexer.IndexTokenizer;
 import com.nexwave.nquindexer.IndexerConstants;
+import com.nexwave.nquindexer.IndexingContext;
+import com.nexwave.nquindexer.PostingsList;
 import com.nexwave.nsidita.DocFileInfo;
+import com.nexwave.stemmer.snowball.RunStemCache;
 import com.nexwave.stemmer.snowball.SnowballStemmer;
-import com.nexwave.stemmer.snowball.ext.EnglishStemmer;
-import com.nexwave.stemmer.snowball.ext.FrenchStemmer;
-import com.nexwave.stemmer.snowball.ext.GermanStemmer;
+import com.nexwave.stemmer.snowball.StemCache;
 import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Pattern;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.cjk.CJKAnalyzer;
 import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
@@ -33,19 +39,56 @@ public class FilesIndexer
 {
     // tempDico stores all the keywords and a pointer to the files containing 
     // the index in a Map
-    // Example: ("keyword1", "0,2,4"), ("docbook", "1,2,5") 
-    private Map<String,String> tempDico;
-    private DocFileInfo fileDesc = null;
+    // Example: ("keyword1", [0,2,4]), ("docbook", [1,2,5]) 
+    private Map<String,PostingsList> tempDico;
     private int fileIdx = 0;
 
+    // Store the number of occurrences of each word in the postings lists,
+    // and the number of words of each file
+    private boolean termFrequencies = false;
+    private int[] tokenCounts = new int[16];
+
     // Words to ignore
-    private ArrayList <String> cleanUpList = null;
+    private List <String> cleanUpList = null;
     
     // Special characters to be ignored (transformed to space)
-    private ArrayList <String> cleanUpPunctuation = null;
+    private List <String> cleanUpPunctuation = null;
+
+    // Settings of the indexing run (null if created without context)
+    private IndexingContext context = null;
+
+    // Stem cache of the indexing run and the stemmers of the threads parsing
+    // the files, both taken from the context (see getStemmer())
+    private RunStemCache stemCache = null;
+    private final ThreadLocal<SnowballStemmer> contextStemmers = new ThreadLocal<SnowballStemmer>() {
+        protected SnowballStemmer initialValue()
+        {
+            return context.createStemmer();
+        }
+    };
 
     // Encoding properties (character set, symbolic entities)
     private Properties encodingProps = null;
+    private EncodingSniffer encodingSniffer = new EncodingSniffer();
+    private EntityDecoder entityDecoder;
+
+    // Tokenizer for the clean-up lists (null if the lists cannot be 
+    // handled by the tokenizer; then cleanBuffer is used)
+    private IndexTokenizer tokenizer = null;
+
+    // Compiled clean-up expressions used by cleanBuffer
+    private Pattern ignoreWordsPattern = null;
+    private Pattern punctuationPattern = null;
+
+    private static final Pattern SPACES_PATTERN = Pattern.compile("\\s+");
+    private static final Pattern ARROW_PATTERN = Pattern.compile("->");
+    private static final Pattern[] PUNCTUATION_PATTERNS = {
+        Pattern.compile(IndexerConstants.EUPUNCTUATION1),
+        Pattern.compile(IndexerConstants.EUPUNCTUATION2),
+        Pattern.compile(IndexerConstants.JPPUNCTUATION1),
+        Pattern.compile(IndexerConstants.JPPUNCTUATION2),
+        Pattern.compile(IndexerConstants.JPPUNCTUATION3)
+    };
 
     
     /**
@@ -53,6 +96,9 @@ public class FilesIndexer
      */
     public FilesIndexer () 
     {
+        this.tokenizer = IndexTokenizer.getInstance(null, null);
+        this.entityDecoder = new EntityDecoder(null);
+        if (tokenizer == null) compileCleanUpPatterns();
     }
     
     /**
@@ -61,29 +107,102 @@ public class FilesIndexer
     public FilesIndexer (ArrayList <String> cleanUpStrings) 
     {
         this.cleanUpList = cleanUpStrings;
+        this.tokenizer = IndexTokenizer.getInstance(cleanUpStrings, null);
+        this.entityDecoder = new EntityDecoder(null);
+        if (tokenizer == null) compileCleanUpPatterns();
     }
     
     /**
      * Constructor
      */
-    public FilesIndexer (ArrayList <String> cleanUpStrings, 
-                         ArrayList <String> cleanUpChars, 
+    public FilesIndexer (List <String> cleanUpStrings, 
+                         List <String> cleanUpChars, 
                          Properties encodingProps) 
     {
         this.cleanUpList = cleanUpStrings;
         this.cleanUpPunctuation = cleanUpChars;
         this.encodingProps = encodingProps;
+        this.tokenizer = IndexTokenizer.getInstance(cleanUpStrings, cleanUpChars);
+        this.entityDecoder = new EntityDecoder(encodingProps);
+        if (tokenizer == null) compileCleanUpPatterns();
+    }
+
+    /**
+     * Sets the sniffer used to determine the encoding of files for which
+     * the encoding properties do not define an encoding.
+     */
+    public void setEncodingSniffer(EncodingSniffer encodingSniffer)
+    {
+        this.encodingSniffer = encodingSniffer;
+    }
+
+    /**
+     * Enables storing the number of occurrences of each word of a file in
+     * the postings lists (see PostingsList.getFrequency()), and the number
+     * of words of each file (see getTokenCounts()).
+     */
+    public void setTermFrequencies(boolean termFrequencies)
+    {
+        this.termFrequencies = termFrequencies;
+    }
+
+    /**
+     * Returns the number of words of each file added by addTerms(), 
+     * including repeated words. The counts are only available if the words
+     * have been passed as TermCounts, as returned by extractTerms().
+     */
+    public int[] getTokenCounts()
+    {
+        return Arrays.copyOf(tokenCounts, fileIdx);
+    }
+
+    /**
+     * Constructor for the settings of the given indexing run.
+     */
+    public FilesIndexer (IndexingContext context) 
+    {
+        this(context.getCleanUpStrings(), context.getCleanUpChars(), context.getEncodingProps());
+        this.context = context;
+        this.stemCache = new RunStemCache(context.getStemCache());
+    }
+
+    /**
+     * Returns the stem cache of the indexing run, to which the persistent
+     * stem dictionary of the run is attached (null if the indexer has been
+     * created without context).
+     */
+    public RunStemCache getStemCache()
+    {
+        return stemCache;
     }
 
     /**
      * Initializer
      */
-    public int init(Map<String,String> tempMap)
+    public int init(Map<String,PostingsList> tempMap)
     {
         tempDico = tempMap;
         return 0;
     }
 
+    /**
+     * Same as {@link #runExtractData(File, String)} with the language of
+     * the indexing context.
+     */
+    public DocFileInfo runExtractData(File file) 
+    {
+        return runExtractData(file, context.getLanguage());
+    }
+
+    /**
+     * Same as {@link #extractTerms(File, String, DocFileInfo)} with the 
+     * language of the indexing context.
+     */
+    public Set<String> extractTerms(File file, DocFileInfo fileDesc) 
+    {
+        return extractTerms(file, context.getLanguage(), fileDesc);
+    }
+
     /**
      * Parses the file to extract all the words for indexing and
      * some data characterizing the file.
@@ -93,19 +212,49 @@ public class FilesIndexer
      */
     public DocFileInfo runExtractData(File file, String indexerLanguage) 
     {
-        //initialization
-        fileDesc = new DocFileInfo(file);
-        
+        DocFileInfo fileDesc = new DocFileInfo(file);
+        addTerms(extractTerms(file, indexerLanguage, fileDesc));
+        return fileDesc;
+    }
+
+    /**
+     * Parses the file and returns the distinct words to be indexed, with 
+     * the number of occurrences of each word (see TermCounts). The 
+     * title and description of the file are written to fileDesc.
+     * This method does not modify the dictionary. Therefore it can be
+     * called concurrently for different files, as long as the words
+     * are added to the dictionary with addTerms() in file order.
+     * @param file contains the fullpath of the document to parse
+     * @param indexerLanguage this will be used to tell the program which stemmer to be used.
+     * @param fileDesc receives the data describing the file
+     * @return the set of words contained in the file
+     */
+    public Set<String> extractTerms(File file, String indexerLanguage, DocFileInfo fileDesc) 
+    {
+        String fileEncoding = null;
+        if (encodingProps != null) {
+            fileEncoding = encodingProps.getProperty("file_encoding");
+        }
+
+        if ((tokenizer != null) && tokenizer.isSplittable()) {
+            // Tokenize and stem the text while the file is parsed
+            TermCollector collector = new TermCollector(indexerLanguage);
+            try {
+                CharBuffer fileContent = XHTMLReader.getInstance().read(file, fileEncoding, encodingSniffer);
+                TextExtracter.extract(fileContent.toString(), fileDesc, collector);
+                collector.flush(true);
+            } catch (Exception ex) {
+                System.out.println(ex.getMessage());
+                return new TermCounts();
+            }
+            return collector.terms;
+        }
+
         // Fill txtBuf by parsing the file
         StringBuilder txtBuf = null; 
         try {
-            String fileEncoding = null;
-            if (encodingProps != null) {
-                fileEncoding = encodingProps.getProperty("file_encoding");
-            }
-            String fileContent = XHTMLReader.readFile(file, fileEncoding);
-            txtBuf = TextExtracter.extract(fileContent, fileDesc);
-            decodeCharEntities(txtBuf);
+            CharBuffer fileContent = XHTMLReader.getInstance().read(file, fileEncoding, encodingSniffer);
+            txtBuf = entityDecoder.decode(TextExtracter.extract(fileContent, fileDesc));
         } catch (Exception ex) {
             System.out.println(ex.getMessage());
         }
@@ -113,10 +262,20 @@ public class FilesIndexer
             txtBuf = new StringBuilder("");
         }
         
-        String str = cleanBuffer(txtBuf);
-        str = str.replaceAll("\\s+", " ");  //there's still redundant spaces in the middle
-        // System.out.println(file.toString()+" "+ str +"\n");
-        String[] items = str.split("\\s");      //contains all the words in the array
+        String str;
+        String[] items;      //contains all the words in the array
+        if (tokenizer != null) {
+            // Single pass clean-up and splitting
+            List<String> words = tokenizer.tokenize(txtBuf);
+            items = words.toArray(new String[words.size()]);
+            str = null;
+        } else {
+            // Clean-up lists contain regular expressions
+            str = cleanBuffer(txtBuf);
+            str = SPACES_PATTERN.matcher(str).replaceAll(" ");  //there's still redundant spaces in the middle
+            // System.out.println(file.toString()+" "+ str +"\n");
+            items = str.split("\\s");
+        }
 
         // Get items one-by-one, tunnel through the stemmer, and get the stem.
         // Then, add them to tempSet
@@ -125,23 +284,14 @@ public class FilesIndexer
         // Add support for other languages as well.
 
         String[] tokenizedItems;
-        if (indexerLanguage.equalsIgnoreCase("ja") || indexerLanguage.equalsIgnoreCase("zh")
-            || indexerLanguage.equalsIgnoreCase("ko")) {
+        if (IndexingContext.isCJK(indexerLanguage)) {
 
             LinkedList<String> tokens = new LinkedList<String>();
             try {
-                CJKAnalyzer analyzer = new CJKAnalyzer(org.apache.lucene.util.Version.LUCENE_30);
-                Reader reader = new StringReader(str);
-                TokenStream stream = analyzer.tokenStream("", reader);
-                TermAttribute termAtt = (TermAttribute) stream.addAttribute(TermAttribute.class);
-                OffsetAttribute offAtt = (OffsetAttribute) stream.addAttribute(OffsetAttribute.class);
-
-                while (stream.incrementToken()) {
-                    String term = termAtt.term();
-                    tokens.add(term);
-                    // System.out.println(term + " " + offAtt.startOffset() + " " + offAtt.endOffset());
+                if (str == null) {
+                    str = IndexTokenizer.joinWords(items);
                 }
-
+                tokenizeCJK(IndexingContext.getCJKAnalyzer(), str, tokens);
                 tokenizedItems = tokens.toArray(new String[tokens.size()]);
 
             } catch (IOException ex) {
@@ -150,18 +300,9 @@ public class FilesIndexer
                 ex.printStackTrace();
             }
         } else {
-            SnowballStemmer stemmer;
-            if(indexerLanguage.equalsIgnoreCase("en")){
-                 stemmer = new EnglishStemmer();
-            } else if (indexerLanguage.equalsIgnoreCase("de")){
-                stemmer= new GermanStemmer();
-            } else if (indexerLanguage.equalsIgnoreCase("fr")){
-                stemmer= new FrenchStemmer();
-            } else {
-                stemmer = null; //Languages which stemming is not yet supproted.So, No stemmers will be used.
-            }
+            SnowballStemmer stemmer = getStemmer(indexerLanguage);
             if(stemmer != null)             //If a stemmer available
-                tokenizedItems = stemmer.doStem(items);
+                tokenizedItems = stemCacheFor(indexerLanguage).doStem(items, stemmer);
             else                            //if no stemmer available for the particular language
                 tokenizedItems = items;
 
@@ -173,25 +314,98 @@ public class FilesIndexer
         }
         */
 
-        //items: remove the duplicated strings first
-        HashSet <String> tempSet = new HashSet<String>();
-        tempSet.addAll(Arrays.asList(tokenizedItems));
-        Iterator it = tempSet.iterator();
+        //items: remove the duplicated strings first, and count them
+        TermCounts tempSet = new TermCounts(tokenizedItems.length);
+        for (String item : tokenizedItems) {
+            tempSet.add(item);
+        }
+        return tempSet;
+    }
+
+    private static void tokenizeCJK(CJKAnalyzer analyzer, String str, Collection<String> tokens) throws IOException
+    {
+        Reader reader = new StringReader(str);
+        TokenStream stream = analyzer.tokenStream("", reader);
+        TermAttribute termAtt = (TermAttribute) stream.addAttribute(TermAttribute.class);
+        OffsetAttribute offAtt = (OffsetAttribute) stream.addAttribute(OffsetAttribute.class);
+
+        while (stream.incrementToken()) {
+            String term = termAtt.term();
+            tokens.add(term);
+            // System.out.println(term + " " + offAtt.startOffset() + " " + offAtt.endOffset());
+        }
+    }
+
+    /**
+     * Returns true if the files are indexed with the settings of the
+     * indexing context.
+     */
+    private boolean usesContext(String indexerLanguage)
+    {
+        return (context != null) && context.getLanguage().equalsIgnoreCase(indexerLanguage);
+    }
+
+    /**
+     * Returns the stemmer of the current thread, or null if stemming is not
+     * supported for the language. The stemmers are created by the indexing
+     * context. Only an indexer without context (or called with another
+     * language) uses the stemmers shared by all runs of the thread.
+     */
+    private SnowballStemmer getStemmer(String indexerLanguage)
+    {
+        return usesContext(indexerLanguage) ? contextStemmers.get() 
+                                            : IndexingContext.getThreadStemmer(indexerLanguage);
+    }
+
+    /**
+     * Returns the stem cache of the indexing run, or a cache without
+     * dictionary in front of the shared cache of the language if the 
+     * indexer has no context.
+     */
+    private RunStemCache stemCacheFor(String indexerLanguage)
+    {
+        return usesContext(indexerLanguage) ? stemCache 
+                                            : new RunStemCache(StemCache.getInstance(indexerLanguage));
+    }
+
+    /**
+     * Creates the stemmer for the given language.
+     * @return the stemmer, or null if stemming is not supported for the language
+     */
+    public static SnowballStemmer createStemmer(String indexerLanguage)
+    {
+        return IndexingContext.createStemmer(indexerLanguage);
+    }
+
+    /**
+     * Adds the words of the next file to the dictionary. 
+     * The file index is incremented with each call.
+     * @param terms the distinct words of the file, preferably TermCounts
+     */
+    public void addTerms(Set<String> terms) 
+    {
+        TermCounts counts = (terms instanceof TermCounts) ? (TermCounts) terms : null;
+        Iterator it = terms.iterator();
         String s;
         while (it.hasNext()) {
             s = (String) it.next();
-            if (tempDico.containsKey(s)) {
-                String temp = tempDico.get(s);
-                temp = temp.concat(",").concat(Integer.toString(fileIdx));
-                //System.out.println("temp="+s+"="+temp);
-                tempDico.put(s, temp);
+            PostingsList postings = tempDico.get(s);
+            if (postings == null) {
+                postings = new PostingsList(termFrequencies);
+                tempDico.put(s, postings);
+            }
+            if (termFrequencies) {
+                postings.add(fileIdx, (counts == null) ? 1 : counts.getCount(s));
             } else {
-                tempDico.put(s, Integer.toString(fileIdx));
+                postings.add(fileIdx);
             }
         }
 
+        if (fileIdx == tokenCounts.length) {
+            tokenCounts = Arrays.copyOf(tokenCounts, 2 * fileIdx);
+        }
+        tokenCounts[fileIdx] = (counts == null) ? 0 : counts.getTokenCount();
         fileIdx++;
-        return fileDesc;
     }
 
     /**
@@ -208,6 +422,16 @@ public class FilesIndexer
     private String cleanBuffer (StringBuilder strbf) 
     {
         String str = strbf.toString().toLowerCase();
+        str = minimalClean(str);
+        return str;
+    }
+
+    /**
+     * Compiles the clean-up lists into regular expressions. This is done
+     * once, when the indexer is created, instead of for each file.
+     */
+    private void compileCleanUpPatterns()
+    {
         StringBuilder tempStrBuf = new StringBuilder("");
         StringBuilder tempCharBuf = new StringBuilder("");
         if ((cleanUpList == null) || (cleanUpList.isEmpty())) {
@@ -221,12 +445,6 @@ public class FilesIndexer
             tempStrBuf.append("|\\byou\\b|\\bby\\b|\\bso\\b|\\bon\\b|\\byour\\b|\\bat\\b");
             tempStrBuf.append("|\\b-or-\\b|\\bso\\b|\\bon\\b|\\byour\\b|\\bat\\b");
             tempStrBuf.append("|\\bI\\b|\\bme\\b|\\bmy\\b");
-
-            // str = str.replaceFirst("Copyright � 1998-2007 NexWave Solutions.", " ");
-
-            //nqu 25.01.2008 str = str.replaceAll("\\b.\\b|\\\\", " ");
-            // remove contiguous white charaters
-            //nqu 25.01.2008 str = str.replaceAll("\\s+", " ");
         } else {
             // Clean-up using the props files
             tempStrBuf.append("\\ba\\b");
@@ -244,82 +462,133 @@ public class FilesIndexer
             }
         }
 
-        str = minimalClean(str, tempStrBuf.toString(), tempCharBuf.toString());
-        return str;
+        ignoreWordsPattern = Pattern.compile(tempStrBuf.toString());
+        if (tempCharBuf.length() > 0) {
+            punctuationPattern = Pattern.compile(tempCharBuf.toString());
+        }
     }
 
-    private String minimalClean(String str, String ignoreWords, String punctuation) 
+    private String minimalClean(String str) 
     {
-        str = str.replaceAll("\\s+", " ");
-        str = str.replaceAll("->", " ");
-        str = str.replaceAll(IndexerConstants.EUPUNCTUATION1, " ");
-        str = str.replaceAll(IndexerConstants.EUPUNCTUATION2, " ");
-        str = str.replaceAll(IndexerConstants.JPPUNCTUATION1, " ");
-        str = str.replaceAll(IndexerConstants.JPPUNCTUATION2, " ");
-        str = str.replaceAll(IndexerConstants.JPPUNCTUATION3, " ");
-        if (punctuation.length() > 0) {
-            str = str.replaceAll(punctuation, " ");
-        }
+        str = SPACES_PATTERN.matcher(str).replaceAll(" ");
+        str = ARROW_PATTERN.matcher(str).replaceAll(" ");
+        str = removePunctuation(str);
 
         //remove useless words
-        str = str.replaceAll(ignoreWords, " ");
+        str = ignoreWordsPattern.matcher(str).replaceAll(" ");
 
         // Redo punctuation after removing some words: (TODO: useful?)
-        str = str.replaceAll(IndexerConstants.EUPUNCTUATION1, " ");
-        str = str.replaceAll(IndexerConstants.EUPUNCTUATION2, " ");
-        str = str.replaceAll(IndexerConstants.JPPUNCTUATION1, " ");
-        str = str.replaceAll(IndexerConstants.JPPUNCTUATION2, " ");
-        str = str.replaceAll(IndexerConstants.JPPUNCTUATION3, " ");
-        if (punctuation.length() > 0) {
-            str = str.replaceAll(punctuation, " ");
+        str = removePunctuation(str);
+        return str;
+    }
+
+    private String removePunctuation(String str)
+    {
+        for (Pattern p : PUNCTUATION_PATTERNS) {
+            str = p.matcher(str).replaceAll(" ");
+        }
+        if (punctuationPattern != null) {
+            str = punctuationPattern.matcher(str).replaceAll(" ");
         }
         return str;
     }
     
-    private void decodeCharEntities(StringBuilder buf)
+    /**
+     * Collects the distinct (stemmed) words of a file and their number of
+     * occurrences while the file is parsed. The text is buffered only up to the next white space
+     * after CHUNK_SIZE characters. Then the buffered text is decoded, 
+     * tokenized and stemmed, which gives the same words as processing 
+     * the text of the whole file (see IndexTokenizer.isSplittable()).
+     */
+    private class TermCollector implements TokenSink, IndexTokenizer.TokenHandler
     {
-        int start_pos = 0;
-        while (start_pos < buf.length()) {
-            int pos = buf.indexOf("&", start_pos);
-            if (pos < 0) break;  // no more entities exist
-            start_pos = pos + 1;
-
-            int pos2 = buf.indexOf(";", pos);
-            if (pos2 < 0) break;  // no more entities exist
-            
-            String ent_name = buf.substring(pos + 1, pos2);
-            if (ent_name.contains(" ")) {
-                continue;   // no valid entity; search next entity
+        private static final int CHUNK_SIZE = 4096;
+
+        final TermCounts terms = new TermCounts();
+        private final StringBuilder pending = new StringBuilder();
+        private final StringBuilder chunk = new StringBuilder();
+        private final RunStemCache stemCache;
+        private final SnowballStemmer stemmer;
+        private final CJKAnalyzer analyzer;
+        private final List<String> chunkWords;
+        private int flushSize = CHUNK_SIZE;
+
+        TermCollector(String indexerLanguage)
+        {
+            if (IndexingContext.isCJK(indexerLanguage)) {
+                analyzer = IndexingContext.getCJKAnalyzer();
+                chunkWords = new ArrayList<String>();
+                stemmer = null;
+            } else {
+                analyzer = null;
+                chunkWords = null;
+                stemmer = getStemmer(indexerLanguage);
             }
-            
-            // Convert entity to character code 
-            int code = -1;
-            try {
-                if (ent_name.startsWith("#")) {  // numeric entity
-                    if (ent_name.startsWith("#x")) {  // hexadecimal
-                        code = Integer.parseInt(ent_name.substring(2), 16);
-                    } else {  // decimal
-                        code = Integer.parseInt(ent_name.substring(1));
-                    }
-                } else {  // symbolic entity
-                    if (encodingProps != null) {
-                        String code_str = encodingProps.getProperty("symbol." + ent_name);
-                        if (code_str != null) {
-                            code = Integer.parseInt(code_str);
-                        }
-                    }
+            stemCache = (stemmer == null) ? null : stemCacheFor(indexerLanguage);
+        }
+
+        public void text(CharSequence chars, int start, int end, int origin) 
+        {
+            pending.append(chars, start, end);
+            if (pending.length() >= flushSize) {
+                flush(false);
+            }
+        }
+
+        public void separator() 
+        {
+            pending.append(' ');
+            if (pending.length() >= flushSize) {
+                flush(false);
+            }
+        }
+
+        /**
+         * Processes the pending text up to the last white space character,
+         * or all pending text if all is true.
+         */
+        void flush(boolean all)
+        {
+            int len = pending.length();
+            if (! all) {
+                while ((len > 0) && !IndexTokenizer.isRegexSpace(pending.charAt(len - 1))) {
+                    len--;
+                }
+                if (len == 0) {
+                    flushSize = 2 * pending.length();  // no white space yet
+                    return;
                 }
-            } catch (Exception ex) {   // Invalid entity; code remains -1
             }
-            
-            // Replace entity by character 
-            if (code > 0) {
-                String replaceStr = "" + (char) code;
-                buf.replace(pos, pos2 + 1, replaceStr);
+            flushSize = CHUNK_SIZE;
+            chunk.setLength(0);
+            entityDecoder.decode(pending, 0, len, chunk);
+            pending.delete(0, len);
+            tokenizer.tokenize(chunk, this);
+
+            if ((analyzer != null) && !chunkWords.isEmpty()) {
+                try {
+                    List<String> tokens = new ArrayList<String>();
+                    tokenizeCJK(analyzer, String.join(" ", chunkWords), tokens);
+                    terms.addAll(tokens);
+                } catch (IOException ex) {
+                    terms.addAll(chunkWords);
+                    System.out.println("Error tokenizing content using CJK Analyzer. IOException");
+                    ex.printStackTrace();
+                }
+                chunkWords.clear();
+            }
+        }
+
+        public void token(char[] buf, int start, int len) 
+        {
+            String word = new String(buf, start, len);
+            if (analyzer != null) {
+                chunkWords.add(word);
+            } else if (stemmer != null) {
+                terms.add(stemCache.stem(word.trim().toLowerCase(), stemmer));
+            } else {
+                terms.add(word);
             }
-            
-            // Continue search at start_pos
         }
-        
     }
 }
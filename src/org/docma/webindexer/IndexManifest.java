@@ -0,0 +1,366 @@
+/*
+ * IndexManifest.java
+ */
+package org.docma.webindexer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent description of the files that have been indexed in a previous
+ * run. For each html file the manifest stores the relative path, size,
+ * modification time, content hash, title, short description and the set of
+ * extracted words with their number of occurrences. This allows an
+ * incremental run to reprocess only the files that have been added or
+ * changed since the last run.
+ *
+ * @author MP
+ */
+public class IndexManifest
+{
+    public static final String MANIFEST_FILENAME = "indexManifest.dat";
+
+    private static final int MAGIC = 0x44574D46;  // "DWMF"
+    private static final int VERSION = 2;
+
+    private final String configSignature;
+    private final Map<String, Entry> entries;
+
+    /**
+     * Creates an empty manifest.
+     * @param configSignature identifies the indexing configuration
+     *        (language, clean-up lists, ...) the stored words depend on
+     */
+    public IndexManifest(String configSignature)
+    {
+        this.configSignature = configSignature;
+        this.entries = new HashMap<String, Entry>();
+    }
+
+    public String getConfigSignature()
+    {
+        return configSignature;
+    }
+
+    public Entry getEntry(String relPath)
+    {
+        return entries.get(relPath);
+    }
+
+    public void putEntry(Entry entry)
+    {
+        entries.put(entry.getPath(), entry);
+    }
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of files in this manifest which are not contained
+     * in the given list of relative paths.
+     */
+    public int countRemoved(Collection<String> relPaths)
+    {
+        Set<String> existing = new HashSet<String>(relPaths);
+        int cnt = 0;
+        for (String path : entries.keySet()) {
+            if (! existing.contains(path)) cnt++;
+        }
+        return cnt;
+    }
+
+    /**
+     * Loads the manifest from the given file. Returns null if the file does
+     * not exist, cannot be read, or was created with a different
+     * configuration signature.
+     */
+    public static IndexManifest load(File file, String configSignature)
+    {
+        if (! file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+                return null;
+            }
+            String sig = readString(in);
+            if (! sig.equals(configSignature)) {
+                return null;
+            }
+            IndexManifest manifest = new IndexManifest(sig);
+            // Words are shared by many files; store each word only once in memory
+            Map<String, String> wordPool = new HashMap<String, String>();
+            int cnt = in.readInt();
+            for (int i = 0; i < cnt; i++) {
+                Entry e = new Entry(readString(in));
+                e.size = in.readLong();
+                e.modified = in.readLong();
+                e.hash = new byte[in.readUnsignedByte()];
+                in.readFully(e.hash);
+                e.title = readOptString(in);
+                e.shortdesc = readOptString(in);
+                int termCnt = in.readInt();
+                TermCounts terms = new TermCounts(termCnt);
+                for (int k = 0; k < termCnt; k++) {
+                    String w = readString(in);
+                    String pooled = wordPool.get(w);
+                    if (pooled == null) {
+                        wordPool.put(w, w);
+                        pooled = w;
+                    }
+                    terms.add(pooled, in.readInt());
+                }
+                e.terms = terms;
+                manifest.putEntry(e);
+            }
+            return manifest;
+        } catch (IOException ex) {
+            System.out.println("Failed to read index manifest " + file + ": " + ex.getMessage());
+            return null;
+        } finally {
+            if (in != null) try { in.close(); } catch (Exception ex2) {}
+        }
+    }
+
+    /**
+     * Writes the manifest to the given file. The entries are written to a
+     * temporary file with a unique name first, which then replaces the 
+     * existing manifest by an atomic move, so that other processes never 
+     * see a missing or partly written manifest.
+     */
+    public void save(File file) throws IOException
+    {
+        File tmpFile = File.createTempFile(file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            write(tmpFile);
+            try {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            tmpFile.delete();
+            throw new IOException("Cannot replace index manifest " + file + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    private void write(File tmpFile) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, configSignature);
+            out.writeInt(entries.size());
+            for (Entry e : entries.values()) {
+                writeString(out, e.path);
+                out.writeLong(e.size);
+                out.writeLong(e.modified);
+                out.writeByte(e.hash.length);
+                out.write(e.hash);
+                writeOptString(out, e.title);
+                writeOptString(out, e.shortdesc);
+                TermCounts counts = (e.terms instanceof TermCounts) ? (TermCounts) e.terms : null;
+                out.writeInt(e.terms.size());
+                for (String w : e.terms) {
+                    writeString(out, w);
+                    out.writeInt((counts == null) ? 1 : counts.getCount(w));
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Calculates a signature of the configuration settings that
+     * influence the extracted words.
+     */
+    public static String createSignature(Object... settings)
+    {
+        StringBuilder buf = new StringBuilder();
+        for (Object obj : settings) {
+            buf.append(obj).append('\n');
+        }
+        try {
+            return toHex(MessageDigest.getInstance("MD5").digest(buf.toString().getBytes("UTF-8")));
+        } catch (Exception ex) {
+            return Integer.toHexString(buf.toString().hashCode());
+        }
+    }
+
+    /**
+     * Calculates the content hash of the given file.
+     */
+    public static byte[] hashFile(File file) throws IOException
+    {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("MD5");
+        } catch (Exception ex) {
+            throw new IOException(ex);
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[16*1024];
+            int cnt;
+            while ((cnt = in.read(buf)) >= 0) {
+                md.update(buf, 0, cnt);
+            }
+        } finally {
+            in.close();
+        }
+        return md.digest();
+    }
+
+    private static String toHex(byte[] bytes)
+    {
+        StringBuilder buf = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            buf.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return buf.toString();
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException
+    {
+        byte[] bytes = str.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeOptString(DataOutputStream out, String str) throws IOException
+    {
+        out.writeBoolean(str != null);
+        if (str != null) {
+            writeString(out, str);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static String readOptString(DataInputStream in) throws IOException
+    {
+        return in.readBoolean() ? readString(in) : null;
+    }
+
+    /**
+     * Manifest information of a single html file.
+     */
+    public static class Entry
+    {
+        private final String path;
+        private long size;
+        private long modified;
+        private byte[] hash;
+        private String title;
+        private String shortdesc;
+        private Set<String> terms;
+
+        Entry(String path)
+        {
+            this.path = path;
+        }
+
+        /**
+         * Creates an entry for the given file. The size and modification 
+         * time are taken from the file. The content of the entry has to be 
+         * set by calling setContent().
+         */
+        public Entry(String path, File file, byte[] hash)
+        {
+            this.path = path;
+            this.size = file.length();
+            this.modified = file.lastModified();
+            this.hash = hash;
+        }
+
+        public void setContent(String title, String shortdesc, Set<String> terms)
+        {
+            this.title = title;
+            this.shortdesc = shortdesc;
+            this.terms = terms;
+        }
+
+        public String getPath()
+        {
+            return path;
+        }
+
+        public String getTitle()
+        {
+            return title;
+        }
+
+        public String getShortdesc()
+        {
+            return shortdesc;
+        }
+
+        public Set<String> getTerms()
+        {
+            return terms;
+        }
+
+        /**
+         * Returns true if the size and modification time of the given file
+         * are the same as stored in this entry.
+         */
+        public boolean isUnmodified(File file)
+        {
+            return (file.length() == size) && (file.lastModified() == modified);
+        }
+
+        /**
+         * Returns true if the given file has the same size and content hash
+         * as stored in this entry. If this is the case, the modification
+         * time of this entry is updated.
+         */
+        public boolean hasSameContent(File file) throws IOException
+        {
+            return (file.length() == size) && hasSameContent(file, hashFile(file));
+        }
+
+        /**
+         * Same as {@link #hasSameContent(File)}, with the content hash of
+         * the file calculated by the caller (see hashFile()).
+         */
+        public boolean hasSameContent(File file, byte[] fileHash)
+        {
+            if (file.length() != size) {
+                return false;
+            }
+            if (Arrays.equals(fileHash, hash)) {
+                modified = file.lastModified();
+                return true;
+            }
+            return false;
+        }
+    }
+}
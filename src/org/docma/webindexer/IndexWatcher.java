@@ -0,0 +1,460 @@
+/*
+ * IndexWatcher.java
+ */
+package org.docma.webindexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import com.nexwave.nquindexer.IndexingContext;
+import com.nexwave.nquindexer.PostingsList;
+import com.nexwave.nquindexer.WriteJSFiles;
+import com.nexwave.nsidita.DocFileInfo;
+
+/**
+ * Keeps the search index of a directory up to date while the html files
+ * are changed, e.g. while the output of Docma is previewed.
+ * <p>
+ * The watcher is created by {@link DocmaWebIndexer} after the index has
+ * been written, and takes over the words of each file and the index in
+ * memory. The directory tree is registered with a WatchService. The
+ * events are collected until no event has been received for the delay
+ * (see {@link #setDelay(int)}), so that a burst of events, e.g. during an
+ * export, results in a single update. Only the created, changed and
+ * deleted files are parsed. The file lists of their words are updated,
+ * and only the index files containing these words are rewritten (see
+ * {@link WriteJSFiles#UpdateIndex}). The lists of html files are rewritten
+ * only if files have been added or a title has changed. If term frequencies
+ * are stored, words whose number of occurrences has changed are updated as
+ * well, and the number of words of each file is rewritten with each update.
+ * <p>
+ * New files get the index of a deleted file, or are appended to the list
+ * of html files. The entries of deleted files remain in the list until
+ * their index is reused, but are no longer referenced by the words. The
+ * index files keep their word ranges; the next full run balances them again.
+ *
+ * @author MP
+ */
+public class IndexWatcher
+{
+    /** Default time in milliseconds without events before the index is updated. */
+    public static final int DEFAULT_DELAY = 250;
+
+    // During a continuous burst of events, update after delay * MAX_DELAY_FACTOR
+    private static final int MAX_DELAY_FACTOR = 20;
+
+    private final FilesIndexer spe;
+    private final IndexingContext context;
+    private final DirWalker walker;
+    private final File rootDir;
+    private final File outputDir;
+    private final String indexName;
+    private final String[] shardFirstKeys;
+    private final TreeMap<String, PostingsList> dico;
+    private final List<String> relPaths;
+    private final List<DocFileInfo> fileInfos;
+    private final List<Set<String>> fileTerms;   // null for deleted files
+    private final List<Long> modTimes;
+    private final Map<String, Integer> fileIds = new HashMap<String, Integer>();
+    private final TreeSet<Integer> freeIds = new TreeSet<Integer>();
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<WatchKey, Path>();
+    private int delay = DEFAULT_DELAY;
+    private boolean writeJS = true;
+    private boolean writeBinary = false;
+    private int shardPrefixLength = 0;
+    private boolean termFrequencies = false;
+
+    /**
+     * @param spe the indexer used for the first run
+     * @param context the settings of the first run
+     * @param walker the walker used for the first run
+     * @param outputDir the directory containing the index files
+     * @param indexName the suffix of the index files
+     * @param dico the words of the first run and their file lists
+     * @param shardFirstKeys the first words of the index files, as returned by WriteIndex
+     * @param relPaths the paths of the indexed files, relative to the root directory of the walker
+     * @param fileInfos the title and short description of each indexed file
+     * @param fileTerms the words of each indexed file, as returned by FilesIndexer.extractTerms()
+     * @param modTimes the modification time of each indexed file when it was parsed
+     */
+    public IndexWatcher(FilesIndexer spe, IndexingContext context, DirWalker walker,
+                        File outputDir, String indexName,
+                        Map<String, PostingsList> dico, String[] shardFirstKeys,
+                        List<String> relPaths, List<DocFileInfo> fileInfos,
+                        List<Set<String>> fileTerms, List<Long> modTimes)
+    {
+        this.spe = spe;
+        this.context = context;
+        this.walker = walker;
+        this.rootDir = walker.getRootDir().toFile();
+        this.outputDir = outputDir;
+        this.indexName = indexName;
+        this.dico = new TreeMap<String, PostingsList>(dico);
+        this.shardFirstKeys = shardFirstKeys;
+        this.relPaths = relPaths;
+        this.fileInfos = fileInfos;
+        this.fileTerms = fileTerms;
+        this.modTimes = modTimes;
+        for (int i = 0; i < relPaths.size(); i++) {
+            fileIds.put(relPaths.get(i), i);
+        }
+    }
+
+    /**
+     * Sets the time in milliseconds without events after which the index
+     * is updated.
+     */
+    public void setDelay(int delay)
+    {
+        this.delay = Math.max(1, delay);
+    }
+
+    /**
+     * Sets the index files to update: the javascript index files and/or
+     * the binary index file. The binary index file is always rewritten
+     * completely.
+     */
+    public void setIndexFormat(boolean writeJS, boolean writeBinary)
+    {
+        this.writeJS = writeJS;
+        this.writeBinary = writeBinary;
+    }
+
+    /**
+     * Sets the prefix length of the javascript index files, if they are 
+     * partitioned by word prefixes (0 if they are partitioned alphabetically).
+     */
+    public void setShardPrefixLength(int shardPrefixLength)
+    {
+        this.shardPrefixLength = shardPrefixLength;
+    }
+
+    /**
+     * Sets whether the postings lists store the term frequencies, and the
+     * number of words of each file is written (see FilesIndexer.setTermFrequencies()).
+     */
+    public void setTermFrequencies(boolean termFrequencies)
+    {
+        this.termFrequencies = termFrequencies;
+    }
+
+    /**
+     * Watches the directory tree and updates the index until the thread
+     * is interrupted.
+     */
+    public void run() throws IOException, InterruptedException
+    {
+        try (WatchService ws = FileSystems.getDefault().newWatchService()) {
+            register(ws, walker.getRootDir(), null);
+            System.out.println("Watching " + rootDir + " for changes.");
+
+            // Files changed while the index was written
+            update(rescan(null));
+
+            while (true) {
+                WatchKey key = ws.take();
+                long burstStart = System.currentTimeMillis();
+                Set<Path> touched = new LinkedHashSet<Path>();
+                boolean overflow = false;
+                while (key != null) {
+                    overflow |= collectEvents(ws, key, touched);
+                    if (System.currentTimeMillis() - burstStart >= (long) delay * MAX_DELAY_FACTOR) {
+                        break;
+                    }
+                    key = ws.poll(delay, TimeUnit.MILLISECONDS);
+                }
+                update(overflow ? rescan(ws) : getTouchedFiles(touched));
+            }
+        }
+    }
+
+    /**
+     * Registers the directory and its subdirectories. The files found in
+     * the directories are added to newFiles (if not null).
+     */
+    private void register(WatchService ws, Path dir, Set<Path> newFiles) throws IOException
+    {
+        if (dir.toFile().getAbsoluteFile().equals(outputDir.getAbsoluteFile())) {
+            return;  // the index files are written into this directory
+        }
+        WatchKey key = dir.register(ws, StandardWatchEventKinds.ENTRY_CREATE,
+                                    StandardWatchEventKinds.ENTRY_MODIFY,
+                                    StandardWatchEventKinds.ENTRY_DELETE);
+        watchedDirs.put(key, dir);
+        List<Path> subDirs = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path p : stream) {
+                if (Files.isDirectory(p)) {
+                    if (p.getFileName().toString().indexOf('.') < 0) {
+                        subDirs.add(p);
+                    }
+                } else if (newFiles != null) {
+                    newFiles.add(p);
+                }
+            }
+        }
+        for (Path sub : subDirs) {
+            register(ws, sub, newFiles);
+        }
+    }
+
+    /**
+     * Adds the paths of the events of the given key to touched.
+     * @return true if events have been lost
+     */
+    private boolean collectEvents(WatchService ws, WatchKey key, Set<Path> touched)
+    {
+        boolean overflow = false;
+        Path dir = watchedDirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+            Path child = dir.resolve((Path) event.context());
+            touched.add(child);
+            if ((event.kind() == StandardWatchEventKinds.ENTRY_CREATE) && Files.isDirectory(child) &&
+                (child.getFileName().toString().indexOf('.') < 0)) {
+                try {
+                    register(ws, child, touched);
+                } catch (IOException ex) {
+                    System.out.println("Cannot watch directory " + child + ": " + ex.getMessage());
+                    overflow = true;
+                }
+            }
+        }
+        if (!key.reset()) {
+            watchedDirs.remove(key);
+        }
+        return overflow;
+    }
+
+    /**
+     * Returns the relative paths of the touched html files. A touched path
+     * which is not an html file may be a deleted directory; the indexed
+     * files below this path are returned.
+     */
+    private Collection<String> getTouchedFiles(Set<Path> touched)
+    {
+        Set<String> files = new LinkedHashSet<String>();
+        for (Path p : touched) {
+            if (walker.accepts(p)) {
+                files.add(walker.getRelativePath(p));
+            } else if (p.startsWith(walker.getRootDir()) && !Files.exists(p)) {
+                String prefix = walker.getRelativePath(p) + File.separator;
+                for (String rel : fileIds.keySet()) {
+                    if (rel.startsWith(prefix)) {
+                        files.add(rel);
+                    }
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Walks the directory tree and returns the relative paths of the html
+     * files which have been added, changed or deleted.
+     * @param ws if not null, the directories are registered again, so that
+     *        directories created while events have been lost are watched.
+     *        Directories which are already watched keep their key.
+     */
+    private Collection<String> rescan(WatchService ws) throws IOException
+    {
+        if (ws != null) {
+            register(ws, walker.getRootDir(), null);
+        }
+        final Set<String> found = new HashSet<String>();
+        final List<String> changed = new ArrayList<String>();
+        walker.walk(new DirWalker.FileHandler() {
+            public void handleFile(File file, String relPath)
+            {
+                found.add(relPath);
+                Integer id = fileIds.get(relPath);
+                if ((id == null) || (modTimes.get(id) != file.lastModified())) {
+                    changed.add(relPath);
+                }
+            }
+        });
+        for (String rel : fileIds.keySet()) {
+            if (!found.contains(rel)) {
+                changed.add(rel);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Parses the given files and rewrites the affected index files.
+     */
+    private void update(Collection<String> files)
+    {
+        if (files.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Set<String> changedKeys = new HashSet<String>();
+        boolean listChanged = false;
+        int parsed = 0;
+        int removed = 0;
+        for (String rel : files) {
+            File file = new File(rootDir, rel);
+            Integer id = fileIds.get(rel);
+            if (file.isFile()) {
+                long modTime = file.lastModified();
+                DocFileInfo info = new DocFileInfo(file);
+                Set<String> terms = spe.extractTerms(file, info);
+                terms.remove("");
+                info.setFullpath(new File(rel));
+                if (id == null) {
+                    id = freeIds.isEmpty() ? relPaths.size() : freeIds.pollFirst();
+                    if (id == relPaths.size()) {
+                        relPaths.add(rel);
+                        fileInfos.add(info);
+                        fileTerms.add(null);
+                        modTimes.add(modTime);
+                    } else {
+                        relPaths.set(id, rel);
+                    }
+                    fileIds.put(rel, id);
+                    listChanged = true;
+                } else {
+                    DocFileInfo old = fileInfos.get(id);
+                    listChanged |= !equals(old.getTitle(), info.getTitle()) ||
+                                   !equals(old.getShortdesc(), info.getShortdesc());
+                }
+                fileInfos.set(id, info);
+                modTimes.set(id, modTime);
+                setTerms(id, terms, changedKeys);
+                parsed++;
+            } else if (id != null) {
+                setTerms(id, null, changedKeys);
+                fileIds.remove(rel);
+                freeIds.add(id);
+                removed++;
+            }
+        }
+        if (parsed + removed == 0) {
+            return;
+        }
+
+        int written = 0;
+        if (writeJS && (shardPrefixLength > 0)) {
+            written = WriteJSFiles.UpdatePrefixIndex(new File(outputDir, indexName).getPath(), dico, context,
+                                                     shardPrefixLength, changedKeys);
+        } else if (writeJS) {
+            written = WriteJSFiles.UpdateIndex(new File(outputDir, indexName).getPath(), dico, context,
+                                               shardFirstKeys, changedKeys);
+        }
+        int[] tokenCounts = termFrequencies ? getTokenCounts() : null;
+        if (tokenCounts != null) {
+            WriteJSFiles.WriteTokenCounts(new File(outputDir, WriteJSFiles.TOKEN_COUNTS_FILE).getPath(),
+                                          tokenCounts, context);
+        }
+        if (writeBinary && !changedKeys.isEmpty()) {
+            WriteJSFiles.WriteBinaryIndex(outputDir, dico, context, tokenCounts);
+            written++;
+        }
+        if (listChanged) {
+            WriteJSFiles.WriteHTMLList(new File(outputDir, "htmlFileList.js").getPath(),
+                                       new ArrayList<String>(relPaths), context);
+            WriteJSFiles.WriteHTMLInfoList(new File(outputDir, "htmlFileInfoList.js").getPath(),
+                                           new ArrayList<DocFileInfo>(fileInfos), context);
+        }
+        System.out.println("Index updated: " + parsed + " files parsed, " + removed + " files removed, " +
+                           changedKeys.size() + " words changed, " + written + " index files written in " +
+                           (System.currentTimeMillis() - start) + " milliseconds");
+    }
+
+    /**
+     * Replaces the words of the file with the given index. The changed
+     * words are added to changedKeys.
+     * @param terms the new words of the file, or null if the file has been deleted
+     */
+    private void setTerms(int id, Set<String> terms, Set<String> changedKeys)
+    {
+        Set<String> oldTerms = fileTerms.get(id);
+        if (oldTerms == null) {
+            oldTerms = Collections.emptySet();
+        }
+        Set<String> newTerms = (terms == null) ? Collections.<String>emptySet() : terms;
+        for (String t : oldTerms) {
+            if (!newTerms.contains(t)) {
+                PostingsList postings = dico.get(t);
+                if ((postings != null) && postings.remove(id)) {
+                    if (postings.size() == 0) {
+                        dico.remove(t);
+                    }
+                    changedKeys.add(t);
+                }
+            }
+        }
+        TermCounts oldCounts = termFrequencies ? counts(oldTerms) : null;
+        TermCounts newCounts = termFrequencies ? counts(newTerms) : null;
+        for (String t : newTerms) {
+            if (!oldTerms.contains(t)) {
+                PostingsList postings = dico.get(t);
+                if (postings == null) {
+                    postings = new PostingsList(termFrequencies);
+                    dico.put(t, postings);
+                }
+                postings.insert(id, termFrequencies ? newCounts.getCount(t) : 1);
+                changedKeys.add(t);
+            } else if (termFrequencies && (oldCounts.getCount(t) != newCounts.getCount(t))) {
+                PostingsList postings = dico.get(t);
+                if (postings != null) {
+                    postings.remove(id);
+                    postings.insert(id, newCounts.getCount(t));
+                    changedKeys.add(t);
+                }
+            }
+        }
+        fileTerms.set(id, terms);
+    }
+
+    private static TermCounts counts(Set<String> terms)
+    {
+        return (terms instanceof TermCounts) ? (TermCounts) terms : new TermCounts();
+    }
+
+    /**
+     * Returns the number of words of each file (0 for deleted files).
+     */
+    private int[] getTokenCounts()
+    {
+        int[] counts = new int[fileTerms.size()];
+        for (int i = 0; i < counts.length; i++) {
+            Set<String> terms = fileTerms.get(i);
+            counts[i] = (terms instanceof TermCounts) ? ((TermCounts) terms).getTokenCount() : 0;
+        }
+        return counts;
+    }
+
+    private static boolean equals(String s1, String s2)
+    {
+        return (s1 == null) ? (s2 == null) : s1.equals(s2);
+    }
+}
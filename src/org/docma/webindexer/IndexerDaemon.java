@@ -0,0 +1,674 @@
+/*
+ * IndexerDaemon.java
+ */
+package org.docma.webindexer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.tools.ant.BuildException;
+
+import com.nexwave.nquindexer.IndexingContext;
+
+/**
+ * Long-running indexing process. Avoids the JVM startup, class loading and
+ * JIT warm-up of each Ant invocation when many small html directories are
+ * indexed.
+ * <p>
+ * The daemon listens on a port of the loopback interface and accepts
+ * indexing jobs, which are queued and executed by {@link DocmaWebIndexer}.
+ * The html files of all jobs are parsed on one shared pool of worker
+ * threads. Stemmers, the CJK analyzer, the stem caches and the stopword
+ * automata are kept between the jobs.
+ * <p>
+ * Protocol: the client opens a connection and sends a command line
+ * (INDEX, STATUS or SHUTDOWN), followed by parameter lines "name=value"
+ * and an empty line (UTF-8). Each request must contain the parameter
+ * token (see below). The daemon answers with "OK" or
+ * "ERROR message", followed by result lines and an empty line, and closes
+ * the connection. The parameters of the INDEX command are the attributes
+ * of the DocmaWebIndexer task (htmldir, indexerLanguage, htmlextension,
+ * incremental, stemCacheDir, shardCount, shardSize, shardPrefixLength,
+ * dictionaryBlockSize, encodingPrefixSize, encodingPerDirectory, indexFormat,
+ * compress, termFrequencies). With the parameter wait=true, the answer is sent when the job
+ * is finished. The STATUS command lists the queued, running and recently
+ * finished jobs with their timings.
+ * <p>
+ * Security: the daemon writes the index files of a job into the htmldir
+ * of the job, deletes obsolete index files there, and writes the stem
+ * dictionaries into the stemCacheDir, with the permissions of the user
+ * running the daemon. The port is reachable by every local user.
+ * Therefore the daemon only accepts requests containing a secret token.
+ * At startup the daemon writes a new random token to the token file,
+ * which is readable only by the owner (on file systems supporting POSIX
+ * permissions; on other systems the file is restricted with
+ * {@link File#setReadable(boolean, boolean)}), and deletes the file when
+ * it stops. The default token file is ".docma-webindexer-<port>.token"
+ * in the home directory of the user. Any process which can read the token
+ * file can index any directory writable by the daemon user, so the token
+ * file must not be placed in a directory shared with other users, and the
+ * daemon should not be run by a privileged account.
+ * <p>
+ * Usage:
+ * <pre>
+ * java org.docma.webindexer.IndexerDaemon [-port n] [-tokenfile path] [-threads n] [-jobs n]
+ * java org.docma.webindexer.IndexerDaemon [-port n] [-tokenfile path] -status | -stop
+ * </pre>
+ * See {@link IndexerSubmitTask} for the Ant task submitting jobs.
+ *
+ * @author MP
+ */
+public class IndexerDaemon
+{
+    public static final int DEFAULT_PORT = 9731;
+
+    static final String CMD_INDEX = "INDEX";
+    static final String CMD_STATUS = "STATUS";
+    static final String CMD_SHUTDOWN = "SHUTDOWN";
+    static final String PARAM_WAIT = "wait";
+    static final String PARAM_TOKEN = "token";
+
+    // Number of random bytes of the token
+    private static final int TOKEN_BYTES = 32;
+
+    // Number of finished jobs kept for the status
+    private static final int MAX_FINISHED_JOBS = 100;
+
+    private final int port;
+    private final File tokenFile;
+    private final int threads;
+    private final ExecutorService workerPool;
+    private final ExecutorService jobRunner;
+    private final ExecutorService connectionPool;
+    private final Map<Integer, IndexJob> jobs = new LinkedHashMap<Integer, IndexJob>();
+    private final Map<String, Object> locks = new ConcurrentHashMap<String, Object>();
+    private final AtomicInteger lastJobId = new AtomicInteger(0);
+    private final long startTime = System.currentTimeMillis();
+    private volatile ServerSocket serverSocket = null;
+    private volatile byte[] token = null;
+
+    /**
+     * Creates a daemon using the default token file of the port.
+     * @param port the port on the loopback interface
+     * @param threads the number of threads parsing html files (less than 1
+     *                for one thread per available processor)
+     * @param concurrentJobs the number of jobs executed at the same time
+     */
+    public IndexerDaemon(int port, int threads, int concurrentJobs)
+    {
+        this(port, getDefaultTokenFile(port), threads, concurrentJobs);
+    }
+
+    /**
+     * @param port the port on the loopback interface
+     * @param tokenFile the file the token is written to
+     * @param threads the number of threads parsing html files (less than 1
+     *                for one thread per available processor)
+     * @param concurrentJobs the number of jobs executed at the same time
+     */
+    public IndexerDaemon(int port, File tokenFile, int threads, int concurrentJobs)
+    {
+        this.port = port;
+        this.tokenFile = tokenFile;
+        this.threads = (threads < 1) ? Runtime.getRuntime().availableProcessors() : threads;
+        this.workerPool = Executors.newFixedThreadPool(this.threads, daemonThreads("indexer-worker"));
+        this.jobRunner = Executors.newFixedThreadPool(Math.max(1, concurrentJobs), daemonThreads("indexer-job"));
+        this.connectionPool = Executors.newCachedThreadPool(daemonThreads("indexer-connection"));
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int port = DEFAULT_PORT;
+        int threads = 0;
+        int concurrentJobs = 1;
+        File tokenFile = null;
+        String command = null;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-port") && (i + 1 < args.length)) {
+                port = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-tokenfile") && (i + 1 < args.length)) {
+                tokenFile = new File(args[++i]);
+            } else if (arg.equals("-threads") && (i + 1 < args.length)) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-jobs") && (i + 1 < args.length)) {
+                concurrentJobs = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-status")) {
+                command = CMD_STATUS;
+            } else if (arg.equals("-stop")) {
+                command = CMD_SHUTDOWN;
+            } else {
+                System.out.println("Usage: IndexerDaemon [-port n] [-tokenfile path] [-threads n] [-jobs n] [-status | -stop]");
+                return;
+            }
+        }
+        if (tokenFile == null) {
+            tokenFile = getDefaultTokenFile(port);
+        }
+        if (command != null) {
+            Map<String, String> params = new LinkedHashMap<String, String>();
+            params.put(PARAM_TOKEN, readToken(tokenFile));
+            for (String line : sendRequest(port, command, params, 0)) {
+                System.out.println(line);
+            }
+            return;
+        }
+        IndexerDaemon daemon = new IndexerDaemon(port, tokenFile, threads, concurrentJobs);
+        daemon.run();
+    }
+
+    /**
+     * Listens for requests until the SHUTDOWN command is received.
+     */
+    public void run() throws IOException
+    {
+        warmUp();
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        try {
+            // Written after the bind, so that a second daemon on the same
+            // port does not replace the token of the running daemon.
+            token = writeToken(tokenFile).getBytes(StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            shutdown();
+            throw ex;
+        }
+        System.out.println("Indexing daemon listening on port " + serverSocket.getLocalPort() +
+                           ", " + threads + " worker threads, token file " + tokenFile + ".");
+        try {
+            while (true) {
+                final Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (SocketException ex) {
+                    break;  // closed by shutdown()
+                }
+                connectionPool.execute(new Runnable() {
+                    public void run()
+                    {
+                        handleConnection(socket);
+                    }
+                });
+            }
+        } finally {
+            shutdown();
+            tokenFile.delete();
+        }
+        System.out.println("Indexing daemon stopped.");
+    }
+
+    /**
+     * Stops accepting requests. Queued jobs are not executed; running jobs
+     * are interrupted.
+     */
+    public void shutdown()
+    {
+        ServerSocket ss = serverSocket;
+        if (ss != null) {
+            try { ss.close(); } catch (IOException ex) {}
+        }
+        jobRunner.shutdownNow();
+        workerPool.shutdownNow();
+        connectionPool.shutdownNow();
+    }
+
+    /**
+     * Loads the classes and tables used by all jobs.
+     */
+    private static void warmUp()
+    {
+        new FilesIndexer();
+        IndexingContext.getCJKAnalyzer();
+    }
+
+    private void handleConnection(Socket socket)
+    {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            String command = in.readLine();
+            Map<String, String> params = readParams(in);
+            List<String> result = new ArrayList<String>();
+            String error = null;
+            if (command == null) {
+                error = "Missing command";
+            } else if (!isValidToken(params.remove(PARAM_TOKEN))) {
+                error = "Invalid token";
+            } else if (command.trim().equalsIgnoreCase(CMD_INDEX)) {
+                error = submitJob(params, result);
+            } else if (command.trim().equalsIgnoreCase(CMD_STATUS)) {
+                getStatus(result);
+            } else if (command.trim().equalsIgnoreCase(CMD_SHUTDOWN)) {
+                result.add("Shutting down");
+            } else {
+                error = "Unknown command: " + command;
+            }
+            out.println((error == null) ? "OK" : "ERROR " + error);
+            for (String line : result) {
+                out.println(line);
+            }
+            out.println();
+            out.flush();
+            if ((error == null) && command.trim().equalsIgnoreCase(CMD_SHUTDOWN)) {
+                shutdown();
+            }
+        } catch (IOException ex) {
+            System.out.println("Indexing daemon: " + ex.getMessage());
+        } finally {
+            try { socket.close(); } catch (IOException ex) {}
+        }
+    }
+
+    private boolean isValidToken(String value)
+    {
+        byte[] expected = token;
+        if ((expected == null) || (value == null)) {
+            return false;
+        }
+        // Compares in constant time
+        return MessageDigest.isEqual(expected, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the default token file of the daemon listening on the given
+     * port: ".docma-webindexer-<port>.token" in the home directory.
+     */
+    static File getDefaultTokenFile(int port)
+    {
+        return new File(System.getProperty("user.home"), ".docma-webindexer-" + port + ".token");
+    }
+
+    /**
+     * Reads the token of the daemon from the token file.
+     * @throws IOException if the file cannot be read (e.g. if the daemon
+     *                     is not running, or is run by another user)
+     */
+    static String readToken(File tokenFile) throws IOException
+    {
+        String value = new String(Files.readAllBytes(tokenFile.toPath()), StandardCharsets.UTF_8).trim();
+        if (value.length() == 0) {
+            throw new IOException("Empty token file " + tokenFile);
+        }
+        return value;
+    }
+
+    /**
+     * Creates the token file with a new random token. The file is created
+     * readable and writable only by the owner. An existing file (left by
+     * a daemon which was not stopped) is replaced.
+     * @return the token
+     */
+    private static String writeToken(File tokenFile) throws IOException
+    {
+        byte[] random = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(random);
+        StringBuilder buf = new StringBuilder(2 * TOKEN_BYTES);
+        for (byte b : random) {
+            buf.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        String value = buf.toString();
+
+        Path path = tokenFile.toPath();
+        Files.deleteIfExists(path);
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException ex) {
+            Files.createFile(path);
+            if (!(tokenFile.setReadable(false, false) && tokenFile.setReadable(true, true) &&
+                  tokenFile.setWritable(false, false) && tokenFile.setWritable(true, true))) {
+                Files.delete(path);
+                throw new IOException("Cannot restrict the permissions of the token file " + tokenFile);
+            }
+        } catch (FileAlreadyExistsException ex) {
+            // Created by another process between delete and create
+            throw new IOException("Token file " + tokenFile + " created by another process");
+        }
+        Files.write(path, value.getBytes(StandardCharsets.UTF_8));
+        return value;
+    }
+
+    /**
+     * Queues a job. If the parameter wait is true, waits for the end of
+     * the job. Adds the status of the job to result.
+     * @return the error message, or null
+     */
+    private String submitJob(Map<String, String> params, List<String> result)
+    {
+        boolean wait = "true".equalsIgnoreCase(params.remove(PARAM_WAIT));
+        final IndexJob job;
+        try {
+            job = new IndexJob(lastJobId.incrementAndGet(), params);
+        } catch (IllegalArgumentException ex) {
+            return ex.getMessage();
+        }
+        synchronized (jobs) {
+            jobs.put(job.id, job);
+            removeFinishedJobs();
+        }
+        jobRunner.execute(new Runnable() {
+            public void run()
+            {
+                runJob(job);
+            }
+        });
+        if (wait) {
+            try {
+                job.waitForEnd();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return "Interrupted";
+            }
+        }
+        result.add(job.toString());
+        return job.isFailed() ? job.getError() : null;
+    }
+
+    private void runJob(IndexJob job)
+    {
+        // Jobs writing to the same directory, or updating the stem
+        // dictionary of the same language, are not run at the same time.
+        String stemKey = job.getStemKey();
+        Object stemLock = (stemKey == null) ? new Object() : getLock("stem:" + stemKey);
+        synchronized (stemLock) {
+            synchronized (getLock("dir:" + job.getOutputKey())) {
+                System.out.println("Job " + job.id + " started: " + job.getDescription());
+                job.run(workerPool, threads);
+                System.out.println(job.toString());
+            }
+        }
+    }
+
+    private Object getLock(String key)
+    {
+        Object lock = locks.get(key);
+        if (lock == null) {
+            locks.putIfAbsent(key, new Object());
+            lock = locks.get(key);
+        }
+        return lock;
+    }
+
+    private void removeFinishedJobs()
+    {
+        int finished = 0;
+        for (IndexJob job : jobs.values()) {
+            if (job.isFinished()) finished++;
+        }
+        Iterator<IndexJob> it = jobs.values().iterator();
+        while ((finished > MAX_FINISHED_JOBS) && it.hasNext()) {
+            if (it.next().isFinished()) {
+                it.remove();
+                finished--;
+            }
+        }
+    }
+
+    private void getStatus(List<String> result)
+    {
+        result.add("uptime=" + (System.currentTimeMillis() - startTime) + " ms, worker threads=" + threads);
+        synchronized (jobs) {
+            for (IndexJob job : jobs.values()) {
+                result.add(job.toString());
+            }
+        }
+    }
+
+    /**
+     * Sets the task attributes given by the job parameters.
+     * @throws IllegalArgumentException if a parameter is unknown or invalid
+     */
+    static void configure(DocmaWebIndexer indexer, Map<String, String> params)
+    {
+        for (Map.Entry<String, String> e : params.entrySet()) {
+            String name = e.getKey();
+            String value = e.getValue();
+            try {
+                if (name.equals("htmldir")) {
+                    indexer.setHtmldir(value);
+                } else if (name.equals("indexerLanguage")) {
+                    indexer.setIndexerLanguage(value);
+                } else if (name.equals("htmlextension")) {
+                    indexer.setHtmlextension(value);
+                } else if (name.equals("incremental")) {
+                    indexer.setIncremental(Boolean.parseBoolean(value));
+                } else if (name.equals("stemCacheDir")) {
+                    indexer.setStemCacheDir(value);
+                } else if (name.equals("shardCount")) {
+                    indexer.setShardCount(Integer.parseInt(value));
+                } else if (name.equals("shardSize")) {
+                    indexer.setShardSize(Long.parseLong(value));
+                } else if (name.equals("shardPrefixLength")) {
+                    indexer.setShardPrefixLength(Integer.parseInt(value));
+                } else if (name.equals("dictionaryBlockSize")) {
+                    indexer.setDictionaryBlockSize(Integer.parseInt(value));
+                } else if (name.equals("termFrequencies")) {
+                    indexer.setTermFrequencies(Boolean.parseBoolean(value));
+                } else if (name.equals("encodingPrefixSize")) {
+                    indexer.setEncodingPrefixSize(Integer.parseInt(value));
+                } else if (name.equals("encodingPerDirectory")) {
+                    indexer.setEncodingPerDirectory(Boolean.parseBoolean(value));
+                } else if (name.equals("indexFormat")) {
+                    indexer.setIndexFormat(value);
+                } else if (name.equals("compress")) {
+                    indexer.setCompress(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown parameter " + name);
+                }
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid value of parameter " + name + ": " + value);
+            } catch (BuildException ex) {
+                throw new IllegalArgumentException(ex.getMessage());
+            }
+        }
+    }
+
+    private static Map<String, String> readParams(BufferedReader in) throws IOException
+    {
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        String line;
+        while (((line = in.readLine()) != null) && (line.length() > 0)) {
+            int p = line.indexOf('=');
+            if (p > 0) {
+                params.put(line.substring(0, p).trim(), line.substring(p + 1));
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Sends a request to the daemon on the local host and returns the
+     * lines of the answer. The first line is "OK" or "ERROR message".
+     * @param port the port of the daemon
+     * @param command the command
+     * @param params the parameters of the command
+     * @param connectTimeout the connect timeout in milliseconds (0 for the default)
+     * @throws IOException if the daemon is not running
+     */
+    static List<String> sendRequest(int port, String command, Map<String, String> params,
+                                    int connectTimeout) throws IOException
+    {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), connectTimeout);
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            out.println(command);
+            for (Map.Entry<String, String> e : params.entrySet()) {
+                out.println(e.getKey() + "=" + e.getValue());
+            }
+            out.println();
+            out.flush();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            List<String> lines = new ArrayList<String>();
+            String line;
+            while (((line = in.readLine()) != null) && (line.length() > 0)) {
+                lines.add(line);
+            }
+            if (lines.isEmpty()) {
+                throw new IOException("No answer from indexing daemon");
+            }
+            return lines;
+        } finally {
+            try { socket.close(); } catch (IOException ex) {}
+        }
+    }
+
+    private static ThreadFactory daemonThreads(final String name)
+    {
+        final AtomicInteger count = new AtomicInteger(0);
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * An indexing job and its state.
+     */
+    private static class IndexJob
+    {
+        final int id;
+        private final Map<String, String> params;
+        private final long queuedTime = System.currentTimeMillis();
+        private long startTime = 0;
+        private long endTime = 0;
+        private int fileCount = 0;
+        private int wordCount = 0;
+        private String error = null;
+
+        IndexJob(int id, Map<String, String> params)
+        {
+            this.id = id;
+            this.params = params;
+            // Check the parameters before the job is queued
+            configure(new DocmaWebIndexer(), params);
+            if (params.get("htmldir") == null) {
+                throw new IllegalArgumentException("Missing parameter htmldir");
+            }
+        }
+
+        void run(ExecutorService workerPool, int threads)
+        {
+            synchronized (this) {
+                startTime = System.currentTimeMillis();
+            }
+            try {
+                DocmaWebIndexer indexer = new DocmaWebIndexer();
+                configure(indexer, params);
+                indexer.setWorkerPool(workerPool, threads);
+                indexer.execute();
+                synchronized (this) {
+                    fileCount = indexer.getFileCount();
+                    wordCount = indexer.getWordCount();
+                }
+            } catch (Throwable ex) {
+                synchronized (this) {
+                    error = (ex.getMessage() != null) ? ex.getMessage() : ex.toString();
+                }
+            } finally {
+                synchronized (this) {
+                    endTime = System.currentTimeMillis();
+                    notifyAll();
+                }
+            }
+        }
+
+        synchronized void waitForEnd() throws InterruptedException
+        {
+            while (endTime == 0) {
+                wait();
+            }
+        }
+
+        synchronized boolean isFinished()
+        {
+            return endTime != 0;
+        }
+
+        synchronized boolean isFailed()
+        {
+            return error != null;
+        }
+
+        synchronized String getError()
+        {
+            return error;
+        }
+
+        String getOutputKey()
+        {
+            return new File(params.get("htmldir")).getAbsolutePath();
+        }
+
+        /**
+         * Returns the language of the stem dictionary updated by the job,
+         * or null if the job does not use a stem dictionary.
+         */
+        String getStemKey()
+        {
+            if (params.get("stemCacheDir") == null) {
+                return null;
+            }
+            String lang = params.get("indexerLanguage");
+            return IndexingContext.normalizeLanguage((lang == null) ? "en" : lang);
+        }
+
+        String getDescription()
+        {
+            return params.toString();
+        }
+
+        public synchronized String toString()
+        {
+            long now = System.currentTimeMillis();
+            StringBuilder buf = new StringBuilder();
+            buf.append("job=").append(id);
+            if (endTime != 0) {
+                buf.append(" state=").append((error == null) ? "done" : "failed");
+            } else {
+                buf.append(" state=").append((startTime == 0) ? "queued" : "running");
+            }
+            buf.append(" htmldir=").append(params.get("htmldir"));
+            buf.append(" queued=").append(((startTime == 0) ? now : startTime) - queuedTime).append(" ms");
+            if (startTime != 0) {
+                buf.append(" run=").append(((endTime == 0) ? now : endTime) - startTime).append(" ms");
+            }
+            if ((endTime != 0) && (error == null)) {
+                buf.append(" files=").append(fileCount).append(" words=").append(wordCount);
+            }
+            if (error != null) {
+                buf.append(" error=").append(error);
+            }
+            return buf.toString();
+        }
+    }
+}
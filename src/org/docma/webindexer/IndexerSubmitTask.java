@@ -0,0 +1,199 @@
+/*
+ * IndexerSubmitTask.java
+ */
+package org.docma.webindexer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+
+/**
+ * Ant task which submits an indexing job to the {@link IndexerDaemon}
+ * running on the local host and waits for its end. If no daemon is
+ * running, the directory is indexed by {@link DocmaWebIndexer} in the
+ * Ant process (unless the attribute fallback is false).
+ * <p>
+ * The task has the attributes of the DocmaWebIndexer task, and the
+ * attributes port (the port of the daemon), tokenFile (the token file
+ * written by the daemon, see {@link IndexerDaemon}) and fallback. A
+ * daemon whose token file cannot be read is treated as not running.
+ *
+ * @author MP
+ */
+public class IndexerSubmitTask extends Task
+{
+    // Time to wait for the connection to the daemon
+    private static final int CONNECT_TIMEOUT = 2000;
+
+    private int port = IndexerDaemon.DEFAULT_PORT;
+    private File tokenFile = null;
+    private boolean fallback = true;
+    private final Map<String, String> params = new LinkedHashMap<String, String>();
+
+    public void setPort(int port)
+    {
+        this.port = port;
+    }
+
+    /**
+     * The token file written by the daemon. Default is the default token
+     * file of the port.
+     */
+    public void setTokenFile(File tokenFile)
+    {
+        this.tokenFile = tokenFile;
+    }
+
+    /**
+     * If true (default), the files are indexed in the Ant process if no
+     * daemon is running. If false, the task fails.
+     */
+    public void setFallback(boolean fallback)
+    {
+        this.fallback = fallback;
+    }
+
+    public void setHtmldir(String htmldir)
+    {
+        params.put("htmldir", htmldir);
+    }
+
+    public void setHtmlextension(String htmlExtension)
+    {
+        params.put("htmlextension", htmlExtension);
+    }
+
+    public void setIndexerLanguage(String indexerLanguage)
+    {
+        params.put("indexerLanguage", indexerLanguage);
+    }
+
+    public void setIncremental(boolean incremental)
+    {
+        params.put("incremental", String.valueOf(incremental));
+    }
+
+    public void setStemCacheDir(String stemCacheDir)
+    {
+        params.put("stemCacheDir", stemCacheDir);
+    }
+
+    public void setShardCount(int shardCount)
+    {
+        params.put("shardCount", String.valueOf(shardCount));
+    }
+
+    public void setShardSize(long shardSize)
+    {
+        params.put("shardSize", String.valueOf(shardSize));
+    }
+
+    public void setShardPrefixLength(int shardPrefixLength)
+    {
+        params.put("shardPrefixLength", String.valueOf(shardPrefixLength));
+    }
+
+    public void setDictionaryBlockSize(int dictionaryBlockSize)
+    {
+        params.put("dictionaryBlockSize", String.valueOf(dictionaryBlockSize));
+    }
+
+    public void setTermFrequencies(boolean termFrequencies)
+    {
+        params.put("termFrequencies", String.valueOf(termFrequencies));
+    }
+
+    public void setEncodingPrefixSize(int encodingPrefixSize)
+    {
+        params.put("encodingPrefixSize", String.valueOf(encodingPrefixSize));
+    }
+
+    public void setEncodingPerDirectory(boolean encodingPerDirectory)
+    {
+        params.put("encodingPerDirectory", String.valueOf(encodingPerDirectory));
+    }
+
+    public void setIndexFormat(String indexFormat)
+    {
+        params.put("indexFormat", indexFormat);
+    }
+
+    public void setCompress(String compress)
+    {
+        params.put("compress", compress);
+    }
+
+    @Override
+    public void execute() throws BuildException
+    {
+        if (params.get("htmldir") == null) {
+            throw new BuildException("Missing attribute htmldir");
+        }
+        // The daemon may have a different working directory
+        resolvePath("htmldir");
+        resolvePath("stemCacheDir");
+        Map<String, String> request = new LinkedHashMap<String, String>(params);
+        request.put(IndexerDaemon.PARAM_WAIT, "true");
+        File tf = (tokenFile != null) ? tokenFile : IndexerDaemon.getDefaultTokenFile(port);
+        List<String> answer;
+        try {
+            request.put(IndexerDaemon.PARAM_TOKEN, IndexerDaemon.readToken(tf));
+        } catch (IOException ex) {
+            daemonNotAvailable("cannot read token file " + tf, ex);
+            return;
+        }
+        try {
+            answer = IndexerDaemon.sendRequest(port, IndexerDaemon.CMD_INDEX, request, CONNECT_TIMEOUT);
+        } catch (ConnectException | SocketTimeoutException ex) {
+            daemonNotAvailable(ex.getMessage(), ex);
+            return;
+        } catch (IOException ex) {
+            throw new BuildException("Indexing daemon failed: " + ex.getMessage(), ex);
+        }
+        for (int i = 1; i < answer.size(); i++) {
+            log(answer.get(i));
+        }
+        String status = answer.get(0);
+        if (!status.equals("OK")) {
+            throw new BuildException("Indexing failed: " + status.substring(status.indexOf(' ') + 1));
+        }
+    }
+
+    private void daemonNotAvailable(String reason, Exception ex) throws BuildException
+    {
+        if (!fallback) {
+            throw new BuildException("Indexing daemon not available on port " + port + ": " + reason, ex);
+        }
+        log("Indexing daemon not available on port " + port + " (" + reason + "). Indexing in-process.", Project.MSG_VERBOSE);
+        executeInProcess();
+    }
+
+    private void resolvePath(String name)
+    {
+        String path = params.get(name);
+        if (path != null) {
+            File f = (getProject() != null) ? getProject().resolveFile(path) : new File(path);
+            params.put(name, f.getAbsolutePath());
+        }
+    }
+
+    private void executeInProcess() throws BuildException
+    {
+        DocmaWebIndexer indexer = new DocmaWebIndexer();
+        indexer.bindToOwner(this);
+        try {
+            IndexerDaemon.configure(indexer, params);
+        } catch (IllegalArgumentException ex) {
+            throw new BuildException(ex.getMessage());
+        }
+        indexer.execute();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * TermCounts.java
+ */
+package org.docma.webindexer;
+
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The distinct words of a file, with the number of occurrences of each
+ * word and the number of words of the file.
+ * <p>
+ * The words are counted while they are added: adding a word which is
+ * already contained increments its count. Therefore the counts are
+ * collected in the same pass as the distinct words, by the code which
+ * fills the set of words of a file. Empty words are added to the set
+ * like any other word, but are not counted as words of the file.
+ *
+ * @author MP
+ */
+public class TermCounts extends AbstractSet<String>
+{
+    private final HashMap<String, int[]> counts;
+    private int tokenCount = 0;
+
+    public TermCounts()
+    {
+        counts = new HashMap<String, int[]>();
+    }
+
+    public TermCounts(int expectedSize)
+    {
+        counts = new HashMap<String, int[]>(Math.max(16, expectedSize * 4 / 3 + 1));
+    }
+
+    /**
+     * Adds an occurrence of the word.
+     * @return true if the word was not contained yet
+     */
+    @Override
+    public boolean add(String word)
+    {
+        return add(word, 1);
+    }
+
+    /**
+     * Adds the given number of occurrences of the word.
+     * @return true if the word was not contained yet
+     */
+    public boolean add(String word, int count)
+    {
+        if (word.length() > 0) {
+            tokenCount += count;
+        }
+        int[] cnt = counts.get(word);
+        if (cnt == null) {
+            counts.put(word, new int[] { count });
+            return true;
+        }
+        cnt[0] += count;
+        return false;
+    }
+
+    /**
+     * Returns the number of occurrences of the word (0 if not contained).
+     */
+    public int getCount(String word)
+    {
+        int[] cnt = counts.get(word);
+        return (cnt == null) ? 0 : cnt[0];
+    }
+
+    /**
+     * Returns the number of (non-empty) words of the file, including repeated words.
+     */
+    public int getTokenCount()
+    {
+        return tokenCount;
+    }
+
+    @Override
+    public boolean contains(Object word)
+    {
+        return counts.containsKey(word);
+    }
+
+    /**
+     * Removes the word and its occurrences.
+     */
+    @Override
+    public boolean remove(Object word)
+    {
+        int[] cnt = counts.remove(word);
+        if (cnt == null) {
+            return false;
+        }
+        if (((String) word).length() > 0) {
+            tokenCount -= cnt[0];
+        }
+        return true;
+    }
+
+    @Override
+    public Iterator<String> iterator()
+    {
+        final Iterator<Map.Entry<String, int[]>> it = counts.entrySet().iterator();
+        return new Iterator<String>() {
+            private Map.Entry<String, int[]> last;
+
+            public boolean hasNext()
+            {
+                return it.hasNext();
+            }
+
+            public String next()
+            {
+                last = it.next();
+                return last.getKey();
+            }
+
+            public void remove()
+            {
+                it.remove();
+                if (last.getKey().length() > 0) {
+                    tokenCount -= last.getValue()[0];
+                }
+            }
+        };
+    }
+
+    @Override
+    public int size()
+    {
+        return counts.size();
+    }
+}
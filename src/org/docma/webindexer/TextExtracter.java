@@ -6,8 +6,7 @@ package org.docma.webindexer;
 import com.nexwave.nsidita.BlankRemover;
 import com.nexwave.nsidita.DocFileInfo;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 import org.docma.util.XMLParser;
 
 /**
@@ -16,14 +15,53 @@ import org.docma.util.XMLParser;
  */
 public class TextExtracter 
 {
+    // Attributes read from the start tags. The offsets of the value of 
+    // attribute i are stored at index 2*i and 2*i+1 (-1 if not existing).
+    private static final String[] ATT_NAMES = { "name", "content", "class", "id" };
+    private static final int ATT_NAME = 0;
+    private static final int ATT_CONTENT = 1;
+    private static final int ATT_CLASS = 2;
+    private static final int ATT_ID = 3;
+    private static final int ATT_COUNT = ATT_NAMES.length;
+
+    /**
+     * Extracts the text from the content returned by 
+     * {@link XHTMLReader#read(java.io.File, String)}.
+     * The parser requires a String, therefore the content is copied once.
+     */
+    public static StringBuilder extract(CharSequence xml, DocFileInfo fileDesc) throws Exception
+    {
+        return extract(xml.toString(), fileDesc);
+    }
+
     public static StringBuilder extract(String xml, DocFileInfo fileDesc) throws Exception
     {
-        StringBuilder buf = new StringBuilder(Math.max(xml.length(), 32));
-        
+        final StringBuilder buf = new StringBuilder(Math.max(xml.length(), 32));
+        extract(xml, fileDesc, new TokenSink() {
+            public void text(CharSequence chars, int start, int end, int origin) 
+            {
+                buf.append(chars, start, end);
+            }
+            
+            public void separator() 
+            {
+                buf.append(" ");
+            }
+        });
+        return buf;
+    }
+
+    /**
+     * Extracts the text from the given html file content and passes it 
+     * to the sink while the content is parsed. The title and description 
+     * of the file are written to fileDesc.
+     */
+    public static void extract(String xml, DocFileInfo fileDesc, TokenSink sink) throws Exception
+    {
         int txtStart = 0;
         int titleStart = -1;
         XMLParser xmlParser = new XMLParser(xml, true, true, true);
-        Map<String, String> atts = new HashMap<String, String>();
+        int[] atts = new int[ATT_COUNT * 2];
         boolean isFileTitle = false;
         boolean isScript = false;
         boolean isContent = false;
@@ -37,29 +75,32 @@ public class TextExtracter
                 // Add text between previous tag and this tag
                 int tagStart = xmlParser.getStartOffset();
                 if (tagStart > txtStart) {
-                    buf.append(xml, txtStart, tagStart);
+                    sink.text(xml, txtStart, tagStart, origin(isFileTitle, isContent));
                 }
                 txtStart = xmlParser.getEndOffset();
                 
                 // Get tag information
-                String eName = xmlParser.getElementName().toLowerCase();
-                xmlParser.getAttributesLower(atts);
+                String eName = xmlParser.getElementName();
+                findAttributes(xml, tagStart, txtStart, atts);
                 boolean nonEmpty = !xmlParser.isEmptyElement();
                 
                 // Handle meta tag
-                if (eName.equals("meta")) {
-                    String metaName = atts.get("name");
-                    if((metaName != null) && (metaName.equals("keywords") || metaName.equals("description"))) {
-                        String metaContent = atts.get("content");
+                if (eName.equalsIgnoreCase("meta")) {
+                    boolean isKeywords = attributeEquals(xml, atts, ATT_NAME, "keywords");
+                    boolean isDescription = attributeEquals(xml, atts, ATT_NAME, "description");
+                    if (isKeywords || isDescription) {
+                        String metaContent = attributeValue(xml, atts, ATT_CONTENT);
                         if ((metaContent != null) && !metaContent.equals("")) {
-                            buf.append(" ").append(metaContent).append(" ");
+                            sink.separator();
+                            sink.text(metaContent, 0, metaContent.length(), TokenSink.META);
+                            sink.separator();
                         }
                         
                         // dwc: adding this to make the docbook <abstract> element
                         // (which becomes <meta name="description".../> in html)
                         // into the brief description that shows up in search
                         // results.
-                        if (metaName.equals("description") && (metaContent != null)) {
+                        if (isDescription && (metaContent != null)) {
                             String descLine = BlankRemover.rmWhiteSpace(metaContent.replace('\n', ' '));
                             fileDesc.setShortdesc(descLine);
                         }
@@ -67,23 +108,21 @@ public class TextExtracter
                 }
                 
                 // Handle title tag
-                isFileTitle = nonEmpty && eName.equals("title"); // || eName.equals("shortdesc");
+                isFileTitle = nonEmpty && eName.equalsIgnoreCase("title"); // || eName.equals("shortdesc");
                 if (isFileTitle) {
                     titleStart = xmlParser.getEndOffset();
                 }
                 
                 // Handle script tag
-                isScript = nonEmpty && eName.equals("script");
+                isScript = nonEmpty && eName.equalsIgnoreCase("script");
 
                 // Skip navigation bars and elements that are marked with
                 // class "no_search_indexing".
                 boolean skipped = false;
-                String clsVal = atts.get("class");
-                if (clsVal != null) {
-                    clsVal = " " + clsVal + " ";
-                    if (clsVal.contains(" navfooter ") || 
-                        clsVal.contains(" navheader ") || 
-                        clsVal.contains(" no_search_indexing ")) {
+                if (atts[2 * ATT_CLASS] >= 0) {
+                    if (hasClass(xml, atts, "navfooter") || 
+                        hasClass(xml, atts, "navheader") || 
+                        hasClass(xml, atts, "no_search_indexing")) {
                         // Skip this element 
                         xmlParser.readUntilCorrespondingClosingTag(); 
                         txtStart = xmlParser.getEndOffset();  // skip text inside skipped element
@@ -92,13 +131,12 @@ public class TextExtracter
                 }
 
                 if (! skipped) {
-                    String idVal = atts.get("id");
-                    if("content".equals(idVal)) {
+                    if (attributeEquals(xml, atts, ATT_ID, "content")) {
                         isContent = true;
                     }
 
                     if (isContent) {
-                        if(eName.equals("div")){
+                        if(eName.equalsIgnoreCase("div")){
                             divLevel++;
                         }
                         // if (eName.equals("div") || eName.equals("p") || eName.equals("span")) {
@@ -106,7 +144,7 @@ public class TextExtracter
                         // }
                     }
                 }
-                buf.append(" ");
+                sink.separator();
                 
             } else if (nextType == XMLParser.END_ELEMENT) {
                 
@@ -114,16 +152,16 @@ public class TextExtracter
                 int tagStart = xmlParser.getStartOffset();
                 if ((isContent || isFileTitle) && !isScript) {
                     if (tagStart > txtStart) {
-                        buf.append(xml, txtStart, tagStart);
+                        sink.text(xml, txtStart, tagStart, origin(isFileTitle, isContent));
                     }
                 }
                 txtStart = xmlParser.getEndOffset();
                 
                 // Get tag name
-                String eName = xmlParser.getElementName().toLowerCase();
+                String eName = xmlParser.getElementName();
                 
                 // Handle title tag
-                if (eName.equals("title")) {
+                if (eName.equalsIgnoreCase("title")) {
                     int titleEnd = xmlParser.getStartOffset();
                     if ((titleStart >= 0) && (titleStart < titleEnd)) {
                         String title = xml.substring(titleStart, titleEnd);
@@ -133,7 +171,7 @@ public class TextExtracter
                     }
                 }
                 
-                if (eName.equals("div") && isContent){
+                if (eName.equalsIgnoreCase("div") && isContent){
                     divLevel--;
                     if (divLevel == 0) {
                         isContent = false;
@@ -146,10 +184,117 @@ public class TextExtracter
         
         // Copy remaining text after the last tag
         if (txtStart < xml.length()) {  // copy remaining content
-            buf.append(xml, txtStart, xml.length());
+            sink.text(xml, txtStart, xml.length(), origin(isFileTitle, isContent));
+        }
+    }
+
+    private static int origin(boolean isFileTitle, boolean isContent)
+    {
+        return isFileTitle ? TokenSink.TITLE : (isContent ? TokenSink.CONTENT : TokenSink.TEXT);
+    }
+
+    /**
+     * Finds the values of the attributes listed in ATT_NAMES in the start tag
+     * between tagStart and tagEnd. The attribute names are compared 
+     * case-insensitive. If an attribute occurs several times, the last 
+     * value is used.
+     */
+    private static void findAttributes(String xml, int tagStart, int tagEnd, int[] atts)
+    {
+        Arrays.fill(atts, -1);
+        int end = tagEnd - 1;  // position of '>'
+        
+        // Skip element name
+        int pos = tagStart + 1;
+        while ((pos < end) && !isAttSeparator(xml.charAt(pos))) {
+            pos++;
         }
         
-        return buf;
+        while (pos < end) {
+            while ((pos < end) && isAttSeparator(xml.charAt(pos))) {
+                pos++;
+            }
+            int nameStart = pos;
+            while ((pos < end) && (xml.charAt(pos) != '=') && !isAttSeparator(xml.charAt(pos))) {
+                pos++;
+            }
+            int nameEnd = pos;
+            if (nameEnd == nameStart) {
+                pos++;
+                continue;
+            }
+            while ((pos < end) && Character.isWhitespace(xml.charAt(pos))) {
+                pos++;
+            }
+            int valStart = pos;
+            int valEnd = pos;
+            if ((pos < end) && (xml.charAt(pos) == '=')) {
+                pos++;
+                while ((pos < end) && Character.isWhitespace(xml.charAt(pos))) {
+                    pos++;
+                }
+                char ch = (pos < end) ? xml.charAt(pos) : ' ';
+                if ((ch == '"') || (ch == '\'')) {
+                    valStart = ++pos;
+                    while ((pos < end) && (xml.charAt(pos) != ch)) {
+                        pos++;
+                    }
+                    valEnd = pos++;
+                } else {
+                    valStart = pos;
+                    while ((pos < end) && !Character.isWhitespace(xml.charAt(pos))) {
+                        pos++;
+                    }
+                    valEnd = pos;
+                }
+            }
+            for (int i = 0; i < ATT_COUNT; i++) {
+                String att = ATT_NAMES[i];
+                if ((nameEnd - nameStart == att.length()) && 
+                    xml.regionMatches(true, nameStart, att, 0, att.length())) {
+                    atts[2 * i] = valStart;
+                    atts[2 * i + 1] = valEnd;
+                    break;
+                }
+            }
+        }
+    }
+    
+    private static boolean isAttSeparator(char ch)
+    {
+        return Character.isWhitespace(ch) || (ch == '/');
+    }
+
+    private static String attributeValue(String xml, int[] atts, int att)
+    {
+        int start = atts[2 * att];
+        return (start < 0) ? null : xml.substring(start, atts[2 * att + 1]);
+    }
+
+    private static boolean attributeEquals(String xml, int[] atts, int att, String value)
+    {
+        int start = atts[2 * att];
+        return (start >= 0) && (atts[2 * att + 1] - start == value.length()) && 
+               xml.startsWith(value, start);
+    }
+
+    /**
+     * Returns true if the class attribute contains the given class name
+     * (class names are separated by blanks).
+     */
+    private static boolean hasClass(String xml, int[] atts, String cls)
+    {
+        int start = atts[2 * ATT_CLASS];
+        int end = atts[2 * ATT_CLASS + 1];
+        for (int pos = start; pos + cls.length() <= end; pos++) {
+            int clsEnd = pos + cls.length();
+            if (((pos == start) || (xml.charAt(pos - 1) == ' ')) && 
+                ((clsEnd == end) || (xml.charAt(clsEnd) == ' ')) &&
+                xml.startsWith(cls, pos)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private static String removeXMLTags(String xml) 
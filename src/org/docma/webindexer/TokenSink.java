@@ -0,0 +1,42 @@
+/*
+ * TokenSink.java
+ */
+package org.docma.webindexer;
+
+/**
+ * Receives the text extracted from an html file by
+ * {@link TextExtracter#extract(String, com.nexwave.nsidita.DocFileInfo, TokenSink)}.
+ * <p>
+ * The text is passed in segments while the file is parsed. Consecutive
+ * segments are parts of the same text, i.e. a word may continue in the
+ * next segment, unless the segments are separated by a call of
+ * {@link #separator()}.
+ *
+ * @author MP
+ */
+public interface TokenSink
+{
+    /** Text outside of the content area, e.g. in the head of the file. */
+    int TEXT = 0;
+    /** Text of the title element. */
+    int TITLE = 1;
+    /** Content of the keywords and description meta tags. */
+    int META = 2;
+    /** Text of the content area (element with id "content"). */
+    int CONTENT = 3;
+
+    /**
+     * Called for each text segment. The characters are only valid during
+     * the call.
+     * @param chars the text (character entities are not decoded)
+     * @param start the start offset of the segment in chars
+     * @param end the end offset of the segment in chars
+     * @param origin one of TEXT, TITLE, META or CONTENT
+     */
+    void text(CharSequence chars, int start, int end, int origin);
+
+    /**
+     * Called between segments that do not belong to the same word.
+     */
+    void separator();
+}
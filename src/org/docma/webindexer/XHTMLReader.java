@@ -3,18 +3,71 @@
  */
 package org.docma.webindexer;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.UnsupportedEncodingException;
-import java.util.Arrays;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
+ * Reads the content of html files.
+ * <p>
+ * Each thread uses its own reader instance (see {@link #getInstance()}), 
+ * which reuses a direct byte buffer, the charset decoders and a char 
+ * buffer for all files read by the thread. Files larger than the pooled
+ * byte buffer are read and decoded in chunks of the size of the pooled
+ * buffer, and their content is decoded into a buffer which is not pooled,
+ * so that a single large file does not increase the memory held by each
+ * thread permanently. Files are not memory-mapped, because a mapped file
+ * cannot be replaced or changed on Windows until the mapping is garbage
+ * collected.
  *
  * @author MP
  */
 public class XHTMLReader 
 {
+    // Files up to this size are read into the pooled byte buffer at once,
+    // larger files in chunks of this size
+    private static final int MAX_POOLED_BYTES = 1024*1024;
+
+    // Larger char buffers are allocated for a single file only
+    private static final int MAX_POOLED_CHARS = 2*MAX_POOLED_BYTES;
+    
+    private static final EncodingSniffer DEFAULT_SNIFFER = new EncodingSniffer();
+
+    private static final ThreadLocal<XHTMLReader> READERS = new ThreadLocal<XHTMLReader>() {
+        @Override
+        protected XHTMLReader initialValue() 
+        {
+            return new XHTMLReader();
+        }
+    };
+
+    private ByteBuffer byteBuf = ByteBuffer.allocateDirect(64*1024);
+    private CharBuffer charBuf = CharBuffer.allocate(64*1024);
+    private final Map<String, CharsetDecoder> decoders = new HashMap<String, CharsetDecoder>();
+
+    private XHTMLReader()
+    {
+    }
+
+    /**
+     * Returns the reader of the current thread.
+     */
+    public static XHTMLReader getInstance()
+    {
+        return READERS.get();
+    }
+
     public static String readFile(File file) throws Exception
     {
         return readFile(file, null);
@@ -22,137 +75,155 @@ public class XHTMLReader
     
     public static String readFile(File file, String encoding) throws Exception
     {
-        ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+        return getInstance().read(file, encoding).toString();
+    }
+
+    /**
+     * Reads and decodes the given file. If no encoding is given, the encoding
+     * is determined from the byte order mark, the XML declaration or the 
+     * meta tags (default is UTF-8).
+     * @return the decoded content. The buffer is reused by the next call 
+     *         of this method.
+     */
+    public CharBuffer read(File file, String encoding) throws IOException
+    {
+        return read(file, encoding, DEFAULT_SNIFFER);
+    }
+
+    /**
+     * Same as {@link #read(File, String)}, but uses the given sniffer
+     * to determine the encoding if no encoding is given.
+     */
+    public CharBuffer read(File file, String encoding, EncodingSniffer sniffer) throws IOException
+    {
         try (FileInputStream fin = new FileInputStream(file)) {
-            byte[] buf = new byte[64*1024];
-            int cnt;
-            while ((cnt = fin.read(buf)) >= 0) {
-                if (cnt > 0) out.write(buf, 0, cnt);
+            FileChannel ch = fin.getChannel();
+            long size = ch.size();
+            int chunkSize = (int) Math.min(size, MAX_POOLED_BYTES);
+            if (byteBuf.capacity() < chunkSize) {
+                byteBuf = ByteBuffer.allocateDirect(Math.min(Integer.highestOneBit(chunkSize) << 1, 
+                                                             MAX_POOLED_BYTES));
             }
-        }
-        out.close();
-        byte[] content = out.toByteArray();
+            byteBuf.clear();
+            long remaining = fill(ch, size);
+            byteBuf.flip();
 
-        if ((encoding == null) || encoding.trim().equals("")) {
-            encoding = guessEncoding(content);
-        }
-        
-        String res = "";
-        try {
-            res = new String(content, encoding);
-        } catch (UnsupportedEncodingException ex) {
-            if (! encoding.equalsIgnoreCase("UTF-8")) {
-                res = new String(content, "UTF-8");
-                System.out.println("Unsupported encoding '" + encoding + "' for file '" + 
-                                   file.getName() + ". Falling back to UTF-8.");
-            } else {
-                System.out.println("Cannot read file '" + file.getName() + "'. Unsupported encoding: " + encoding);
+            // The encoding is determined from the first chunk of the file
+            if ((encoding == null) || encoding.trim().equals("")) {
+                encoding = sniffer.getEncoding(file, byteBuf);
             }
+
+            CharsetDecoder decoder = getDecoder(encoding);
+            if (decoder == null) {
+                if (! encoding.equalsIgnoreCase("UTF-8")) {
+                    decoder = getDecoder("UTF-8");
+                    System.out.println("Unsupported encoding '" + encoding + "' for file '" + 
+                                       file.getName() + ". Falling back to UTF-8.");
+                } else {
+                    System.out.println("Cannot read file '" + file.getName() + "'. Unsupported encoding: " + encoding);
+                    charBuf.clear();
+                    charBuf.flip();
+                    return charBuf;
+                }
+            }
+            return decode(decoder, ch, size, remaining);
         }
-        return res;
     }
 
-    private static String guessEncoding(byte[] content) throws Exception
+    /**
+     * Reads from the channel into the byte buffer until the buffer is full
+     * or the given number of bytes has been read.
+     * @return the number of bytes which remain to be read (0 at the end of 
+     *         the file)
+     */
+    private long fill(FileChannel ch, long remaining) throws IOException
     {
-        String head = getHead(content);
-        String encoding = extractXMLEncoding(head);
-        if (encoding == null) {
-            encoding = extractContentTypeEncoding(head);
+        while ((remaining > 0) && byteBuf.hasRemaining()) {
+            int cnt = ch.read(byteBuf);
+            if (cnt < 0) {
+                return 0;   // file has been truncated
+            }
+            remaining -= cnt;
         }
-        return (encoding == null) ? "UTF-8" : encoding;
+        return Math.max(remaining, 0);
     }
-    
-    private static String extractXMLEncoding(String head)
+
+    private CharsetDecoder getDecoder(String encoding)
     {
-        // Try to extract encoding from XML declaration. Example:
-        // <?xml version="1.0" encoding="UTF-8" standalone="no"?>
-        String encoding = null;
-        int xStart = head.indexOf("<?xml");
-        if (xStart >= 0) {
-            int xEnd = head.indexOf("?>", xStart);
-            if (xEnd > 0) {
-                String s = head.substring(xStart, xEnd)
-                               .replace('\'', '"')
-                               .replaceAll("\\s*=\\s*", "=").toLowerCase();
-
-                final String ENC_PATTERN = "encoding=\"";
-                int p1 = s.indexOf(ENC_PATTERN);
-                if (p1 > 0) {
-                    p1 += ENC_PATTERN.length();
-                    int p2 = s.indexOf('"', p1);
-                    if (p2 > 0) {
-                        encoding = s.substring(p1, p2);
-                    }
-                }
+        CharsetDecoder decoder = decoders.get(encoding);
+        if (decoder == null) {
+            try {
+                decoder = Charset.forName(encoding).newDecoder()
+                                 .onMalformedInput(CodingErrorAction.REPLACE)
+                                 .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            } catch (IllegalCharsetNameException ex) {
+                return null;
+            } catch (UnsupportedCharsetException ex) {
+                return null;
             }
+            decoders.put(encoding, decoder);
         }
-        return encoding;
+        return decoder;
     }
-    
-    private static String extractContentTypeEncoding(String head)
+
+    /**
+     * Decodes the content of the byte buffer, and the remaining bytes of
+     * the file, which are read through the byte buffer chunk by chunk.
+     */
+    private CharBuffer decode(CharsetDecoder decoder, FileChannel ch, long size, long remaining) 
+            throws IOException
     {
-        // Try to extract encoding from content-type. Example:
-        // <meta http-equiv="Content-Type" content="text/html; charset=utf-8"/>
-        
-        String encoding = null;
-        final String CHARSET_PATTERN = "charset=";
-        head = head.toLowerCase();
-        int pos = 0;
-        while (pos < head.length()) {
-            int p1 = head.indexOf("<meta", pos);
-            if (p1 < 0) {
+        int maxChars = (int) Math.min(Math.ceil(size * (double) decoder.maxCharsPerByte()) + 16, 
+                                      Integer.MAX_VALUE - 16);
+        CharBuffer out = getCharBuffer(maxChars);
+        out.clear();
+        decoder.reset();
+        while (true) {
+            CoderResult res = decoder.decode(byteBuf, out, remaining == 0);
+            if (res.isOverflow()) {
+                out = growCharBuffer(out);  // the file has grown
+            } else if (! res.isUnderflow()) {
+                res.throwException();
+            } else if (remaining == 0) {
                 break;
-            }
-            pos = p1 + 1;  // continue after this meta tag
-            int p2 = head.indexOf('>', p1);
-            if (p2 > 0) {
-                String meta = head.substring(p1, p2 + 1)
-                                  .replace('\'', '"')
-                                  .replaceAll("\\s*=\\s*", "=");
-                if (meta.contains("http-equiv=\"content-type\"")) {
-
-                    int p3 = meta.lastIndexOf(CHARSET_PATTERN);
-                    if (p3 > 0) {
-                        p3 += CHARSET_PATTERN.length();
-                        int p4 = meta.indexOf('"', p3);
-                        if (p4 > 0) {
-                            encoding = meta.substring(p3, p4).trim().toUpperCase();
-                            if (encoding.endsWith(";")) {
-                                encoding = encoding.substring(0, encoding.length() - 1).trim();
-                            }
-                        }
-                    }
-                }
+            } else {
+                byteBuf.compact();
+                remaining = fill(ch, remaining);
+                byteBuf.flip();
             }
         }
-        return encoding;
+        CoderResult res;
+        while ((res = decoder.flush(out)).isOverflow()) {
+            out = growCharBuffer(out);
+        }
+        if (! res.isUnderflow()) {
+            res.throwException();
+        }
+        out.flip();
+        return out;
     }
-    
-    private static String getHead(byte[] content) throws Exception
+
+    /**
+     * Returns an empty char buffer with at least the given capacity. Up to
+     * MAX_POOLED_CHARS, the pooled buffer is returned.
+     */
+    private CharBuffer getCharBuffer(int capacity)
     {
-        // Read content up to the body tag
-        
-        final String BODY = "body";
-        int len = content.length; // Math.min(content.length, 1000);
-        int i = 0;
-        while (i < len) {
-            if (((char) content[i]) == '<') {
-                if (i + BODY.length() < len) {
-                    boolean isBody = true;
-                    for (int k=0; k < BODY.length(); k++) {
-                        if (Character.toLowerCase(content[i + k + 1]) != BODY.charAt(k)) {
-                            isBody = false;
-                            break;
-                        }
-                    }
-                    if (isBody ) {
-                        break;
-                    }
-                }
-            }
-            i++;
+        if (capacity > MAX_POOLED_CHARS) {
+            return CharBuffer.allocate(capacity);  // not kept after the next call
+        }
+        if (charBuf.capacity() < capacity) {
+            charBuf = CharBuffer.allocate(Math.min(Integer.highestOneBit(capacity) << 1, MAX_POOLED_CHARS));
         }
-        byte[] head = (i < len) ? Arrays.copyOf(content, i) : content;
-        return new String(head, "UTF-8");
+        return charBuf;
+    }
+
+    private CharBuffer growCharBuffer(CharBuffer out)
+    {
+        CharBuffer buf = getCharBuffer(2 * out.capacity());
+        buf.clear();
+        out.flip();
+        buf.put(out);
+        return buf;
     }
 }